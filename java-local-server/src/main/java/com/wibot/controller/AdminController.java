@@ -5,12 +5,21 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.wibot.documentLoader.DocumentProcessorService;
+import com.wibot.documentLoader.DocumentRetryScheduler;
 import com.wibot.service.ApiKeyService;
 import com.wibot.service.DirectoryManagementService;
 import com.wibot.service.FileTypeConfigurationService;
 import com.wibot.service.RemoteUploadService;
 import com.wibot.service.SystemConfigService;
 import com.wibot.service.DirectorySyncService;
+import com.wibot.service.DirectoryWatchService;
+import com.wibot.service.FileFingerprintService;
+import com.wibot.service.DirectoryProcessingService;
+import com.wibot.service.RefineryScheduler;
+import com.wibot.service.RefineryService;
+import com.wibot.service.LLMResponseCache;
+import com.wibot.index.FactIndex;
 import java.util.Map;
 import java.util.List;
 import java.util.HashMap;
@@ -40,6 +49,33 @@ public class AdminController {
     @Autowired
     private DirectorySyncService directorySyncService;
 
+    @Autowired
+    private DocumentProcessorService documentProcessorService;
+
+    @Autowired
+    private DocumentRetryScheduler documentRetryScheduler;
+
+    @Autowired
+    private DirectoryWatchService directoryWatchService;
+
+    @Autowired
+    private FileFingerprintService fileFingerprintService;
+
+    @Autowired
+    private DirectoryProcessingService directoryProcessingService;
+
+    @Autowired
+    private RefineryScheduler refineryScheduler;
+
+    @Autowired
+    private RefineryService refineryService;
+
+    @Autowired
+    private LLMResponseCache llmResponseCache;
+
+    @Autowired
+    private FactIndex factIndex;
+
     // @GetMapping("/chatClient")
     // public String chatPage() {
     // return "chat";
@@ -119,6 +155,15 @@ public class AdminController {
         return directoryManagementService.handlePathSubmission(path);
     }
 
+    @PostMapping("/admin/reprioritize")
+    @ResponseBody
+    public Map<String, Object> reprioritizeDirectory(@RequestBody Map<String, Object> request) {
+        String path = (String) request.get("path");
+        Object priority = request.get("priority");
+        return directoryManagementService.reprioritizeDirectory(path,
+                priority != null ? Integer.valueOf(String.valueOf(priority)) : null);
+    }
+
     @PostMapping("/admin/delete/monitored-dir")
     @ResponseBody
     public Map<String, Object> deleteMonitoredDir(@RequestBody Map<String, String> request) {
@@ -150,6 +195,66 @@ public class AdminController {
         return directorySyncService.manualSync();
     }
 
+    @GetMapping("/admin/ingestion/stats")
+    @ResponseBody
+    public Map<String, Object> getIngestionStats() {
+        Map<String, Object> stats = documentProcessorService.getProcessingStats();
+        stats.put("directoryWatch", directoryWatchService.getStats());
+        stats.put("fingerprint", fileFingerprintService.getStats());
+        stats.put("directoryScan", directoryProcessingService.getScanStats());
+        return stats;
+    }
+
+    @GetMapping("/admin/refinery/scheduler")
+    @ResponseBody
+    public Map<String, Object> getRefinerySchedulerStats() {
+        Map<String, Object> stats = refineryScheduler.getStats();
+        stats.put("pendingModifiedDocuments", refineryService.getPendingModifiedDocumentCount());
+        return stats;
+    }
+
+    @GetMapping("/admin/refinery/prefilter/evaluate")
+    @ResponseBody
+    public Map<String, Object> evaluateRefineryPrefilter(@RequestParam Long taskId,
+            @RequestParam(required = false) List<Double> minScores,
+            @RequestParam(defaultValue = "5000") int sampleSize) {
+        return refineryService.evaluatePrefilter(taskId, minScores, sampleSize);
+    }
+
+    @GetMapping("/admin/refinery/facts/index")
+    @ResponseBody
+    public Map<String, Object> getFactIndexStats() {
+        return factIndex.getStats();
+    }
+
+    @PostMapping("/admin/refinery/facts/index/rebuild")
+    @ResponseBody
+    public Map<String, Object> rebuildFactIndex() {
+        Map<String, Object> result = factIndex.getStats();
+        result.put("started", factIndex.rebuildAsync());
+        return result;
+    }
+
+    @GetMapping("/admin/llm/cache/stats")
+    @ResponseBody
+    public Map<String, Object> getLLMCacheStats() {
+        return llmResponseCache.getStats();
+    }
+
+    @GetMapping("/admin/ingestion/dead-letters")
+    @ResponseBody
+    public Map<String, Object> listDeadLetters(@RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size) {
+        return documentRetryScheduler.listDeadLetters(page, size);
+    }
+
+    @PostMapping("/admin/ingestion/dead-letters/requeue")
+    @ResponseBody
+    public Map<String, Object> requeueDeadLetters(@RequestBody(required = false) Map<String, List<Long>> request) {
+        List<Long> ids = request != null ? request.get("ids") : null;
+        return documentRetryScheduler.requeueDeadLetters(ids);
+    }
+
     @PostMapping("/admin/sync-config")
     @ResponseBody
     public synchronized Map<String, Object> syncConfig(@RequestBody Map<String, Object> request) {
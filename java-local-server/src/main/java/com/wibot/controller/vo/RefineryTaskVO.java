@@ -15,6 +15,7 @@ public class RefineryTaskVO {
     private String status; // 当前状态（活跃/处理中/失败）
     private String errorMessage;
     private String processingCheckpoint;
+    private int prefilterSkippedCount; // 词法预筛跳过的段落数
     private String message; // 添加消息字段
 
     // Getters and Setters
@@ -114,6 +115,14 @@ public class RefineryTaskVO {
         this.processingCheckpoint = processingCheckpoint;
     }
 
+    public int getPrefilterSkippedCount() {
+        return prefilterSkippedCount;
+    }
+
+    public void setPrefilterSkippedCount(int prefilterSkippedCount) {
+        this.prefilterSkippedCount = prefilterSkippedCount;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -4,12 +4,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.wibot.documentLoader.event.DocumentEventListener;
 import com.wibot.documentLoader.event.DocumentProcessEvent;
 import com.wibot.documentParser.DocumentParserInterface;
+import com.wibot.documentParser.ParseResultCache;
 import com.wibot.documentParserSelector.DocumentParserSelectorInterface;
 
 import com.wibot.persistence.DocumentDataRepository;
@@ -18,6 +21,7 @@ import com.wibot.persistence.MarkdownParagraphRepository;
 import com.wibot.persistence.entity.DocumentDataPO;
 import com.wibot.persistence.entity.MarkdownBasedContentPO;
 import com.wibot.persistence.entity.MarkdownParagraphPO;
+import com.wibot.service.FileFingerprintService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import jakarta.annotation.PostConstruct;
@@ -26,8 +30,12 @@ import jakarta.annotation.PreDestroy;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.*;
 
 @Service
@@ -36,8 +44,11 @@ public class DocumentProcessorService {
     private static final Logger logger = LoggerFactory.getLogger(DocumentProcessorService.class);
 
     private static final int CORE_POOL_SIZE = 4;
-    private static final int MAX_RETRY_ATTEMPTS = 3;
-    private static final long RETRY_DELAY_MS = 1000; // 1秒重试间隔
+    private static final long LEASE_DURATION_MS = 5 * 60 * 1000; // 租约有效期，超过未续约视为持有者已失效
+    private static final long LEASE_HEARTBEAT_MS = 60 * 1000; // 续约间隔，远小于租约有效期
+
+    private static final List<String> PENDING_STATES = Arrays.asList(DocumentDataPO.PROCESSED_STATE_FILE_SAVED,
+            DocumentDataPO.PROCESSED_STATE_DELETED);
 
     @Autowired
     private DocumentDataRepository documentDataRepository;
@@ -52,10 +63,31 @@ public class DocumentProcessorService {
     @Autowired
     private DocumentIndexService documentIndexService;
 
+    @Autowired
+    private ParseMemoryBudget parseMemoryBudget;
+
+    @Autowired
+    private ParseResultCache parseResultCache;
+
+    @Autowired
+    private DocumentRetryScheduler documentRetryScheduler;
+
+    @Autowired
+    private FileFingerprintService fingerprintService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private final ExecutorService executorService;
 
     private final List<DocumentEventListener> listeners = new ArrayList<>();
 
+    // 每个进程启动时生成，多个进程共用同一数据库时用来区分租约持有者
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // 当前持有租约的处理线程
+    private final Set<String> activeLeaseOwners = ConcurrentHashMap.newKeySet();
+
     public DocumentProcessorService() {
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("doc-processor-%d").build();
         this.executorService = Executors.newFixedThreadPool(CORE_POOL_SIZE, threadFactory);
@@ -78,6 +110,7 @@ public class DocumentProcessorService {
 
     @PostConstruct
     public void startProcessing() {
+        migratePriorityColumn();
         for (int i = 0; i < CORE_POOL_SIZE; i++) {
             final int processorId = i;
             executorService.submit(() -> {
@@ -88,6 +121,23 @@ public class DocumentProcessorService {
         }
     }
 
+    /**
+     * ddl-auto=update 不会修改已有列，旧库的 priority 列仍可为空。先回填空值，再补上默认值和非空约束
+     */
+    private void migratePriorityColumn() {
+        int backfilled = documentDataRepository.backfillNullPriority(DocumentDataPO.PRIORITY_NORMAL);
+        if (backfilled > 0) {
+            logger.info("Backfilled priority of {} documents", backfilled);
+        }
+        try {
+            jdbcTemplate.execute("ALTER TABLE document_datapo ALTER COLUMN priority SET DEFAULT "
+                    + DocumentDataPO.PRIORITY_NORMAL);
+            jdbcTemplate.execute("ALTER TABLE document_datapo ALTER COLUMN priority SET NOT NULL");
+        } catch (Exception e) {
+            logger.error("Failed to add not-null constraint on document priority", e);
+        }
+    }
+
     private void processDocuments(int processorId) {
         try {
             Thread.sleep(10000);
@@ -100,11 +150,9 @@ public class DocumentProcessorService {
                 logger.debug("Thread {} (Processor {}) starts looking for unprocessed tasks",
                         Thread.currentThread().getName(), processorId);
 
-                // 查找未处理的任务，包括新文件和已删除文件
+                // 查找未处理且未被其他处理者持有的任务，包括新文件和已删除文件，高优先级的先处理
                 List<DocumentDataPO> allDocuments = documentDataRepository
-                        .findByProcessedStateInOrderById(
-                                Arrays.asList(DocumentDataPO.PROCESSED_STATE_FILE_SAVED,
-                                        DocumentDataPO.PROCESSED_STATE_DELETED),
+                        .findClaimableByProcessedStateIn(PENDING_STATES, leaseExpiry(),
                                 PageRequest.of(0, 50 * CORE_POOL_SIZE));
 
                 // 在Java中进行hash分桶
@@ -119,27 +167,21 @@ public class DocumentProcessorService {
                     continue;
                 }
 
-                for (DocumentDataPO document : documents) {
-
-                    // 处理已删除的文件
-                    if (DocumentDataPO.PROCESSED_STATE_DELETED.equals(document.getProcessedState())) {
-                        processDeletedDocument(document);
+                String leaseOwner = getLeaseOwner(processorId);
+                for (DocumentDataPO candidate : documents) {
+                    DocumentDataPO document = claim(candidate, leaseOwner);
+                    if (document == null) {
+                        logger.debug("Thread {} (Processor {}) lost claim on document: {}",
+                                Thread.currentThread().getName(), processorId, candidate.getFilePath());
                         continue;
                     }
                     currentDoc = document;
-                    boolean success = processDocument(document);
-                    if (success) {
-                        logger.debug("Thread {} (Processor {}) successfully processed document: {}",
-                                Thread.currentThread().getName(), processorId,
-                                document.getFilePath());
-                        document.setProcessedState(DocumentDataPO.PROCESSED_STATE_FILE_INDEXED);
-                    } else {
-                        logger.error("Thread {} (Processor {}) failed to process document: {}",
-                                Thread.currentThread().getName(), processorId,
-                                document.getFilePath());
-                        document.setProcessedState(DocumentDataPO.PROCESSED_ERROR);
+                    activeLeaseOwners.add(leaseOwner);
+                    try {
+                        processClaimedDocument(document, processorId, leaseOwner);
+                    } finally {
+                        activeLeaseOwners.remove(leaseOwner);
                     }
-                    documentDataRepository.save(document);
                     // try {
                     // Thread.sleep(100);
                     // } catch (InterruptedException e) {
@@ -160,6 +202,103 @@ public class DocumentProcessorService {
         }
     }
 
+    /**
+     * 处理已认领的文档，结束时释放租约。进程中途退出时租约不会被续约，过期后由其他处理者重新认领
+     */
+    private void processClaimedDocument(DocumentDataPO document, int processorId, String leaseOwner)
+            throws InterruptedException {
+        boolean released = false;
+        try {
+            // 处理已删除的文件，记录删除后租约随之消失
+            if (DocumentDataPO.PROCESSED_STATE_DELETED.equals(document.getProcessedState())) {
+                processDeletedDocument(document);
+                released = true;
+                return;
+            }
+
+            // 申请解析内存额度，拿不到时文档留在队列中，下一轮再试
+            ParseMemoryBudget.Permit permit = parseMemoryBudget.acquire(document);
+            if (permit == null) {
+                logger.info("Thread {} (Processor {}) postponed document due to memory budget: {}",
+                        Thread.currentThread().getName(), processorId, document.getFilePath());
+                return;
+            }
+            try {
+                processDocument(document);
+                logger.debug("Thread {} (Processor {}) successfully processed document: {}",
+                        Thread.currentThread().getName(), processorId,
+                        document.getFilePath());
+                document.setProcessedState(DocumentDataPO.PROCESSED_STATE_FILE_INDEXED);
+                documentRetryScheduler.recordSuccess(document);
+            } catch (Exception e) {
+                logger.error("Thread {} (Processor {}) failed to process document: {}",
+                        Thread.currentThread().getName(), processorId,
+                        document.getFilePath(), e);
+                documentRetryScheduler.recordFailure(document, e);
+            } finally {
+                permit.close();
+            }
+            // 保存最终状态的同时释放租约
+            document.setProcessorId(null);
+            documentDataRepository.save(document);
+            released = true;
+        } finally {
+            if (!released) {
+                documentDataRepository.releaseLease(document.getId(), leaseOwner);
+            }
+        }
+    }
+
+    /**
+     * 原子认领文档，成功后重新加载以拿到最新的状态和版本号
+     *
+     * @return 认领成功的文档，已被其他处理者认领或状态已变化时返回 null
+     */
+    private DocumentDataPO claim(DocumentDataPO candidate, String leaseOwner) {
+        int claimed = documentDataRepository.claimLease(candidate.getId(), PENDING_STATES, leaseOwner,
+                LocalDateTime.now(), leaseExpiry());
+        if (claimed == 0) {
+            return null;
+        }
+        return documentDataRepository.findById(candidate.getId()).orElse(null);
+    }
+
+    /**
+     * 为正在处理的文档续约，解析耗时再长也不会被其他处理者抢走
+     */
+    @Scheduled(fixedRate = LEASE_HEARTBEAT_MS)
+    public void renewLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        for (String leaseOwner : activeLeaseOwners) {
+            try {
+                documentDataRepository.updateLastProcessingUpdateForProcessor(leaseOwner, now,
+                        DocumentDataPO.PROCESSED_STATE_FILE_SAVED);
+            } catch (Exception e) {
+                logger.error("Failed to renew lease for {}", leaseOwner, e);
+            }
+        }
+    }
+
+    private String getLeaseOwner(int processorId) {
+        return instanceId + "-" + processorId;
+    }
+
+    private LocalDateTime leaseExpiry() {
+        return LocalDateTime.now().minusSeconds(LEASE_DURATION_MS / 1000);
+    }
+
+    /**
+     * 解析阶段的运行指标
+     */
+    public Map<String, Object> getProcessingStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("memoryBudget", parseMemoryBudget.getStats());
+        stats.put("parseCache", parseResultCache.getStats());
+        stats.put("instanceId", instanceId);
+        stats.put("activeLeases", new ArrayList<>(activeLeaseOwners));
+        return stats;
+    }
+
     private void processDeletedDocument(DocumentDataPO document) {
         String threadName = Thread.currentThread().getName();
         logger.info("Thread {} starts processing deleted document: {}", threadName, document.getFileName());
@@ -211,56 +350,44 @@ public class DocumentProcessorService {
                 .toList();
     }
 
-    private boolean processDocument(DocumentDataPO document) {
+    /**
+     * 解析并索引文档，单次尝试。失败的重试由 DocumentRetryScheduler 按退避时间安排
+     */
+    private void processDocument(DocumentDataPO document) throws Exception {
         String threadName = Thread.currentThread().getName();
         logger.info("Thread {} starts processing document: {}", threadName, document.getFileName());
 
-        int retryCount = 0;
-        while (retryCount < MAX_RETRY_ATTEMPTS) {
-            try {
-                if (retryCount > 0) {
-                    logger.info("Thread {} retrying document processing attempt {}: {}",
-                            threadName, retryCount, document.getFileName());
-                    Thread.sleep(RETRY_DELAY_MS * retryCount);
-                }
-
-                // 修改前通知
-                notifyListeners(new DocumentProcessEvent(document, DocumentProcessEvent.TYPE_BEFORE_MODIFY));
+        // 修改前通知
+        notifyListeners(new DocumentProcessEvent(document, DocumentProcessEvent.TYPE_BEFORE_MODIFY));
 
-                // 1. 解析文档
-                DocumentParserInterface parser = selector.select(document.getExtension());
-                String markdown = parser.parseDocument(document);
-
-                // 2. 保存Markdown内容
-                MarkdownBasedContentPO markdownAfter = saveMarkdownContent(document, markdown);
-
-                // 3. 更新段落
-                List<MarkdownParagraphPO> paragraphs = updateDocumentParagraphs(
-                        markdown, document.getId(), markdownAfter.getId());
+        // 首次扫描批量写入的记录没有指纹；扫描之后文件又被修改时记录的指纹已过期。解析前补上或重新计算，
+        // 解析结果缓存和移动识别都依赖它
+        if (document.getMd5() == null || !fingerprintService.matchesFileAttributes(document)) {
+            fingerprintService.refresh(document);
+        }
 
-                // 4. 构建索引
-                boolean success = documentIndexService.buildDocumentIndex(
-                        document.getFilePath(),
-                        paragraphs,
-                        document.getCreateTime());
+        // 1. 解析文档
+        DocumentParserInterface parser = selector.select(document.getExtension());
+        String markdown = parser.parseDocument(document);
 
-                // 修改后通知
-                notifyListeners(new DocumentProcessEvent(document, DocumentProcessEvent.TYPE_AFTER_MODIFY));
+        // 2. 保存Markdown内容
+        MarkdownBasedContentPO markdownAfter = saveMarkdownContent(document, markdown);
 
-                return success;
+        // 3. 更新段落
+        List<MarkdownParagraphPO> paragraphs = updateDocumentParagraphs(
+                markdown, document.getId(), markdownAfter.getId());
 
-            } catch (Exception e) {
-                retryCount++;
-                if (retryCount >= MAX_RETRY_ATTEMPTS) {
-                    logger.error("Thread {} failed to process document after {} attempts: {}",
-                            threadName, retryCount, document.getFilePath(), e);
-                    return false;
-                }
-                logger.warn("Thread {} failed to process document, preparing for retry attempt {}: {}",
-                        threadName, retryCount + 1, document.getFilePath(), e);
-            }
+        // 4. 构建索引
+        boolean success = documentIndexService.buildDocumentIndex(
+                document.getFilePath(),
+                paragraphs,
+                document.getCreateTime());
+        if (!success) {
+            throw new IllegalStateException("Failed to build index for some paragraphs");
         }
-        return false;
+
+        // 修改后通知
+        notifyListeners(new DocumentProcessEvent(document, DocumentProcessEvent.TYPE_AFTER_MODIFY));
     }
 
     // 辅助方法：保存Markdown内容
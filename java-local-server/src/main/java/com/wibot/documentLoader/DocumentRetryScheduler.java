@@ -0,0 +1,209 @@
+package com.wibot.documentLoader;
+
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.apache.poi.EmptyFileException;
+import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.UnsupportedFileFormatException;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.wibot.documentParser.DocumentFormatException;
+import com.wibot.persistence.DocumentDataRepository;
+import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.service.SystemConfigService;
+
+import java.io.FileNotFoundException;
+import java.nio.file.NoSuchFileException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipException;
+
+/**
+ * 文档处理失败后的重试调度
+ *
+ * 1）按异常区分可重试的失败和文件本身的问题，后者直接进入死信 2）可重试的失败按指数退避加随机抖动安排下次处理，
+ * 超过最大次数后进入死信 3）死信可以查看，并以后台优先级批量重新入队
+ */
+@Service
+public class DocumentRetryScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentRetryScheduler.class);
+
+    public static final String CONFIG_RETRY_MAX_ATTEMPTS = "ingestion.retry.max.attempts";
+    public static final String CONFIG_RETRY_BASE_DELAY_SECONDS = "ingestion.retry.base.delay.seconds";
+    public static final String CONFIG_RETRY_MAX_DELAY_SECONDS = "ingestion.retry.max.delay.seconds";
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 6;
+    private static final int DEFAULT_BASE_DELAY_SECONDS = 60;
+    private static final int DEFAULT_MAX_DELAY_SECONDS = 6 * 60 * 60;
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final int MAX_DEAD_LETTER_PAGE_SIZE = 500;
+
+    /**
+     * 文件内容本身导致的失败，重试也不会成功
+     */
+    private static final List<Class<? extends Throwable>> POISON_ERRORS = List.of(
+            EmptyFileException.class, UnsupportedFileFormatException.class, EncryptedDocumentException.class,
+            InvalidFormatException.class, InvalidPasswordException.class, ZipException.class,
+            FileNotFoundException.class, NoSuchFileException.class, DocumentFormatException.class);
+
+    @Autowired
+    private DocumentDataRepository documentDataRepository;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    public DocumentRetryScheduler() {
+    }
+
+    /**
+     * 测试用，只判断和记录失败，不访问数据库
+     */
+    DocumentRetryScheduler(SystemConfigService systemConfigService) {
+        this.systemConfigService = systemConfigService;
+    }
+
+    /**
+     * 根据异常链判断失败类型
+     */
+    public String classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            for (Class<? extends Throwable> poison : POISON_ERRORS) {
+                if (poison.isInstance(t)) {
+                    return DocumentDataPO.ERROR_CLASS_POISON;
+                }
+            }
+        }
+        return DocumentDataPO.ERROR_CLASS_RETRYABLE;
+    }
+
+    /**
+     * 记录一次失败并决定下一步：等待重试或进入死信。只修改实体，由调用方保存
+     *
+     * @param document 处理失败的文档
+     * @param error    失败原因，为空时视为可重试
+     */
+    public void recordFailure(DocumentDataPO document, Throwable error) {
+        int attempts = (document.getAttemptCount() != null ? document.getAttemptCount() : 0) + 1;
+        String errorClass = error != null ? classify(error) : DocumentDataPO.ERROR_CLASS_RETRYABLE;
+        int maxAttempts = systemConfigService.getIntValue(CONFIG_RETRY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+
+        document.setAttemptCount(attempts);
+        document.setErrorClass(errorClass);
+        document.setLastError(describe(error));
+
+        if (DocumentDataPO.ERROR_CLASS_POISON.equals(errorClass) || attempts >= maxAttempts) {
+            document.setProcessedState(DocumentDataPO.PROCESSED_ERROR);
+            document.setNextAttemptTime(null);
+            logger.warn("Document moved to dead letters after {} attempts ({}): {}", attempts, errorClass,
+                    document.getFilePath());
+        } else {
+            long delaySeconds = computeBackoffSeconds(attempts);
+            document.setProcessedState(DocumentDataPO.PROCESSED_STATE_RETRY_WAIT);
+            document.setNextAttemptTime(LocalDateTime.now().plusSeconds(delaySeconds));
+            logger.info("Document scheduled for retry {} in {}s: {}", attempts + 1, delaySeconds,
+                    document.getFilePath());
+        }
+    }
+
+    /**
+     * 处理成功后清除失败记录
+     */
+    public void recordSuccess(DocumentDataPO document) {
+        document.setAttemptCount(0);
+        document.setNextAttemptTime(null);
+        document.setLastError(null);
+        document.setErrorClass(null);
+    }
+
+    /**
+     * 指数退避，取 [delay/2, delay] 之间的随机值，避免大量文档在服务恢复的同一时刻一起重试
+     */
+    long computeBackoffSeconds(int attempts) {
+        long base = systemConfigService.getIntValue(CONFIG_RETRY_BASE_DELAY_SECONDS, DEFAULT_BASE_DELAY_SECONDS);
+        long max = systemConfigService.getIntValue(CONFIG_RETRY_MAX_DELAY_SECONDS, DEFAULT_MAX_DELAY_SECONDS);
+        long delay = base << Math.min(attempts - 1, 20);
+        delay = Math.max(1, Math.min(delay, max));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    // 每分钟把到期的重试文档放回队列
+    @Scheduled(fixedRate = 60000)
+    public void promoteDueRetries() {
+        try {
+            int promoted = documentDataRepository.promoteDueRetries(LocalDateTime.now());
+            if (promoted > 0) {
+                logger.info("Requeued {} documents whose retry delay has elapsed", promoted);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to requeue documents waiting for retry", e);
+        }
+    }
+
+    public Map<String, Object> listDeadLetters(int page, int size) {
+        Map<String, Object> response = new HashMap<>();
+        int pageSize = Math.max(1, Math.min(size, MAX_DEAD_LETTER_PAGE_SIZE));
+        List<DocumentDataPO> docs = documentDataRepository.findByProcessedState(DocumentDataPO.PROCESSED_ERROR,
+                PageRequest.of(Math.max(0, page), pageSize, Sort.by(Sort.Direction.DESC, "id")));
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (DocumentDataPO doc : docs) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("id", doc.getId());
+            item.put("filePath", doc.getFilePath());
+            item.put("attemptCount", doc.getAttemptCount());
+            item.put("errorClass", doc.getErrorClass());
+            item.put("lastError", doc.getLastError());
+            item.put("updateDateTime", doc.getUpdateDateTime());
+            items.add(item);
+        }
+
+        response.put("success", true);
+        response.put("data", items);
+        response.put("totalDeadLetters", documentDataRepository.countByProcessedState(DocumentDataPO.PROCESSED_ERROR));
+        response.put("waitingRetries",
+                documentDataRepository.countByProcessedState(DocumentDataPO.PROCESSED_STATE_RETRY_WAIT));
+        return response;
+    }
+
+    /**
+     * 以后台优先级把死信重新放回队列，不影响正在排队的其他文档
+     *
+     * @param ids 需要重新入队的文档ID，为空时全部重新入队
+     */
+    public Map<String, Object> requeueDeadLetters(List<Long> ids) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            int requeued = (ids == null || ids.isEmpty())
+                    ? documentDataRepository.requeueAllDeadLetters(DocumentDataPO.PRIORITY_BACKGROUND)
+                    : documentDataRepository.requeueDeadLettersByIds(ids, DocumentDataPO.PRIORITY_BACKGROUND);
+            logger.info("Requeued {} dead-letter documents", requeued);
+            response.put("success", true);
+            response.put("requeuedCount", requeued);
+            response.put("message", "已重新加入队列 " + requeued + " 个文件");
+        } catch (Exception e) {
+            logger.error("重新入队失败", e);
+            response.put("success", false);
+            response.put("message", "重新入队失败: " + e.getMessage());
+        }
+        return response;
+    }
+
+    private String describe(Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        String message = error.getClass().getName() + ": " + error.getMessage();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
@@ -0,0 +1,227 @@
+package com.wibot.documentLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.service.SystemConfigService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 解析阶段的堆内存预算
+ *
+ * 1）按扩展名和文件大小估算每个解析任务的内存占用 2）预算不足时让任务等待，超时则留在队列中稍后再试
+ * 3）估算超过整个预算的任务延后，等其他解析任务都结束后单独执行
+ */
+@Service
+public class ParseMemoryBudget {
+    private static final Logger logger = LoggerFactory.getLogger(ParseMemoryBudget.class);
+
+    public static final String CONFIG_PARSE_MEMORY_BUDGET_MB = "parse.memory.budget.mb";
+
+    private static final double DEFAULT_HEAP_RATIO = 0.5; // 默认使用最大堆的一半
+    private static final long MIN_FOOTPRINT_BYTES = 4 * 1024 * 1024; // 解析器本身的基础开销
+    private static final long ADMISSION_TIMEOUT_MS = 30_000;
+    private static final long EXCLUSIVE_ADMISSION_TIMEOUT_MS = 10 * 60_000;
+
+    /**
+     * 解析时内存占用相对文件大小的倍数。XWPF/XSLF 会构建完整 DOM，OCR 需要渲染整页位图，
+     * 图片解码后按像素展开；EasyExcel 和文本解析基本是流式的
+     */
+    private static final Map<String, Integer> FOOTPRINT_MULTIPLIERS = Map.ofEntries(
+            Map.entry("docx", 12), Map.entry("pptx", 12), Map.entry("doc", 6), Map.entry("ppt", 6),
+            Map.entry("pdf", 8), Map.entry("jpg", 16), Map.entry("jpeg", 16), Map.entry("png", 16),
+            Map.entry("xlsx", 2), Map.entry("xls", 4));
+    private static final int DEFAULT_MULTIPLIER = 4;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private long usedBytes = 0;
+    private int running = 0;
+    private boolean exclusiveRunning = false;
+    private int exclusiveWaiting = 0;
+
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong waitedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong peakUsedBytes = new AtomicLong();
+
+    /**
+     * 估算解析该文件需要的堆内存
+     */
+    public long estimate(String extension, long fileSize) {
+        String ext = extension == null ? "" : extension.toLowerCase();
+        int multiplier = FOOTPRINT_MULTIPLIERS.getOrDefault(ext, DEFAULT_MULTIPLIER);
+        return MIN_FOOTPRINT_BYTES + fileSize * multiplier;
+    }
+
+    public long getBudgetBytes() {
+        int configuredMb = systemConfigService.getIntValue(CONFIG_PARSE_MEMORY_BUDGET_MB, 0);
+        if (configuredMb > 0) {
+            return configuredMb * 1024L * 1024L;
+        }
+        return (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_RATIO);
+    }
+
+    /**
+     * 为解析任务申请内存额度
+     *
+     * @param document 待解析的文档
+     * @return 获得的额度，解析结束后必须关闭；超时未获得额度时返回 null
+     */
+    public Permit acquire(DocumentDataPO document) throws InterruptedException {
+        long estimate = estimate(document.getExtension(), getFileSize(document));
+        long budget = getBudgetBytes();
+        if (estimate >= budget) {
+            return acquireExclusive(document, estimate);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ADMISSION_TIMEOUT_MS);
+        boolean waited = false;
+        lock.lock();
+        try {
+            // 有大任务在等待时不再放行新任务，避免它被小任务一直饿着
+            while (exclusiveRunning || exclusiveWaiting > 0 || usedBytes + estimate > budget) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejectedCount.incrementAndGet();
+                    logger.info("Parse admission timed out for {} (estimate {} bytes, used {} of {} bytes)",
+                            document.getFilePath(), estimate, usedBytes, budget);
+                    return null;
+                }
+                waited = true;
+                released.awaitNanos(remaining);
+            }
+            usedBytes += estimate;
+            running++;
+            peakUsedBytes.accumulateAndGet(usedBytes, Math::max);
+        } finally {
+            lock.unlock();
+        }
+        if (waited) {
+            waitedCount.incrementAndGet();
+        }
+        admittedCount.incrementAndGet();
+        return new Permit(estimate, false);
+    }
+
+    private Permit acquireExclusive(DocumentDataPO document, long estimate) throws InterruptedException {
+        deferredCount.incrementAndGet();
+        logger.info("Parse of {} deferred to run alone (estimate {} bytes)", document.getFilePath(), estimate);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(EXCLUSIVE_ADMISSION_TIMEOUT_MS);
+        lock.lock();
+        try {
+            exclusiveWaiting++;
+            try {
+                while (exclusiveRunning || running > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        rejectedCount.incrementAndGet();
+                        logger.info("Exclusive parse admission timed out for {}", document.getFilePath());
+                        return null;
+                    }
+                    released.awaitNanos(remaining);
+                }
+            } finally {
+                exclusiveWaiting--;
+                // 放弃等待时唤醒被挡住的普通任务
+                released.signalAll();
+            }
+            exclusiveRunning = true;
+            usedBytes += estimate;
+            running++;
+            peakUsedBytes.accumulateAndGet(usedBytes, Math::max);
+        } finally {
+            lock.unlock();
+        }
+        admittedCount.incrementAndGet();
+        return new Permit(estimate, true);
+    }
+
+    private void release(Permit permit) {
+        lock.lock();
+        try {
+            usedBytes -= permit.bytes;
+            running--;
+            if (permit.exclusive) {
+                exclusiveRunning = false;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getFileSize(DocumentDataPO document) {
+        if (document.getFileSize() != null) {
+            return document.getFileSize();
+        }
+        try {
+            return Files.size(document.getDataPath());
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        lock.lock();
+        try {
+            stats.put("usedBytes", usedBytes);
+            stats.put("running", running);
+            stats.put("exclusiveRunning", exclusiveRunning);
+            stats.put("exclusiveWaiting", exclusiveWaiting);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("budgetBytes", getBudgetBytes());
+        stats.put("peakUsedBytes", peakUsedBytes.get());
+        stats.put("admittedCount", admittedCount.get());
+        stats.put("waitedCount", waitedCount.get());
+        stats.put("rejectedCount", rejectedCount.get());
+        stats.put("deferredCount", deferredCount.get());
+        return stats;
+    }
+
+    /**
+     * 已获得的内存额度，解析结束后关闭以归还
+     */
+    public class Permit implements AutoCloseable {
+        private final long bytes;
+        private final boolean exclusive;
+        private boolean closed = false;
+
+        private Permit(long bytes, boolean exclusive) {
+            this.bytes = bytes;
+            this.exclusive = exclusive;
+        }
+
+        public boolean isExclusive() {
+            return exclusive;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(this);
+            }
+        }
+    }
+}
@@ -1,13 +1,52 @@
 package com.wibot.documentParser;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.service.FileFingerprintService;
 import com.wibot.service.SystemConfigService;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
 public abstract class AbstractDocumentParser implements DocumentParserInterface {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractDocumentParser.class);
+
+    /**
+     * 解析逻辑变化、旧缓存结果不再可用时递增
+     */
+    protected static final int PARSER_VERSION = 1;
+
+    // 本次解析是否有页面失败（如OCR调用失败），不完整的结果不写入缓存，并以异常交给重试调度
+    private static final ThreadLocal<Boolean> incompleteResult = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Throwable> incompleteCause = new ThreadLocal<>();
+
     @Autowired
     protected SystemConfigService systemConfigService;
 
+    @Autowired
+    private ParseResultCache parseResultCache;
+
+    @Autowired
+    private FileFingerprintService fingerprintService;
+
+    protected AbstractDocumentParser() {
+    }
+
+    /**
+     * 不经过Spring注入时使用，如测试中的解析器
+     */
+    protected AbstractDocumentParser(SystemConfigService systemConfigService, ParseResultCache parseResultCache,
+            FileFingerprintService fingerprintService) {
+        this.systemConfigService = systemConfigService;
+        this.parseResultCache = parseResultCache;
+        this.fingerprintService = fingerprintService;
+    }
+
     @Override
     public String parseDocument(DocumentDataPO documentData) {
         StringBuilder stringBuilder = new StringBuilder();
@@ -23,12 +62,93 @@ public abstract class AbstractDocumentParser implements DocumentParserInterface
         stringBuilder.append("\n");
         stringBuilder.append("# Document content: ");
         stringBuilder.append("\n");
-        stringBuilder.append(parseDocumentInner(documentData));
+        stringBuilder.append(parseDocumentInnerWithCache(documentData));
         return stringBuilder.toString();
     }
 
+    /**
+     * 缓存的只是正文部分，文件名等头信息每次重新拼装，改名后的文件也能命中
+     */
+    private String parseDocumentInnerWithCache(DocumentDataPO documentData) {
+        String cacheKey = null;
+        // 文件在计算指纹之后被修改过时，记录中的指纹不再对应文件内容，不读也不写缓存
+        if (parseResultCache.isEnabled() && isCacheable(documentData)
+                && fingerprintService.matchesFileAttributes(documentData)) {
+            cacheKey = parseResultCache.buildKey(documentData.getMd5(), getParserVersion());
+        }
+        if (cacheKey != null) {
+            long sourceSize = documentData.getFileSize() != null ? documentData.getFileSize() : 0;
+            String cached = parseResultCache.get(cacheKey, sourceSize);
+            if (cached != null) {
+                logger.info("Parse cache hit, skipping parse: {}", documentData.getFilePath());
+                return cached;
+            }
+        }
+
+        incompleteResult.set(false);
+        incompleteCause.remove();
+        String content = parseDocumentInner(documentData);
+        if (incompleteResult.get()) {
+            Throwable cause = incompleteCause.get();
+            incompleteCause.remove();
+            if (cause instanceof DocumentParseException) {
+                throw (DocumentParseException) cause;
+            }
+            throw new DocumentParseException("Incomplete parse result: " + documentData.getFilePath()
+                    + (cause != null ? " (" + cause + ")" : ""), cause);
+        }
+        // 解析期间文件被修改时，解析出的内容可能已不是该指纹对应的内容
+        if (cacheKey != null && content != null && !content.isEmpty()
+                && fingerprintService.matchesFileAttributes(documentData)) {
+            parseResultCache.put(cacheKey, content);
+        }
+        return content;
+    }
+
     protected abstract String parseDocumentInner(DocumentDataPO documentData);
 
+    /**
+     * 解析器版本，作为解析结果缓存key的一部分。输出受配置影响的解析器（如是否启用OCR）应把相关配置拼进来
+     */
+    protected String getParserVersion() {
+        return getClass().getSimpleName() + "-" + PARSER_VERSION;
+    }
+
+    /**
+     * 解析结果是否值得缓存，解析成本和读缓存相当的解析器可以关闭
+     */
+    protected boolean isCacheable(DocumentDataPO documentData) {
+        return true;
+    }
+
+    /**
+     * 解析过程中部分内容失败时调用，本次结果不会写入缓存，解析结束后抛出 DocumentParseException，文档进入重试
+     */
+    protected void markResultIncomplete() {
+        incompleteResult.set(true);
+    }
+
+    /**
+     * 同上，并记录失败原因，重试调度据此区分可重试的失败和文件格式问题。只保留第一个原因
+     */
+    protected void markResultIncomplete(Throwable cause) {
+        incompleteResult.set(true);
+        if (incompleteCause.get() == null) {
+            incompleteCause.set(cause);
+        }
+    }
+
+    /**
+     * 以UTF-8流式解码文本文件，非法字节替换为占位符，不额外保留一份原始字节
+     */
+    protected String readText(DocumentDataPO documentData) throws IOException {
+        try (Reader reader = new InputStreamReader(documentData.openDataStream(), StandardCharsets.UTF_8)) {
+            StringWriter writer = new StringWriter();
+            reader.transferTo(writer);
+            return writer.toString();
+        }
+    }
+
     @Override
     public boolean shouldProcess(String extension) {
         String fileType = getFileType();
@@ -1,6 +1,8 @@
 package com.wibot.documentParser;
 
-import org.apache.poi.openxml4j.exceptions.OLE2NotOfficeXmlFileException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
@@ -12,7 +14,7 @@ import com.wibot.persistence.entity.DocumentDataPO;
 
 import org.apache.poi.hwpf.HWPFDocument;
 import org.apache.poi.hwpf.extractor.WordExtractor;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 
 /**
  * DOCX Document Parser
@@ -29,20 +31,25 @@ public class DOCXDocumentParser extends AbstractDocumentParser {
     protected String parseDocumentInner(DocumentDataPO documentData) {
         logger.info("Starting to parse document: {}", documentData.getFileName());
 
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(documentData.getData())) {
+        try {
+            File file = documentData.getDataPath().toFile();
+            if (FileMagic.valueOf(file) == FileMagic.OLE2) {
+                // 旧版DOC文件，用HWPF处理
+                try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+                    HWPFDocument document = new HWPFDocument(fs);
+                    return parseDoc(document);
+                }
+            }
+            // 作为DOCX处理，OPCPackage基于文件按需读取zip条目；只读包用revert释放，close会尝试保存
+            OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
             try {
-                // 尝试作为DOCX处理
-                XWPFDocument document = new XWPFDocument(bis);
-                return parseDocx(document);
-            } catch (OLE2NotOfficeXmlFileException e) {
-                // 如果是旧版DOC文件，重置输入流并用HWPF处理
-                bis.reset();
-                POIFSFileSystem fs = new POIFSFileSystem(bis);
-                HWPFDocument document = new HWPFDocument(fs);
-                return parseDoc(document);
+                return parseDocx(new XWPFDocument(pkg));
+            } finally {
+                pkg.revert();
             }
         } catch (Exception e) {
             logger.error("Error parsing document: {}", documentData.getFileName(), e);
+            markResultIncomplete(e);
             return "";
         }
     }
@@ -63,6 +70,7 @@ public class DOCXDocumentParser extends AbstractDocumentParser {
             return String.join("\n\n", paragraphs);
         } catch (Exception e) {
             logger.error("Error extracting text from document", e);
+            markResultIncomplete(e);
             return "";
         }
     }
@@ -0,0 +1,16 @@
+package com.wibot.documentParser;
+
+/**
+ * 文件内容无法按其格式解析（如损坏的PDF、无法识别的图片），重试也不会成功
+ */
+public class DocumentFormatException extends DocumentParseException {
+    private static final long serialVersionUID = 1L;
+
+    public DocumentFormatException(String message) {
+        super(message);
+    }
+
+    public DocumentFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
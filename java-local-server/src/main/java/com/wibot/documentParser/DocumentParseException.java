@@ -0,0 +1,17 @@
+package com.wibot.documentParser;
+
+/**
+ * 文档解析失败或结果不完整（如OCR调用失败），由处理流程交给重试调度。
+ * 默认视为可重试，异常链中带有文件格式类异常时按死信处理
+ */
+public class DocumentParseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public DocumentParseException(String message) {
+        super(message);
+    }
+
+    public DocumentParseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
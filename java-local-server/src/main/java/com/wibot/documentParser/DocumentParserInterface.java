@@ -3,6 +3,14 @@ package com.wibot.documentParser;
 import com.wibot.persistence.entity.DocumentDataPO;
 
 public interface DocumentParserInterface {
+    /**
+     * 解析文档为markdown。
+     * 源文件通过 {@link DocumentDataPO#getDataPath()}、{@link DocumentDataPO#openDataStream()} 或
+     * {@link DocumentDataPO#openDataChannel()} 按需读取，解析过程占用的内存不应随文件大小线性增长
+     *
+     * @param documentData 文档数据
+     * @return markdown内容
+     */
     String parseDocument(DocumentDataPO documentData);
     
     /**
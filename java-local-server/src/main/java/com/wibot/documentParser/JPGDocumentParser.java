@@ -3,7 +3,6 @@ package com.wibot.documentParser;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,6 +16,7 @@ import org.springframework.stereotype.Service;
 
 import com.wibot.persistence.entity.DocumentDataPO;
 import com.wibot.service.SystemConfigService;
+import com.wibot.utils.llm.OCRException;
 import com.wibot.utils.llm.OCRService;
 
 /**
@@ -94,28 +94,41 @@ public class JPGDocumentParser extends AbstractDocumentParser {
         List<String> markdownPages = new ArrayList<>();
         logger.info("Starting to parse document: {}", documentData.getFileName());
         try {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(documentData.getData()));
+            BufferedImage image = ImageIO.read(documentData.getDataPath().toFile());
             if (image == null) {
-                throw new IOException("Failed to read image from data");
+                throw new DocumentFormatException("Unrecognized image format: " + documentData.getFileName());
             }
             logger.info("Processing image: {}", documentData.getFileName());
 
             // Resize image if necessary
             image = resizeImageIfNecessary(image);
 
-            String ocrText = ocrService.recognizeText(image);
+            String ocrText;
+            try {
+                ocrText = ocrService.recognizeText(image);
+            } catch (OCRException e) {
+                markResultIncomplete(new DocumentParseException("OCR failed for image: " + documentData.getFileName(), e));
+                ocrText = "";
+            }
             logger.debug("OCR text for image {}: {}", documentData.getFileName(), ocrText);
             String pageOutput = "## Image " + documentData.getFileName() + "\n\n";
             String markdownPage = convertToMarkdown(ocrText, image);
             markdownPages.add(pageOutput + markdownPage);
         } catch (IOException e) {
             logger.error("Error while parsing document: {}", documentData.getFileName(), e);
+            markResultIncomplete(e);
         }
         String result = String.join("\n\n", markdownPages);
         logger.info("Finished parsing document: {}", documentData.getFileName());
         return result;
     }
 
+    @Override
+    protected boolean isCacheable(DocumentDataPO documentData) {
+        // 未开启OCR时只输出文件名，没有缓存价值
+        return getJpgUseOCR();
+    }
+
     @Override
     protected String getFileType() {
         return "image";
@@ -1,11 +1,11 @@
 package com.wibot.documentParser;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -16,6 +16,7 @@ import org.springframework.stereotype.Service;
 
 import com.wibot.persistence.entity.DocumentDataPO;
 import com.wibot.service.SystemConfigService;
+import com.wibot.utils.llm.OCRException;
 import com.wibot.utils.llm.OCRService;
 
 /**
@@ -36,6 +37,9 @@ public class OCRBasedPDFDocumentParser extends AbstractDocumentParser {
 
     private final Logger logger = LoggerFactory.getLogger(OCRBasedPDFDocumentParser.class);
 
+    // 解析过程中的临时缓冲超过该大小后落到临时文件
+    private static final long MAX_MAIN_MEMORY_BYTES = 32 * 1024 * 1024;
+
     private int getMinTextLength() {
         return systemConfigService.getConfig(SystemConfigService.CONFIG_MIN_TEXT_LENGTH, Integer.class, 100);
     }
@@ -67,7 +71,16 @@ public class OCRBasedPDFDocumentParser extends AbstractDocumentParser {
         List<String> markdownPages = new ArrayList<>();
         logger.info("Starting to parse document: {}", documentData.getFileName());
 
-        try (PDDocument document = PDDocument.load(new ByteArrayInputStream(documentData.getData()))) {
+        // 直接基于文件随机读取，不把整个PDF读入内存
+        PDDocument loaded;
+        try {
+            loaded = PDDocument.load(documentData.getDataPath().toFile(),
+                    MemoryUsageSetting.setupMixed(MAX_MAIN_MEMORY_BYTES));
+        } catch (IOException e) {
+            // 打不开的PDF（损坏、加密等）重试也不会成功
+            throw new DocumentFormatException("Unreadable PDF: " + documentData.getFileName(), e);
+        }
+        try (PDDocument document = loaded) {
             PDFRenderer pdfRenderer = new PDFRenderer(document);
 
             for (int page = 0; page < document.getNumberOfPages(); ++page) {
@@ -93,7 +106,14 @@ public class OCRBasedPDFDocumentParser extends AbstractDocumentParser {
                 } else {
                     logger.info("No valid text found, using OCR for page {}", page + 1);
                     BufferedImage image = pdfRenderer.renderImageWithDPI(page, 150);
-                    String ocrText = ocrService.recognizeText(image);
+                    String ocrText;
+                    try {
+                        ocrText = ocrService.recognizeText(image);
+                    } catch (OCRException e) {
+                        // 调用失败时结果不完整，稍后重试；识别成功但没有文字（如空白页）是正常内容
+                        markResultIncomplete(new DocumentParseException("OCR failed for page " + (page + 1), e));
+                        ocrText = "";
+                    }
                     markdownPage = convertToMarkdown(ocrText, image);
                 }
 
@@ -101,6 +121,7 @@ public class OCRBasedPDFDocumentParser extends AbstractDocumentParser {
             }
         } catch (IOException e) {
             logger.error("Error while parsing document: {}", documentData.getFileName(), e);
+            markResultIncomplete(e);
         }
 
         String result = String.join("\n\n", markdownPages);
@@ -108,6 +129,12 @@ public class OCRBasedPDFDocumentParser extends AbstractDocumentParser {
         return result;
     }
 
+    @Override
+    protected String getParserVersion() {
+        // 是否OCR以及判断文字是否有效的阈值都会影响输出
+        return super.getParserVersion() + (getPdfUseOCR() ? "-ocr" + getMinTextLength() : "");
+    }
+
     @Override
     protected String getFileType() {
       return "pdf";  
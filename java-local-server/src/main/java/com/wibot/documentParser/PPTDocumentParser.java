@@ -4,16 +4,21 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.poi.hslf.usermodel.HSLFSlideShow;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.sl.usermodel.Slide;
 import org.apache.poi.sl.usermodel.SlideShow;
+import org.apache.poi.sl.usermodel.TextShape;
 import org.apache.poi.xslf.usermodel.XMLSlideShow;
-import org.apache.poi.xslf.usermodel.XSLFSlide;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,6 +26,7 @@ import org.springframework.stereotype.Service;
 
 import com.wibot.persistence.entity.DocumentDataPO;
 import com.wibot.service.SystemConfigService;
+import com.wibot.utils.llm.OCRException;
 import com.wibot.utils.llm.OCRService;
 
 /**
@@ -57,18 +63,40 @@ public class PPTDocumentParser extends AbstractDocumentParser {
         return systemConfigService.getConfig(SystemConfigService.CONFIG_PPT_RECOGNITION, Boolean.class, false);
     }
 
-    private String extractSlideText(XSLFSlide slide) {
+    private String extractSlideText(Slide<?, ?> slide) {
         StringBuilder text = new StringBuilder();
-        // 使用正确的类型判断和方法调用
+        // 使用pptx/ppt通用的TextShape，两种格式都能提取文字
         slide.getShapes().forEach(shape -> {
-            if (shape instanceof org.apache.poi.xslf.usermodel.XSLFTextShape) {
-                org.apache.poi.xslf.usermodel.XSLFTextShape textShape = (org.apache.poi.xslf.usermodel.XSLFTextShape) shape;
+            if (shape instanceof TextShape) {
+                TextShape<?, ?> textShape = (TextShape<?, ?>) shape;
                 text.append(textShape.getText()).append("\n");
             }
         });
         return text.toString();
     }
 
+    private SlideShow<?, ?> openSlideShow(DocumentDataPO documentData) throws IOException, InvalidFormatException {
+        File file = documentData.getDataPath().toFile();
+        if (FileMagic.valueOf(file) == FileMagic.OLE2) {
+            logger.warn("文件格式为OLE2，切换到HSLFSlideShow处理: {}", documentData.getFileName());
+            POIFSFileSystem fs = new POIFSFileSystem(file, true);
+            try {
+                return new HSLFSlideShow(fs);
+            } catch (IOException | RuntimeException e) {
+                // 构造失败时调用方拿不到幻灯片对象，在这里释放文件
+                fs.close();
+                throw e;
+            }
+        }
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+        try {
+            return new XMLSlideShow(pkg);
+        } catch (RuntimeException e) {
+            pkg.revert();
+            throw e;
+        }
+    }
+
     private boolean isValidText(String text) {
         if (text == null || text.trim().isEmpty()) {
             return false;
@@ -82,23 +110,15 @@ public class PPTDocumentParser extends AbstractDocumentParser {
         List<String> markdownPages = new ArrayList<>();
         logger.info("Starting to parse document: {}", documentData.getFileName());
 
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(documentData.getData())) {
-            SlideShow<?, ?> slideShow;
-            try {
-                // 尝试使用XMLSlideShow处理
-                slideShow = new XMLSlideShow(bis);
-            } catch (Exception e) {
-                // 如果捕获到异常，则使用HSLFSlideShow处理
-                logger.warn("文件格式为OLE2，切换到HSLFSlideShow处理: {}", documentData.getFileName());
-                slideShow = new HSLFSlideShow(bis);
-            }
-
+        SlideShow<?, ?> slideShow = null;
+        try {
+            slideShow = openSlideShow(documentData);
             int slideNumber = 1;
             for (Slide<?, ?> slide : slideShow.getSlides()) {
                 logger.info("Processing slide: {}", slideNumber);
 
                 // 先尝试直接提取文本
-                String slideText = extractSlideText((XSLFSlide) slide);
+                String slideText = extractSlideText(slide);
                 String slideOutput = "## Slide " + slideNumber + "\n\n";
                 String markdownPage;
 
@@ -109,15 +129,24 @@ public class PPTDocumentParser extends AbstractDocumentParser {
                     logger.info("No valid text found, using OCR for slide {}", slideNumber);
                     BufferedImage image = renderSlide(slide, 800, 800);
                     image = resizeImageIfNecessary(image);
-                    String ocrText = ocrService.recognizeText(image);
+                    String ocrText;
+                    try {
+                        ocrText = ocrService.recognizeText(image);
+                    } catch (OCRException e) {
+                        markResultIncomplete(new DocumentParseException("OCR failed for slide " + slideNumber, e));
+                        ocrText = "";
+                    }
                     markdownPage = convertToMarkdown(ocrText, image);
                 }
 
                 markdownPages.add(slideOutput + markdownPage);
                 slideNumber++;
             }
-        } catch (IOException e) {
+        } catch (IOException | InvalidFormatException e) {
             logger.error("Error while parsing document: {}", documentData.getFileName(), e);
+            markResultIncomplete(e);
+        } finally {
+            closeSlideShow(slideShow);
         }
 
         String result = String.join("\n\n", markdownPages);
@@ -125,6 +154,22 @@ public class PPTDocumentParser extends AbstractDocumentParser {
         return result;
     }
 
+    private void closeSlideShow(SlideShow<?, ?> slideShow) {
+        if (slideShow == null) {
+            return;
+        }
+        try {
+            if (slideShow instanceof XMLSlideShow) {
+                // 只读打开的包用revert释放，close会尝试保存
+                ((XMLSlideShow) slideShow).getPackage().revert();
+            } else {
+                slideShow.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to close slide show", e);
+        }
+    }
+
     private String convertToMarkdown(String ocrText, BufferedImage image) {
         // 将OCR识别的文字和图像转换为Markdown格式
         // 这里只是一个简单的示例，可以根据需要进行调整
@@ -179,6 +224,11 @@ public class PPTDocumentParser extends AbstractDocumentParser {
         return img;
     }
 
+    @Override
+    protected String getParserVersion() {
+        return super.getParserVersion() + (getPptUseOCR() ? "-ocr" + getMinTextLength() : "");
+    }
+
     @Override
     protected String getFileType() {
         return "presentation";
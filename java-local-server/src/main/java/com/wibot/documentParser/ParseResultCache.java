@@ -0,0 +1,82 @@
+package com.wibot.documentParser;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.wibot.service.FileFingerprintService;
+import com.wibot.service.SystemConfigService;
+import com.wibot.utils.cache.CompressedDiskCache;
+
+import jakarta.annotation.PostConstruct;
+
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 解析结果缓存
+ *
+ * 以文件内容hash + 解析器版本为key缓存解析出的markdown，复制、改名、重新添加的文件不必再次解析和OCR
+ */
+@Service
+public class ParseResultCache {
+
+    public static final String CONFIG_PARSE_CACHE_ENABLED = "parse.cache.enabled";
+    public static final String CONFIG_PARSE_CACHE_MAX_MB = "parse.cache.max.mb";
+
+    private static final int DEFAULT_MAX_MB = 1024;
+
+    @Value("${app.cache.path}")
+    private String cachePath;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    private CompressedDiskCache diskCache;
+
+    // 命中时跳过解析的源文件字节数
+    private final AtomicLong sourceBytesSaved = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        diskCache = new CompressedDiskCache(Paths.get(cachePath, "parse"),
+                () -> systemConfigService.getIntValue(CONFIG_PARSE_CACHE_MAX_MB, DEFAULT_MAX_MB) * 1024L * 1024L,
+                0);
+    }
+
+    public boolean isEnabled() {
+        return systemConfigService.getBooleanValue(CONFIG_PARSE_CACHE_ENABLED, true);
+    }
+
+    /**
+     * @param contentHash   文件内容hash
+     * @param parserVersion 解析器版本，解析逻辑或相关配置变化时应随之变化
+     * @return 缓存key，hash为空或只是抽样指纹时返回 null
+     */
+    public String buildKey(String contentHash, String parserVersion) {
+        if (contentHash == null || contentHash.isEmpty() || FileFingerprintService.isSampled(contentHash)) {
+            return null;
+        }
+        return (contentHash + "_" + parserVersion).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public String get(String key, long sourceSize) {
+        String markdown = diskCache.get(key);
+        if (markdown != null) {
+            sourceBytesSaved.addAndGet(sourceSize);
+        }
+        return markdown;
+    }
+
+    public void put(String key, String markdown) {
+        diskCache.put(key, markdown);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = diskCache.getStats();
+        stats.put("enabled", isEnabled());
+        stats.put("sourceBytesSaved", sourceBytesSaved.get());
+        return stats;
+    }
+}
@@ -6,9 +6,7 @@ import org.springframework.stereotype.Service;
 
 import com.wibot.persistence.entity.DocumentDataPO;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,17 +25,24 @@ public class TextDocumentParser extends AbstractDocumentParser {
     protected String parseDocumentInner(DocumentDataPO documentData) {
         List<String> markdownPages = new ArrayList<>();
         logger.info("Starting to parse document: {}", documentData.getFileName());
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(documentData.getData())) {
-            String content = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            String content = readText(documentData);
             markdownPages.add(content);
         } catch (IOException e) {
             logger.error("Error while parsing document: {}", documentData.getFileName(), e);
+            markResultIncomplete(e);
         }
         String result = String.join("\n\n", markdownPages);
         logger.info("Finished parsing document: {}", documentData.getFileName());
         return result;
     }
 
+    @Override
+    protected boolean isCacheable(DocumentDataPO documentData) {
+        // 纯文本直接读取即可，缓存没有收益
+        return false;
+    }
+
     @Override
     protected String getFileType() {
         return "text";
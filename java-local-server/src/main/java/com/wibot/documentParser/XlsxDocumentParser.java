@@ -8,7 +8,7 @@ import com.wibot.persistence.entity.DocumentDataPO;
 import com.alibaba.excel.EasyExcel;
 import com.alibaba.excel.read.listener.PageReadListener;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -29,10 +29,12 @@ public class XlsxDocumentParser extends AbstractDocumentParser {
         List<String> markdownSheets = new ArrayList<>();
         logger.info("Starting to parse document: {}", documentData.getFileName());
 
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(documentData.getData())) {
-            processByEasyExcel(bis, markdownSheets);
+        try {
+            // 传入文件而不是字节流，EasyExcel会按行流式读取
+            processByEasyExcel(documentData.getDataPath().toFile(), markdownSheets);
         } catch (Exception e) {
             logger.error("Error while parsing document: {}", documentData.getFileName(), e);
+            markResultIncomplete(e);
         }
 
         String result = String.join("\n\n", markdownSheets);
@@ -40,8 +42,8 @@ public class XlsxDocumentParser extends AbstractDocumentParser {
         return result;
     }
 
-    private void processByEasyExcel(ByteArrayInputStream bis, List<String> markdownSheets) {
-        EasyExcel.read(bis).sheet().headRowNumber(0)
+    private void processByEasyExcel(File file, List<String> markdownSheets) {
+        EasyExcel.read(file).sheet().headRowNumber(0)
                 .registerReadListener(new PageReadListener<Map<Integer, String>>(dataList -> {
                     StringBuilder sheetMarkdown = new StringBuilder();
                     for (Map<Integer, String> rowData : dataList) {
@@ -1,6 +1,8 @@
 package com.wibot.index;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.wibot.index.search.SearchQuery;
 
@@ -15,4 +17,13 @@ public interface DocumentIndexInterface {
 
     public List<SearchDocumentResult> searchWithStrategy(SearchQuery searchQuery);
 
+    /**
+     * 用文本分词后的词项按BM25给指定段落打分，只在这些段落范围内计算
+     *
+     * @param text         用于打分的文本，如精炼任务的问题
+     * @param paragraphIds 段落ID
+     * @return 段落ID -> 分数，没有命中任何词项的段落为0；尚未进入索引的段落不在结果中
+     */
+    Map<Long, Float> scoreParagraphs(String text, Collection<Long> paragraphIds);
+
 }
\ No newline at end of file
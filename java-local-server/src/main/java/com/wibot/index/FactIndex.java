@@ -0,0 +1,401 @@
+package com.wibot.index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.cn.smart.SmartChineseAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wibot.persistence.DocumentDataRepository;
+import com.wibot.persistence.MarkdownParagraphRepository;
+import com.wibot.persistence.RefineryFactRepository;
+import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.persistence.entity.MarkdownParagraphPO;
+import com.wibot.persistence.entity.RefineryFactDO;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 精炼事实的独立全文索引
+ *
+ * 每个 (任务ID, 段落ID) 一个文档，带事实文本、所在文件路径和时间，检索时按任务过滤、按BM25排序，结果直接从索引读出。
+ * 数据库仍是事实的来源：事实落库后由 RefineryFactWriter 同步到这里；索引为空而库中有事实时（首次升级或索引损坏）
+ * 在后台从库重建，重建完成前 isReady 为 false
+ */
+@Service
+public class FactIndex {
+    private static final Logger logger = LoggerFactory.getLogger(FactIndex.class);
+
+    private static final String FIELD_KEY = "key"; // 任务ID_段落ID
+    private static final String FIELD_TASK_ID = "refinery_task_id";
+    private static final String FIELD_PARAGRAPH_ID = "paragraph_id";
+    private static final String FIELD_FILE_PATH = "file_path";
+    private static final String FIELD_FILE_NAME = "file_name";
+    private static final String FIELD_FACT = "fact";
+    private static final String FIELD_PARAGRAPH_TIME = "paragraph_time";
+    private static final String FIELD_CREATED_TIME = "created_time";
+
+    private static final int REBUILD_PAGE_SIZE = 1000;
+
+    @Value("${app.lucene.fact.index.path}")
+    private String indexDir;
+
+    @Autowired
+    private RefineryFactRepository refineryFactRepository;
+
+    @Autowired
+    private MarkdownParagraphRepository markdownParagraphRepository;
+
+    @Autowired
+    private DocumentDataRepository documentDataRepository;
+
+    private Directory directory;
+    private Analyzer analyzer;
+    private IndexWriter indexWriter;
+    private SearcherManager searcherManager;
+
+    // 写索引互斥，重建时每页的读库和写索引不会与事实同步交错，避免旧数据覆盖新数据
+    private final Object writeLock = new Object();
+    private volatile boolean ready = true;
+
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("fact-index-rebuild-%d").setDaemon(true).build());
+
+    @PostConstruct
+    public void init() {
+        try {
+            directory = FSDirectory.open(Paths.get(indexDir));
+            analyzer = new SmartChineseAnalyzer();
+            indexWriter = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+            searcherManager = new SearcherManager(indexWriter, null);
+        } catch (IOException e) {
+            throw new RuntimeException("初始化事实索引失败", e);
+        }
+        if (getDocCount() == 0 && refineryFactRepository.count() > 0) {
+            rebuildAsync();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        rebuildExecutor.shutdownNow();
+        try {
+            searcherManager.close();
+            indexWriter.close();
+            directory.close();
+        } catch (IOException e) {
+            logger.error("关闭事实索引失败", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 写入或替换事实，删除没有事实的段落。在事实落库之后调用
+     *
+     * @param facts     要写入的事实
+     * @param deletions 要删除的 (任务ID, 段落ID)，只用到这两个字段
+     */
+    public void update(List<RefineryFactDO> facts, List<RefineryFactDO> deletions) {
+        if (facts.isEmpty() && deletions.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            try {
+                for (RefineryFactDO deletion : deletions) {
+                    indexWriter.deleteDocuments(
+                            new Term(FIELD_KEY, key(deletion.getRefineryTaskId(), deletion.getParagraphId())));
+                }
+                writeFacts(facts);
+                commit();
+            } catch (IOException e) {
+                logger.error("更新事实索引失败，可调用重建修复", e);
+            }
+        }
+    }
+
+    public void deleteByParagraphIds(Collection<Long> paragraphIds) {
+        synchronized (writeLock) {
+            try {
+                for (Long paragraphId : paragraphIds) {
+                    indexWriter.deleteDocuments(new Term(FIELD_PARAGRAPH_ID, paragraphId.toString()));
+                }
+                commit();
+            } catch (IOException e) {
+                logger.error("删除段落事实索引失败", e);
+            }
+        }
+    }
+
+    public void deleteByTaskId(Long taskId) {
+        synchronized (writeLock) {
+            try {
+                indexWriter.deleteDocuments(new Term(FIELD_TASK_ID, taskId.toString()));
+                commit();
+            } catch (IOException e) {
+                logger.error("删除任务 {} 的事实索引失败", taskId, e);
+            }
+        }
+    }
+
+    /**
+     * 检索指定任务的事实。问题的词项只用于排序，不要求命中，所以这些任务在路径范围内的事实都会按相关度返回
+     *
+     * @param query      问题
+     * @param taskIds    任务ID
+     * @param pathPrefix 文件路径前缀，为空时不限制
+     * @param topN       最多返回的条数
+     */
+    public List<FactSearchResult> search(String query, Collection<Long> taskIds, String pathPrefix, int topN) {
+        List<FactSearchResult> results = new ArrayList<>();
+        if (taskIds.isEmpty() || topN <= 0) {
+            return results;
+        }
+        List<BytesRef> ids = taskIds.stream().map(id -> new BytesRef(id.toString())).toList();
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermInSetQuery(FIELD_TASK_ID, ids), BooleanClause.Occur.FILTER);
+        if (pathPrefix != null && !pathPrefix.isEmpty()) {
+            builder.add(new PrefixQuery(new Term(FIELD_FILE_PATH, pathPrefix)), BooleanClause.Occur.FILTER);
+        }
+        for (String term : analyzeTerms(query)) {
+            builder.add(new TermQuery(new Term(FIELD_FACT, term)), BooleanClause.Occur.SHOULD);
+        }
+
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            TopDocs topDocs = searcher.search(builder.build(), topN);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                Document doc = searcher.doc(scoreDoc.doc);
+                FactSearchResult result = new FactSearchResult();
+                result.setRefineryTaskId(Long.parseLong(doc.get(FIELD_TASK_ID)));
+                result.setParagraphId(Long.parseLong(doc.get(FIELD_PARAGRAPH_ID)));
+                result.setFact(doc.get(FIELD_FACT));
+                result.setFilePath(doc.get(FIELD_FILE_PATH));
+                result.setFileName(doc.get(FIELD_FILE_NAME));
+                result.setParagraphTime(toDateTime(doc.getField(FIELD_PARAGRAPH_TIME)));
+                result.setCreatedTime(toDateTime(doc.getField(FIELD_CREATED_TIME)));
+                result.setScore(scoreDoc.score);
+                results.add(result);
+            }
+        } catch (IOException e) {
+            logger.error("事实检索失败: {}", query, e);
+        } finally {
+            if (searcher != null) {
+                try {
+                    searcherManager.release(searcher);
+                } catch (IOException e) {
+                    logger.error("释放事实索引searcher失败", e);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 在后台清空并从数据库重建索引
+     *
+     * @return 是否已开始，已在重建时返回 false
+     */
+    public synchronized boolean rebuildAsync() {
+        if (!ready) {
+            return false;
+        }
+        ready = false;
+        rebuildExecutor.execute(() -> {
+            try {
+                rebuild();
+            } catch (Exception e) {
+                logger.error("重建事实索引失败", e);
+            } finally {
+                ready = true;
+            }
+        });
+        return true;
+    }
+
+    private void rebuild() throws IOException {
+        long start = System.currentTimeMillis();
+        synchronized (writeLock) {
+            indexWriter.deleteAll();
+            commit();
+        }
+        long afterId = 0;
+        int count = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            synchronized (writeLock) {
+                List<RefineryFactDO> facts = refineryFactRepository.findByIdGreaterThanOrderByIdAsc(afterId,
+                        PageRequest.of(0, REBUILD_PAGE_SIZE));
+                if (facts.isEmpty()) {
+                    break;
+                }
+                writeFacts(facts);
+                commit();
+                count += facts.size();
+                afterId = facts.get(facts.size() - 1).getId();
+            }
+        }
+        logger.info("Rebuilt fact index with {} facts in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ready", ready);
+        stats.put("docCount", getDocCount());
+        return stats;
+    }
+
+    private int getDocCount() {
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            return searcher.getIndexReader().numDocs();
+        } catch (IOException e) {
+            logger.error("读取事实索引文档数失败", e);
+            return 0;
+        } finally {
+            if (searcher != null) {
+                try {
+                    searcherManager.release(searcher);
+                } catch (IOException e) {
+                    logger.error("释放事实索引searcher失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 批量查出段落和文件信息后写入，调用方持有 writeLock
+     */
+    private void writeFacts(List<RefineryFactDO> facts) throws IOException {
+        if (facts.isEmpty()) {
+            return;
+        }
+        Set<Long> paragraphIds = facts.stream().map(RefineryFactDO::getParagraphId).collect(Collectors.toSet());
+        Map<Long, MarkdownParagraphPO> paragraphs = markdownParagraphRepository.findAllById(paragraphIds).stream()
+                .collect(Collectors.toMap(MarkdownParagraphPO::getId, Function.identity()));
+        Set<Long> documentIds = new HashSet<>();
+        for (MarkdownParagraphPO paragraph : paragraphs.values()) {
+            documentIds.add(paragraph.getDocumentDataId());
+        }
+        Map<Long, DocumentDataPO> documents = documentDataRepository.findAllById(documentIds).stream()
+                .collect(Collectors.toMap(DocumentDataPO::getId, Function.identity()));
+
+        for (RefineryFactDO fact : facts) {
+            if (fact.isSkippedMarker()) {
+                // 预筛跳过标记没有事实内容，不进索引
+                indexWriter.deleteDocuments(new Term(FIELD_KEY, key(fact.getRefineryTaskId(), fact.getParagraphId())));
+                continue;
+            }
+            MarkdownParagraphPO paragraph = paragraphs.get(fact.getParagraphId());
+            DocumentDataPO document = paragraph != null ? documents.get(paragraph.getDocumentDataId()) : null;
+            if (document == null) {
+                // 段落或文件已删除，事实随之失效
+                continue;
+            }
+            String key = key(fact.getRefineryTaskId(), fact.getParagraphId());
+            Document doc = new Document();
+            doc.add(new StringField(FIELD_KEY, key, Field.Store.NO));
+            doc.add(new StringField(FIELD_TASK_ID, fact.getRefineryTaskId().toString(), Field.Store.YES));
+            doc.add(new StringField(FIELD_PARAGRAPH_ID, fact.getParagraphId().toString(), Field.Store.YES));
+            doc.add(new StringField(FIELD_FILE_PATH, document.getFilePath(), Field.Store.YES));
+            if (document.getFileName() != null) {
+                doc.add(new StoredField(FIELD_FILE_NAME, document.getFileName()));
+            }
+            doc.add(new TextField(FIELD_FACT, fact.getFact(), Field.Store.YES));
+            if (paragraph.getCreatedDateTime() != null) {
+                doc.add(new StoredField(FIELD_PARAGRAPH_TIME, toEpochMilli(paragraph.getCreatedDateTime())));
+            }
+            if (fact.getCreatedTime() != null) {
+                doc.add(new StoredField(FIELD_CREATED_TIME, toEpochMilli(fact.getCreatedTime())));
+            }
+            indexWriter.updateDocument(new Term(FIELD_KEY, key), doc);
+        }
+    }
+
+    private void commit() throws IOException {
+        indexWriter.commit();
+        searcherManager.maybeRefresh();
+    }
+
+    private Set<String> analyzeTerms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        try (TokenStream tokenStream = analyzer.tokenStream(FIELD_FACT, text)) {
+            CharTermAttribute termAttr = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                terms.add(termAttr.toString());
+            }
+            tokenStream.end();
+        } catch (IOException e) {
+            logger.warn("问题分词失败: {}", text, e);
+        }
+        return terms;
+    }
+
+    private static String key(Long taskId, Long paragraphId) {
+        return taskId + "_" + paragraphId;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toDateTime(IndexableField field) {
+        if (field == null || field.numericValue() == null) {
+            return null;
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(field.numericValue().longValue()), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,81 @@
+package com.wibot.index;
+
+import java.time.LocalDateTime;
+
+/**
+ * 事实索引的一条检索结果，字段都取自索引，不再查库
+ */
+public class FactSearchResult {
+    private Long refineryTaskId;
+    private Long paragraphId;
+    private String fact;
+    private String filePath;
+    private String fileName;
+    private LocalDateTime paragraphTime; // 段落的时间
+    private LocalDateTime createdTime; // 事实抽取的时间
+    private float score;
+
+    public Long getRefineryTaskId() {
+        return refineryTaskId;
+    }
+
+    public void setRefineryTaskId(Long refineryTaskId) {
+        this.refineryTaskId = refineryTaskId;
+    }
+
+    public Long getParagraphId() {
+        return paragraphId;
+    }
+
+    public void setParagraphId(Long paragraphId) {
+        this.paragraphId = paragraphId;
+    }
+
+    public String getFact() {
+        return fact;
+    }
+
+    public void setFact(String fact) {
+        this.fact = fact;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public LocalDateTime getParagraphTime() {
+        return paragraphTime;
+    }
+
+    public void setParagraphTime(LocalDateTime paragraphTime) {
+        this.paragraphTime = paragraphTime;
+    }
+
+    public LocalDateTime getCreatedTime() {
+        return createdTime;
+    }
+
+    public void setCreatedTime(LocalDateTime createdTime) {
+        this.createdTime = createdTime;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    public void setScore(float score) {
+        this.score = score;
+    }
+}
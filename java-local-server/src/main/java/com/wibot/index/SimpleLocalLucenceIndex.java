@@ -3,8 +3,13 @@ package com.wibot.index;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -27,6 +32,7 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermInSetQuery;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.highlight.Highlighter;
@@ -35,6 +41,7 @@ import org.apache.lucene.search.highlight.SimpleFragmenter;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
@@ -97,6 +104,8 @@ public class SimpleLocalLucenceIndex implements DocumentIndexInterface, LocalInd
             config.setMaxBufferedDocs(1000);
             config.setMergeScheduler(new ConcurrentMergeScheduler());
             indexWriter = new IndexWriter(directory, config);
+            // 新建的索引目录还没有提交点，先提交一次，写入前打开读取器才不会失败
+            indexWriter.commit();
         } catch (IOException e) {
             throw new RuntimeException("初始化索引失败", e);
         }
@@ -107,6 +116,13 @@ public class SimpleLocalLucenceIndex implements DocumentIndexInterface, LocalInd
 
     }
 
+    /**
+     * 测试用，指定索引目录
+     */
+    SimpleLocalLucenceIndex(String indexDir) {
+        this.indexDir = indexDir;
+    }
+
     private void startCommitScheduler() {
         executorService.submit(() -> {
             while (true) {
@@ -121,7 +137,7 @@ public class SimpleLocalLucenceIndex implements DocumentIndexInterface, LocalInd
         });
     }
 
-    private void commitPendingOperations() {
+    void commitPendingOperations() {
         synchronized (commitLock) {
             if (!pendingOperations.isEmpty()) {
                 try {
@@ -494,6 +510,52 @@ public class SimpleLocalLucenceIndex implements DocumentIndexInterface, LocalInd
         }
     }
 
+    @Override
+    public Map<Long, Float> scoreParagraphs(String text, Collection<Long> paragraphIds) {
+        Map<Long, Float> scores = new HashMap<>();
+        if (paragraphIds.isEmpty()) {
+            return scores;
+        }
+        String field = "content";
+        try {
+            // 问题的词项都作为可选条件，分数即各词项BM25分数之和；段落ID只作过滤，不参与打分
+            Set<String> terms = new LinkedHashSet<>();
+            try (TokenStream tokenStream = analyzer.tokenStream(field, cleanText(text))) {
+                CharTermAttribute termAttr = tokenStream.addAttribute(CharTermAttribute.class);
+                tokenStream.reset();
+                while (tokenStream.incrementToken()) {
+                    terms.add(termAttr.toString());
+                }
+                tokenStream.end();
+            }
+            List<BytesRef> ids = new ArrayList<>();
+            for (Long paragraphId : paragraphIds) {
+                ids.add(new BytesRef(paragraphId.toString()));
+            }
+
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.add(new TermInSetQuery("id", ids), BooleanClause.Occur.FILTER);
+            for (String term : terms) {
+                builder.add(new TermQuery(new Term(field, term)), BooleanClause.Occur.SHOULD);
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                TopDocs topDocs = searcher.search(builder.build(), paragraphIds.size());
+                for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    String idStr = searcher.doc(scoreDoc.doc).get("id");
+                    if (idStr != null && !idStr.equals("null")) {
+                        scores.merge(Long.parseLong(idStr), scoreDoc.score, Math::max);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // 打分失败时返回已有结果，调用方把缺失的段落当作未索引处理
+            logger.error("段落打分失败: {}", text, e);
+        }
+        return scores;
+    }
+
     public boolean deleteIndex(String filePath) {
         try {
             if (filePath == null || filePath.isEmpty()) {
@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import com.wibot.service.LLMResponseCache;
 import com.wibot.service.SingletonLLMChat;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -54,7 +55,8 @@ public class LLMBasedAnalyzerQuoted implements SearchEngineAnalyzer {
         Message userMessage = promptTemplate.createMessage(params);
         messages.add(userMessage);
         Prompt analyzePrompt = new Prompt(messages);
-        String jsonResult = singletonLLMChat.sendThrottledRequest(analyzePrompt);
+        String jsonResult = singletonLLMChat.sendThrottledRequest(analyzePrompt,
+                LLMResponseCache.SITE_QUERY_ANALYSIS);
         logger.info("Received JSON result from LLM: {}", jsonResult);
 
         // Parse the JSON result to extract the tokens
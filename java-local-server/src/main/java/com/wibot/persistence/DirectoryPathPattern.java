@@ -0,0 +1,52 @@
+package com.wibot.persistence;
+
+/**
+ * 按目录匹配文件路径用的 LIKE 条件参数：目录本身，或目录加分隔符开头的路径。'/' 和 '\' 都视为分隔符，
+ * 目录名中的 '_'、'%' 按原字符匹配，docs 不会匹配到 docs2 下的文件
+ */
+final class DirectoryPathPattern {
+    static final char ESCAPE = '!';
+
+    private DirectoryPathPattern() {
+    }
+
+    /**
+     * 去掉末尾分隔符后的目录路径
+     */
+    static String directory(String directoryPath) {
+        if (directoryPath == null) {
+            return "";
+        }
+        int end = directoryPath.length();
+        while (end > 0 && isSeparator(directoryPath.charAt(end - 1))) {
+            end--;
+        }
+        return directoryPath.substring(0, end);
+    }
+
+    /**
+     * 目录下路径的 LIKE 模式，使用 {@link #ESCAPE} 转义；目录为空时匹配所有路径
+     */
+    static String children(String directoryPath, char separator) {
+        if (directoryPath == null || directoryPath.isEmpty()) {
+            return "%";
+        }
+        return escape(directory(directoryPath)) + separator + "%";
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ESCAPE || c == '%' || c == '_') {
+                escaped.append(ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+}
@@ -1,6 +1,7 @@
 package com.wibot.persistence;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -10,6 +11,7 @@ import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.wibot.persistence.entity.DocumentDataPO;
 
@@ -35,6 +37,14 @@ public interface DocumentDataRepository
          */
         Optional<DocumentDataPO> findByFilePath(String path);
 
+        /**
+         * 批量按文件路径查找文档数据，用于目录首次扫描时成批写入
+         *
+         * @param paths 文件路径集合
+         * @return 已存在的文档数据列表
+         */
+        List<DocumentDataPO> findByFilePathIn(Collection<String> paths);
+
         /**
          * 根据文件路径前缀查找文档数据
          *
@@ -79,6 +89,7 @@ public interface DocumentDataRepository
          * @param processedState       处理状态
          */
         @Modifying
+        @Transactional
         @Query("UPDATE DocumentDataPO d SET d.lastProcessingUpdate = :lastProcessingUpdate WHERE d.processorId = :processorId AND d.processedState = :processedState")
         void updateLastProcessingUpdateForProcessor(@Param("processorId") String processorId,
                         @Param("lastProcessingUpdate") LocalDateTime lastProcessingUpdate,
@@ -92,14 +103,150 @@ public interface DocumentDataRepository
         List<DocumentDataPO> findByProcessedStateIn(List<String> states, Pageable pageable);
 
         /**
-         * 根据处理状态查找文档数据并按ID排序
+         * 查找可以认领的待处理文档：未被认领，或租约已过期。按优先级从高到低、同优先级按ID排序
          *
-         * @param states   处理状态列表
-         * @param pageable 分页信息
+         * @param states      处理状态列表
+         * @param leaseExpiry 早于该时间的租约视为过期
+         * @param pageable    分页信息
          * @return 文档数据列表
          */
-        @Query("SELECT d FROM DocumentDataPO d WHERE d.processedState IN :states ORDER BY d.id ASC")
-        List<DocumentDataPO> findByProcessedStateInOrderById(@Param("states") List<String> states, Pageable pageable);
+        @Query("SELECT d FROM DocumentDataPO d WHERE d.processedState IN :states AND (d.processorId IS NULL OR d.lastProcessingUpdate IS NULL OR d.lastProcessingUpdate < :leaseExpiry) ORDER BY d.priority DESC, d.id ASC")
+        List<DocumentDataPO> findClaimableByProcessedStateIn(@Param("states") List<String> states,
+                        @Param("leaseExpiry") LocalDateTime leaseExpiry,
+                        Pageable pageable);
+
+        /**
+         * 原子地认领文档：只有文档仍处于待处理状态，且未被认领或租约已过期时才会成功。同时递增版本号，
+         * 持有旧实体的其他进程保存时会失败而不是覆盖
+         *
+         * @param id          文档ID
+         * @param states      允许认领的处理状态
+         * @param processorId 认领者ID
+         * @param now         当前时间，作为租约起始时间
+         * @param leaseExpiry 早于该时间的租约视为过期
+         * @return 1 表示认领成功，0 表示已被他人认领或状态已变化
+         */
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.processorId = :processorId, d.lastProcessingUpdate = :now, d.version = COALESCE(d.version, 0) + 1 WHERE d.id = :id AND d.processedState IN :states AND (d.processorId IS NULL OR d.lastProcessingUpdate IS NULL OR d.lastProcessingUpdate < :leaseExpiry)")
+        int claimLease(@Param("id") Long id,
+                        @Param("states") List<String> states,
+                        @Param("processorId") String processorId,
+                        @Param("now") LocalDateTime now,
+                        @Param("leaseExpiry") LocalDateTime leaseExpiry);
+
+        /**
+         * 释放租约，只释放自己持有的
+         *
+         * @param id          文档ID
+         * @param processorId 认领者ID
+         * @return 更新的记录数
+         */
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.processorId = NULL WHERE d.id = :id AND d.processorId = :processorId")
+        int releaseLease(@Param("id") Long id, @Param("processorId") String processorId);
+
+        long countByProcessedState(String processedState);
+
+        /**
+         * 将到期的重试文档放回待处理队列
+         *
+         * @param now 当前时间
+         * @return 更新的记录数
+         */
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.processedState = 'file_saved', d.nextAttemptTime = NULL WHERE d.processedState = 'retry_wait' AND (d.nextAttemptTime IS NULL OR d.nextAttemptTime <= :now)")
+        int promoteDueRetries(@Param("now") LocalDateTime now);
+
+        /**
+         * 优先级字段加非空约束之前的旧数据回填为给定优先级
+         *
+         * @param priority 回填的优先级
+         * @return 更新的记录数
+         */
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.priority = :priority WHERE d.priority IS NULL")
+        int backfillNullPriority(@Param("priority") Integer priority);
+
+        /**
+         * 将所有失败文档以给定优先级重新入队，重置失败次数
+         *
+         * @param priority 重新入队的优先级
+         * @return 更新的记录数
+         */
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.processedState = 'file_saved', d.priority = :priority, d.attemptCount = 0, d.nextAttemptTime = NULL, d.processorId = NULL WHERE d.processedState = 'error'")
+        int requeueAllDeadLetters(@Param("priority") Integer priority);
+
+        /**
+         * 将指定的失败文档以给定优先级重新入队，重置失败次数
+         *
+         * @param ids      文档ID列表
+         * @param priority 重新入队的优先级
+         * @return 更新的记录数
+         */
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.processedState = 'file_saved', d.priority = :priority, d.attemptCount = 0, d.nextAttemptTime = NULL, d.processorId = NULL WHERE d.processedState = 'error' AND d.id IN :ids")
+        int requeueDeadLettersByIds(@Param("ids") List<Long> ids, @Param("priority") Integer priority);
+
+        /**
+         * 调整指定目录下待处理文件的优先级，不包含同前缀的兄弟目录
+         *
+         * @param directoryPath 目录路径
+         * @param states        需要调整的处理状态
+         * @param priority      新优先级
+         * @return 更新的记录数
+         */
+        default int updatePriorityByDirectory(String directoryPath, List<String> states, Integer priority) {
+                return updatePriorityByDirectory(DirectoryPathPattern.directory(directoryPath),
+                                DirectoryPathPattern.children(directoryPath, '/'),
+                                DirectoryPathPattern.children(directoryPath, '\\'), states, priority);
+        }
+
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.priority = :priority WHERE (d.filePath = :directory "
+                        + "OR d.filePath LIKE :slashPattern ESCAPE '!' OR d.filePath LIKE :backslashPattern ESCAPE '!') "
+                        + "AND d.processedState IN :states")
+        int updatePriorityByDirectory(@Param("directory") String directory,
+                        @Param("slashPattern") String slashPattern,
+                        @Param("backslashPattern") String backslashPattern,
+                        @Param("states") List<String> states,
+                        @Param("priority") Integer priority);
+
+        /**
+         * 将指定目录之外、优先级在 (priority, ceiling) 之间的待处理文件降为给定优先级。
+         * 优先级不低于 ceiling 的文件（用户上传或之前提交的目录）保持不变
+         *
+         * @param directoryPath 目录路径
+         * @param states        需要调整的处理状态
+         * @param priority      降级后的优先级
+         * @param ceiling       只调整低于该优先级的文件
+         * @return 更新的记录数
+         */
+        default int demotePriorityOutsideDirectory(String directoryPath, List<String> states, Integer priority,
+                        Integer ceiling) {
+                return demotePriorityOutsideDirectory(DirectoryPathPattern.directory(directoryPath),
+                                DirectoryPathPattern.children(directoryPath, '/'),
+                                DirectoryPathPattern.children(directoryPath, '\\'), states, priority, ceiling);
+        }
+
+        @Modifying
+        @Transactional
+        @Query("UPDATE DocumentDataPO d SET d.priority = :priority WHERE NOT (d.filePath = :directory "
+                        + "OR d.filePath LIKE :slashPattern ESCAPE '!' OR d.filePath LIKE :backslashPattern ESCAPE '!') "
+                        + "AND d.processedState IN :states AND d.priority > :priority AND d.priority < :ceiling")
+        int demotePriorityOutsideDirectory(@Param("directory") String directory,
+                        @Param("slashPattern") String slashPattern,
+                        @Param("backslashPattern") String backslashPattern,
+                        @Param("states") List<String> states,
+                        @Param("priority") Integer priority,
+                        @Param("ceiling") Integer ceiling);
 
         /**
          * 根据文件路径前缀和处理状态查找文档
@@ -132,7 +279,33 @@ public interface DocumentDataRepository
                         @Param("oldState") String oldState,
                         @Param("newState") String newState);
 
+        /**
+         * 按路径升序分页读取一个路径区间内的文档，以上一页最后一条路径为游标，不使用 offset
+         *
+         * @param after      游标，只返回路径大于该值的记录
+         * @param upperBound 路径上界（不含）
+         * @param pageable   每页大小
+         * @return 文档数据列表
+         */
+        @Query("SELECT d FROM DocumentDataPO d WHERE d.filePath > :after AND d.filePath < :upperBound ORDER BY d.filePath ASC")
+        List<DocumentDataPO> findPathRangeAfter(@Param("after") String after,
+                        @Param("upperBound") String upperBound,
+                        Pageable pageable);
+
         List<DocumentDataPO> findByFilePathLike(String filePathPattern);
 
-        long countByFilePathStartingWith(String pathPrefix);
+        /**
+         * 目录本身及其下的文件数，不包含同前缀的兄弟目录（docs 不计入 docs2 下的文件）
+         */
+        default long countByDirectory(String directoryPath) {
+                return countByDirectory(DirectoryPathPattern.directory(directoryPath),
+                                DirectoryPathPattern.children(directoryPath, '/'),
+                                DirectoryPathPattern.children(directoryPath, '\\'));
+        }
+
+        @Query("SELECT COUNT(d) FROM DocumentDataPO d WHERE d.filePath = :directory "
+                        + "OR d.filePath LIKE :slashPattern ESCAPE '!' OR d.filePath LIKE :backslashPattern ESCAPE '!'")
+        long countByDirectory(@Param("directory") String directory,
+                        @Param("slashPattern") String slashPattern,
+                        @Param("backslashPattern") String backslashPattern);
 }
\ No newline at end of file
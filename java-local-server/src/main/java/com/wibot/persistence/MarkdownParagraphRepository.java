@@ -1,6 +1,9 @@
 package com.wibot.persistence;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.wibot.persistence.entity.MarkdownParagraphPO;
@@ -16,4 +19,27 @@ public interface MarkdownParagraphRepository extends JpaRepository<MarkdownParag
 
     // 添加按照id排序的查询方法
     List<MarkdownParagraphPO> findByDocumentDataIdOrderById(Long documentDataId);
+
+    /**
+     * 按ID升序分页读取目录下所有文档的段落，以上一页最后一个段落ID为游标，不使用 offset
+     *
+     * @param directoryPath 目录路径，只匹配目录本身及其下的文件，不匹配同前缀的兄弟目录
+     * @param afterId       游标，只返回ID大于该值的段落
+     * @param pageable      每页大小
+     * @return 段落列表
+     */
+    default List<MarkdownParagraphPO> findByDirectoryAfterId(String directoryPath, Long afterId, Pageable pageable) {
+        return findByDirectoryAfterId(DirectoryPathPattern.directory(directoryPath),
+                DirectoryPathPattern.children(directoryPath, '/'),
+                DirectoryPathPattern.children(directoryPath, '\\'), afterId, pageable);
+    }
+
+    @Query("SELECT p FROM MarkdownParagraphPO p WHERE p.id > :afterId AND p.documentDataId IN (SELECT d.id FROM DocumentDataPO d "
+            + "WHERE d.filePath = :directory OR d.filePath LIKE :slashPattern ESCAPE '!' OR d.filePath LIKE :backslashPattern ESCAPE '!') "
+            + "ORDER BY p.id ASC")
+    List<MarkdownParagraphPO> findByDirectoryAfterId(@Param("directory") String directory,
+            @Param("slashPattern") String slashPattern,
+            @Param("backslashPattern") String backslashPattern,
+            @Param("afterId") Long afterId,
+            Pageable pageable);
 }
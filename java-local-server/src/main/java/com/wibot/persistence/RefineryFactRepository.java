@@ -1,5 +1,6 @@
 package com.wibot.persistence;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -18,13 +19,22 @@ public interface RefineryFactRepository extends JpaRepository<RefineryFactDO, Lo
 
     List<RefineryFactDO> findByRefineryTaskIdAndParagraphId(Long refineryTaskId, Long paragraphId);
 
-    @Query("SELECT DISTINCT f.paragraphId FROM RefineryFactDO f WHERE f.refineryTaskId = :taskId")
+    List<RefineryFactDO> findByRefineryTaskIdAndParagraphIdIn(Long refineryTaskId, List<Long> paragraphIds);
+
+    List<RefineryFactDO> findByParagraphIdIn(List<Long> paragraphIds);
+
+    // 按ID游标分页，用于重建事实索引
+    List<RefineryFactDO> findByIdGreaterThanOrderByIdAsc(Long afterId, Pageable pageable);
+
+    @Query("SELECT DISTINCT f.paragraphId FROM RefineryFactDO f WHERE f.refineryTaskId = :taskId "
+            + "AND f.skippedMinScore IS NULL")
     List<Long> findDistinctParagraphIdsByRefineryTaskId(@Param("taskId") String taskId);
 
     @Transactional
     void deleteByRefineryTaskId(Long refineryTaskId);
 
-    @Query("SELECT COUNT(DISTINCT f.paragraphId) FROM RefineryFactDO f WHERE f.refineryTaskId = :taskId")
+    @Query("SELECT COUNT(DISTINCT f.paragraphId) FROM RefineryFactDO f WHERE f.refineryTaskId = :taskId "
+            + "AND f.skippedMinScore IS NULL")
     long countDistinctParagraphsByTaskId(@Param("taskId") String taskId);
 
     @Transactional
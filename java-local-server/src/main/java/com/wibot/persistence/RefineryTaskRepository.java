@@ -23,6 +23,9 @@ public interface RefineryTaskRepository extends JpaRepository<RefineryTaskDO, Lo
 
     Optional<RefineryTaskDO> findByDirectoryPath(String directoryPath);
 
+    // 走 (目录, 问题) 唯一索引
+    Optional<RefineryTaskDO> findFirstByDirectoryPathAndKeyQuestion(String directoryPath, String keyQuestion);
+
     // 分页查询
     Page<RefineryTaskDO> findAll(Pageable pageable);
 
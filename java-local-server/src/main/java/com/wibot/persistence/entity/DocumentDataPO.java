@@ -9,15 +9,22 @@ import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 import jakarta.persistence.Version;
 
+import org.hibernate.annotations.ColumnDefault;
+
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(indexes = { @Index(name = "idx_document_file_path", columnList = "filePath"),
         @Index(name = "idx_document_processed_state", columnList = "processedState"),
-        @Index(name = "idx_document_processor_id", columnList = "processorId") })
+        @Index(name = "idx_document_processor_id", columnList = "processorId"),
+        @Index(name = "idx_document_priority", columnList = "priority") })
 
 public class DocumentDataPO {
 
@@ -30,6 +37,27 @@ public class DocumentDataPO {
     public static final String PROCESSED_STATE_DELETED = "deleted";
 
     public static final String PROCESSED_STATE_IGNORED = "ignored";
+
+    /**
+     * 处理失败、等待到 nextAttemptTime 后重新入队
+     */
+    public static final String PROCESSED_STATE_RETRY_WAIT = "retry_wait";
+
+    /**
+     * 失败原因分类：可重试（网络、LLM/OCR服务暂不可用等），或文件本身无法解析
+     */
+    public static final String ERROR_CLASS_RETRYABLE = "retryable";
+    public static final String ERROR_CLASS_POISON = "poison";
+
+    /**
+     * 解析优先级：数值越大越先处理。文件在所属档位基础上，按最近修改、小文件再加分
+     */
+    public static final int PRIORITY_BACKGROUND = 0;
+    public static final int PRIORITY_NORMAL = 10;
+    public static final int PRIORITY_USER_TRIGGERED = 30;
+    public static final int PRIORITY_BOOST_RECENTLY_MODIFIED = 6;
+    public static final int PRIORITY_BOOST_SMALL_FILE = 3;
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
@@ -48,6 +76,27 @@ public class DocumentDataPO {
     private String processedState = PROCESSED_STATE_FILE_SAVED;
 
     private long markdownBasedContentId;
+
+    /**
+     * 非空才能让认领查询直接按 idx_document_priority 排序；旧数据启动时回填为 PRIORITY_NORMAL
+     */
+    @Column(nullable = false)
+    @ColumnDefault("10")
+    private Integer priority = PRIORITY_NORMAL;
+
+    private Long fileSize;
+
+    /**
+     * 连续失败次数，处理成功后清零
+     */
+    private Integer attemptCount;
+
+    private LocalDateTime nextAttemptTime;
+
+    @Column(columnDefinition = "VARCHAR(1024)")
+    private String lastError;
+
+    private String errorClass;
     /**
      * 是远程的某个文件，还是本地的某个文件
      */
@@ -163,8 +212,25 @@ public class DocumentDataPO {
         this.lastProcessingUpdate = lastProcessingUpdate;
     }
 
-    public byte[] getData() throws IOException {
-        return Files.readAllBytes(Path.of(filePath));
+    /**
+     * 源文件路径。解析器应基于路径或下面的流按需读取，不要把整个文件读进内存
+     */
+    public Path getDataPath() {
+        return Path.of(filePath);
+    }
+
+    /**
+     * 打开源文件的顺序读取流，调用方负责关闭
+     */
+    public InputStream openDataStream() throws IOException {
+        return new BufferedInputStream(Files.newInputStream(getDataPath()));
+    }
+
+    /**
+     * 打开源文件的随机读取通道，调用方负责关闭
+     */
+    public SeekableByteChannel openDataChannel() throws IOException {
+        return Files.newByteChannel(getDataPath(), StandardOpenOption.READ);
     }
 
     public void setMarkdownBasedContentId(long markdownBasedContentId) {
@@ -175,6 +241,54 @@ public class DocumentDataPO {
         return markdownBasedContentId;
     }
 
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public Integer getAttemptCount() {
+        return attemptCount;
+    }
+
+    public void setAttemptCount(Integer attemptCount) {
+        this.attemptCount = attemptCount;
+    }
+
+    public LocalDateTime getNextAttemptTime() {
+        return nextAttemptTime;
+    }
+
+    public void setNextAttemptTime(LocalDateTime nextAttemptTime) {
+        this.nextAttemptTime = nextAttemptTime;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public String getErrorClass() {
+        return errorClass;
+    }
+
+    public void setErrorClass(String errorClass) {
+        this.errorClass = errorClass;
+    }
+
     public Integer getVersion() {
         return version;
     }
@@ -4,6 +4,7 @@ import java.time.LocalDateTime;
 import jakarta.persistence.*;
 
 @Entity
+@Table(indexes = { @Index(name = "idx_paragraph_document_data_id", columnList = "documentDataId") })
 public class MarkdownParagraphPO {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
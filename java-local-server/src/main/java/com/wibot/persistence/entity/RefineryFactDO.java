@@ -25,6 +25,12 @@ public class RefineryFactDO {
     @Column(nullable = false)
     private LocalDateTime createdTime;
 
+    @Column(length = 64)
+    private String contentHash; // 抽取时段落内容的hash，段落内容未变时全量更新不再重新抽取
+
+    // 被词法预筛跳过的段落记一条空事实，保存当时的阈值；预筛关闭或阈值调低后只重新检查这些段落
+    private Double skippedMinScore;
+
     // Constructors
     public RefineryFactDO() {
     }
@@ -36,6 +42,11 @@ public class RefineryFactDO {
         this.createdTime = LocalDateTime.now();
     }
 
+    public RefineryFactDO(Long refineryTaskId, Long paragraphId, String fact, String contentHash) {
+        this(refineryTaskId, paragraphId, fact);
+        this.contentHash = contentHash;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -77,4 +88,27 @@ public class RefineryFactDO {
         this.createdTime = createdTime;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Double getSkippedMinScore() {
+        return skippedMinScore;
+    }
+
+    public void setSkippedMinScore(Double skippedMinScore) {
+        this.skippedMinScore = skippedMinScore;
+    }
+
+    /**
+     * 是否为预筛跳过的标记，不是抽取出的事实
+     */
+    public boolean isSkippedMarker() {
+        return skippedMinScore != null;
+    }
+
 }
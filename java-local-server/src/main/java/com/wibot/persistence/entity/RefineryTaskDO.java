@@ -4,7 +4,9 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "refinery_task")
+@Table(name = "refinery_task", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_refinery_task_path_question", columnNames = { "directoryPath", "keyQuestion" })
+})
 public class RefineryTaskDO {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -37,6 +39,13 @@ public class RefineryTaskDO {
     @Column(length = 2000)
     private String processingCheckpoint; // 断点续传信息
 
+    private Long watermarkParagraphId; // 已完整处理过的最大段落ID，全量更新时不清除
+
+    @Column(length = 64)
+    private String watermarkContentHash; // 水位段落处理时的内容hash
+
+    private Integer prefilterSkippedCount; // 本轮全量更新以来被词法预筛跳过、未发给大模型的段落数
+
     // 任务状态常量
     public static final String STATUS_PENDING = "PENDING"; // 待处理
     public static final String STATUS_ACTIVE = "ACTIVE"; // 活跃
@@ -139,4 +148,28 @@ public class RefineryTaskDO {
         this.processingCheckpoint = processingCheckpoint;
     }
 
+    public Long getWatermarkParagraphId() {
+        return watermarkParagraphId;
+    }
+
+    public void setWatermarkParagraphId(Long watermarkParagraphId) {
+        this.watermarkParagraphId = watermarkParagraphId;
+    }
+
+    public String getWatermarkContentHash() {
+        return watermarkContentHash;
+    }
+
+    public void setWatermarkContentHash(String watermarkContentHash) {
+        this.watermarkContentHash = watermarkContentHash;
+    }
+
+    public Integer getPrefilterSkippedCount() {
+        return prefilterSkippedCount;
+    }
+
+    public void setPrefilterSkippedCount(Integer prefilterSkippedCount) {
+        this.prefilterSkippedCount = prefilterSkippedCount;
+    }
+
 }
@@ -28,6 +28,11 @@ public class UserDirectoryIndexPO {
 
     private LocalDateTime completionTime;
 
+    /**
+     * 扫描该目录时新文件所在的优先级档位，为空表示按普通档位
+     */
+    private Integer priority;
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -69,4 +74,12 @@ public class UserDirectoryIndexPO {
         this.completionTime = completionTime;
     }
 
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
 }
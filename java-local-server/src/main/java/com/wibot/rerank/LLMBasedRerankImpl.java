@@ -17,6 +17,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import com.wibot.index.SearchDocumentResult;
+import com.wibot.service.LLMResponseCache;
 import com.wibot.service.SingletonLLMChat;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -64,7 +65,8 @@ public class LLMBasedRerankImpl implements DocumentRerankInterface {
         Message userMessage = promptTemplate.createMessage(params);
         messages.add(userMessage);
         Prompt knowLodgeEvalPrompt = new Prompt(messages);
-        String jsonResult = singletonLLMChat.sendThrottledRequest(knowLodgeEvalPrompt);
+        String jsonResult = singletonLLMChat.sendThrottledRequest(knowLodgeEvalPrompt,
+                LLMResponseCache.SITE_RERANK);
         logger.info("Received JSON result from LLM: {}", jsonResult);
 
         // Parse the JSON result to extract the document IDs in the new order
@@ -32,10 +32,14 @@ public class DirectoryManagementService {
 
             Optional<UserDirectoryIndexPO> existingIndex = userDirectoryIndexRepository.findByDirectoryPath(path);
             if (!existingIndex.isPresent()) {
+                // 用户刚提交的目录优先处理，后台和定时同步带来的待解析文件降为后台补齐；用户之前提交的目录和上传的文件不受影响
+                demoteOtherPendingDirectories(path);
+
                 UserDirectoryIndexPO index = new UserDirectoryIndexPO();
                 index.setDirectoryPath(path);
                 index.setSubmitTime(LocalDateTime.now());
                 index.setIndexStatus(UserDirectoryIndexPO.STATUS_PENDING);
+                index.setPriority(DocumentDataPO.PRIORITY_USER_TRIGGERED);
                 userDirectoryIndexRepository.save(index);
             }
 
@@ -49,6 +53,57 @@ public class DirectoryManagementService {
         return response;
     }
 
+    private void demoteOtherPendingDirectories(String path) {
+        for (UserDirectoryIndexPO other : userDirectoryIndexRepository
+                .findByIndexStatus(UserDirectoryIndexPO.STATUS_PENDING)) {
+            int priority = other.getPriority() != null ? other.getPriority() : DocumentDataPO.PRIORITY_NORMAL;
+            if (priority > DocumentDataPO.PRIORITY_BACKGROUND
+                    && priority < DocumentDataPO.PRIORITY_USER_TRIGGERED) {
+                other.setPriority(DocumentDataPO.PRIORITY_BACKGROUND);
+                userDirectoryIndexRepository.save(other);
+            }
+        }
+        int demoted = documentDataRepository.demotePriorityOutsideDirectory(path,
+                List.of(DocumentDataPO.PROCESSED_STATE_FILE_SAVED), DocumentDataPO.PRIORITY_BACKGROUND,
+                DocumentDataPO.PRIORITY_USER_TRIGGERED);
+        logger.info("新目录提交，{} 个待解析文件降为后台优先级", demoted);
+    }
+
+    /**
+     * 调整目录下待解析文件的优先级，可在索引进行中调用
+     *
+     * @param path     目录路径
+     * @param priority 新优先级，数值越大越先处理
+     */
+    public Map<String, Object> reprioritizeDirectory(String path, Integer priority) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            if (path == null || path.isEmpty() || priority == null) {
+                throw new IllegalArgumentException("path 和 priority 不能为空");
+            }
+
+            // 监控目录本身也记录下来，扫描尚未完成的部分会继续使用新优先级
+            Optional<UserDirectoryIndexPO> indexOpt = userDirectoryIndexRepository.findByDirectoryPath(path);
+            if (indexOpt.isPresent()) {
+                UserDirectoryIndexPO index = indexOpt.get();
+                index.setPriority(priority);
+                userDirectoryIndexRepository.save(index);
+            }
+
+            int updated = documentDataRepository.updatePriorityByDirectory(path,
+                    List.of(DocumentDataPO.PROCESSED_STATE_FILE_SAVED), priority);
+
+            response.put("success", true);
+            response.put("updatedCount", updated);
+            response.put("message", "已调整 " + updated + " 个待解析文件的优先级");
+        } catch (Exception e) {
+            logger.error("调整目录优先级失败", e);
+            response.put("success", false);
+            response.put("message", "调整失败: " + e.getMessage());
+        }
+        return response;
+    }
+
     public List<Map<String, Object>> listMonitoredDirs() {
         List<Map<String, Object>> result = new ArrayList<>();
         List<UserDirectoryIndexPO> dirs = userDirectoryIndexRepository.findAll();
@@ -5,26 +5,52 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.wibot.documentLoader.DocumentIndexService;
+import com.wibot.index.FactIndex;
 import com.wibot.documentParser.DocumentParserInterface;
 import com.wibot.documentParserSelector.DocumentParserSelectorInterface;
 import com.wibot.persistence.*;
 import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.persistence.entity.MarkdownParagraphPO;
 import com.wibot.persistence.entity.UserDirectoryIndexPO;
+import com.wibot.utils.fs.ParallelTreeWalker;
 import com.wibot.utils.llm.PathMatcherUtil;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import jakarta.annotation.PreDestroy;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Stream;
 import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
 
 @Service
 public class DirectoryProcessingService {
@@ -34,9 +60,35 @@ public class DirectoryProcessingService {
     private volatile long lastUpdateTime = 0;
     private static final long UPDATE_INTERVAL = 60000; // 60秒更新间隔
 
+    private static final long RECENTLY_MODIFIED_WINDOW_MS = 7L * 24 * 60 * 60 * 1000; // 7天内修改视为最近修改
+    private static final long SMALL_FILE_SIZE = 1024 * 1024; // 1MB以下视为小文件
+    private static final int PRIORITY_REFRESH_INTERVAL = 1000; // 扫描过程中每1000个文件刷新一次目录优先级
+    private static final int WALKER_PARALLELISM = Math.min(8, Runtime.getRuntime().availableProcessors());
+    private static final int MAX_CONCURRENT_ROOTS = 4;
+    private static final int SCAN_BATCH_SIZE = 1000; // 首次扫描时每批写入的文件记录数
+
+    private static final int PATH_LOCK_STRIPES = 256;
+    private static final boolean CASE_INSENSITIVE_PATHS = File.separatorChar == '\\';
+
+    // 同一路径的处理串行，不同路径可以并行
+    private final Striped<Lock> pathLocks = Striped.lock(PATH_LOCK_STRIPES);
+    // 正在处理或排队中的目录任务，同一目录不会同时出现两个任务
+    private final Set<String> activeRootTasks = ConcurrentHashMap.newKeySet();
+    // 目录 -> 最近一次首次扫描的统计
+    private final Map<String, Map<String, Object>> scanStats = new ConcurrentHashMap<>();
+    private final ParallelTreeWalker treeWalker = new ParallelTreeWalker(WALKER_PARALLELISM, "dir-walker-");
+    private final ExecutorService rootExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_ROOTS,
+            new ThreadFactoryBuilder().setNameFormat("dir-root-%d").build());
+
     @Autowired
     private UserDirectoryIndexRepository indexRepository;
 
+    @Autowired
+    private FileFingerprintService fingerprintService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @Autowired
     private DocumentDataRepository documentDataRepository;
 
@@ -45,6 +97,18 @@ public class DirectoryProcessingService {
     @Autowired
     private DocumentParserSelectorInterface selector;
 
+    @Autowired
+    private MarkdownParagraphRepository markdownParagraphRepository;
+
+    @Autowired
+    private DocumentIndexService documentIndexService;
+
+    @Autowired
+    private RefineryFactRepository refineryFactRepository;
+
+    @Autowired
+    private FactIndex factIndex;
+
     private PathMatcherUtil getIgnoredPathMatcher() {
         long currentTime = System.currentTimeMillis();
         if (ignoredPathMatcher == null || (currentTime - lastUpdateTime) > UPDATE_INTERVAL) {
@@ -73,27 +137,60 @@ public class DirectoryProcessingService {
 
     // Check for new tasks every 10 seconds
     @Scheduled(fixedRate = 10000)
-    public synchronized void processNewTasks() {
+    public void processNewTasks() {
         logger.debug("Checking for new tasks");
 
+        // 每个目录作为单独的任务提交，不等待完成；还在处理中的目录下次检查时跳过
         List<UserDirectoryIndexPO> pendingTasks = indexRepository.findAll();
         for (UserDirectoryIndexPO task : pendingTasks) {
             try {
                 if (task.getIndexStatus().equals(UserDirectoryIndexPO.STATUS_PENDING)) {
-                    tryProcessTask(task);
+                    dispatchRootTask(task, () -> tryProcessTask(task));
                 } else if (UserDirectoryIndexPO.STATUS_DELETED.equals(task.getIndexStatus())) {
-                    processDeletedDirectory(task);
+                    dispatchRootTask(task, () -> processDeletedDirectory(task));
                 } else if (UserDirectoryIndexPO.STATUS_IGNORE_TRIGGERED.equals(task.getIndexStatus())) {
-                    processIgnoreRulesChange(task);
+                    dispatchRootTask(task, () -> processIgnoreRulesChange(task));
                 } else {
-                    logger.debug("Skipping task: {} , status: {} , directory: {} ", task.getId(), task.getIndexStatus(),
-                            task.getDirectoryPath());
+                    logger.debug("Skipping task: {} , status: {} , directory: {} ", task.getId(),
+                            task.getIndexStatus(), task.getDirectoryPath());
                 }
             } catch (Exception e) {
                 logger.error("Failed to process task: {} - {}", task.getIndexStatus(), task.getDirectoryPath(), e);
             }
         }
+    }
 
+    private void dispatchRootTask(UserDirectoryIndexPO task, Runnable job) {
+        String directoryPath = task.getDirectoryPath();
+        if (!activeRootTasks.add(directoryPath)) {
+            logger.debug("Directory task still running: {}", directoryPath);
+            return;
+        }
+        try {
+            rootExecutor.execute(() -> {
+                try {
+                    job.run();
+                } catch (Exception e) {
+                    logger.error("Directory task failed: {}", directoryPath, e);
+                } finally {
+                    activeRootTasks.remove(directoryPath);
+                }
+            });
+        } catch (RuntimeException e) {
+            activeRootTasks.remove(directoryPath);
+            throw e;
+        }
+    }
+
+    private Lock lockPath(Path path) {
+        Lock lock = pathLocks.get(lockKey(path));
+        lock.lock();
+        return lock;
+    }
+
+    private String lockKey(Path path) {
+        String key = path.toAbsolutePath().normalize().toString();
+        return CASE_INSENSITIVE_PATHS ? key.toLowerCase(Locale.ROOT) : key;
     }
 
     private void tryProcessTask(UserDirectoryIndexPO task) {
@@ -110,17 +207,22 @@ public class DirectoryProcessingService {
 
     private void markFileAsIgnored(Path filePath) throws IOException {
         logger.debug("Marking file as ignored: {}", filePath);
-        Optional<DocumentDataPO> existingDoc = documentDataRepository.findByFilePath(filePath.toString());
+        Lock lock = lockPath(filePath);
+        try {
+            Optional<DocumentDataPO> existingDoc = documentDataRepository.findByFilePath(filePath.toString());
 
-        DocumentDataPO documentData;
-        if (existingDoc.isPresent()) {
-            documentData = existingDoc.get();
-        } else {
-            documentData = createDocumentDataWithoutMd5(filePath);
-        }
+            DocumentDataPO documentData;
+            if (existingDoc.isPresent()) {
+                documentData = existingDoc.get();
+            } else {
+                documentData = createDocumentDataWithoutMd5(filePath);
+            }
 
-        documentData.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
-        documentDataRepository.save(documentData);
+            documentData.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
+            documentDataRepository.save(documentData);
+        } finally {
+            lock.unlock();
+        }
     }
 
     private void processDirectory(UserDirectoryIndexPO index) throws Exception {
@@ -128,22 +230,37 @@ public class DirectoryProcessingService {
 
         logger.debug("Processing directory: {}", index.getDirectoryPath());
 
-        // Process files
-        try (Stream<Path> paths = Files.walk(dirPath)) {
-            paths.filter(Files::isRegularFile)
-                    .forEach(filePath -> {
-                        try {
-                            // Use getter method to get the latest matcher
-                            if (getIgnoredPathMatcher().matches(dirPath.relativize(filePath))) {
-                                markFileAsIgnored(filePath);
-                                return;
-                            }
-                            processFile(filePath, StandardWatchEventKinds.ENTRY_CREATE);
-                        } catch (Exception e) {
-                            logger.error("Failed to process file: {}", filePath, e);
-                        }
-                    });
-        }
+        // 扫描期间目录优先级可能被调整（如用户又提交了新目录），定期重新读取
+        AtomicInteger scannedCount = new AtomicInteger();
+        AtomicInteger priorityTier = new AtomicInteger(resolvePriorityTier(index));
+        // 在扫描开始时取一次忽略规则，整个扫描过程保持一致
+        PathMatcherUtil matcher = getIgnoredPathMatcher();
+        ScanBatchWriter writer = new ScanBatchWriter();
+        long startTime = System.currentTimeMillis();
+
+        // 并行遍历，命中忽略规则的目录整体跳过，文件属性在遍历时一并取得；文件记录成批写入
+        long fileCount = walkDirectory(dirPath, (filePath, attrs) -> {
+            try {
+                if (scannedCount.incrementAndGet() % PRIORITY_REFRESH_INTERVAL == 0) {
+                    indexRepository.findById(index.getId())
+                            .ifPresent(latest -> priorityTier.set(resolvePriorityTier(latest)));
+                }
+                writer.add(filePath, attrs, priorityTier.get(), matcher.matches(dirPath.relativize(filePath)));
+            } catch (Exception e) {
+                logger.error("Failed to process file: {}", filePath, e);
+            }
+        });
+        writer.flush();
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        Map<String, Object> stats = writer.getStats();
+        stats.put("files", fileCount);
+        stats.put("elapsedMs", elapsed);
+        stats.put("filesPerSecond", fileCount * 1000 / elapsed);
+        stats.put("completedTime", LocalDateTime.now());
+        scanStats.put(index.getDirectoryPath(), stats);
+        logger.info("Scanned {} files under {} in {} ms ({} files/s): {}", fileCount, dirPath, elapsed,
+                stats.get("filesPerSecond"), stats);
 
         index.setIndexStatus(UserDirectoryIndexPO.STATUS_COMPLETED);
         index.setCompletionTime(LocalDateTime.now());
@@ -152,7 +269,188 @@ public class DirectoryProcessingService {
         logger.debug("Directory processing completed: {}", index.getDirectoryPath());
     }
 
-    public synchronized void processFile(Path filePath, WatchEvent.Kind<?> kind) throws Exception {
+    /**
+     * 首次扫描的各目录统计
+     */
+    public Map<String, Object> getScanStats() {
+        return new HashMap<>(scanStats);
+    }
+
+    /**
+     * 首次扫描时成批写入文件记录：每批一次 IN 查询已有记录，在一个事务中批量插入或更新，不计算内容指纹
+     * （推迟到解析阶段）。已有记录且大小或修改时间变化的文件仍逐个处理，以便按内容判断是否需要重新解析
+     */
+    private class ScanBatchWriter {
+        private final List<ScanEntry> pending = new ArrayList<>();
+        private final AtomicInteger inserted = new AtomicInteger();
+        private final AtomicInteger updated = new AtomicInteger();
+        private final AtomicInteger unchanged = new AtomicInteger();
+        private final AtomicInteger ignored = new AtomicInteger();
+        private final AtomicInteger fallback = new AtomicInteger();
+
+        // 遍历回调会被多个线程同时调用，谁攒满一批谁写入
+        void add(Path filePath, BasicFileAttributes attrs, int priorityTier, boolean ignoredByRule) {
+            List<ScanEntry> batch = null;
+            synchronized (pending) {
+                pending.add(new ScanEntry(filePath, attrs, priorityTier, ignoredByRule));
+                if (pending.size() >= SCAN_BATCH_SIZE) {
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+            }
+            if (batch != null) {
+                write(batch);
+            }
+        }
+
+        void flush() {
+            List<ScanEntry> batch;
+            synchronized (pending) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+
+        private void write(List<ScanEntry> batch) {
+            List<ScanEntry> individually = new ArrayList<>();
+            try {
+                transactionTemplate.executeWithoutResult(status -> individually.addAll(writeBatch(batch)));
+            } catch (Exception e) {
+                // 例如与同时进行的单文件处理冲突，整批退回逐个处理
+                logger.warn("Batch write of {} file records failed, processing individually: {}", batch.size(),
+                        e.getMessage());
+                individually.clear();
+                individually.addAll(batch);
+            }
+
+            for (ScanEntry entry : individually) {
+                fallback.incrementAndGet();
+                try {
+                    if (entry.ignored) {
+                        markFileAsIgnored(entry.path);
+                    } else {
+                        processFile(entry.path, StandardWatchEventKinds.ENTRY_CREATE, entry.priorityTier, entry.attrs);
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to process file: {}", entry.path, e);
+                }
+            }
+        }
+
+        /**
+         * @return 需要逐个处理的文件
+         */
+        private List<ScanEntry> writeBatch(List<ScanEntry> batch) {
+            List<String> paths = new ArrayList<>(batch.size());
+            for (ScanEntry entry : batch) {
+                paths.add(entry.path.toString());
+            }
+            Map<String, DocumentDataPO> existingDocs = new HashMap<>();
+            for (DocumentDataPO doc : documentDataRepository.findByFilePathIn(paths)) {
+                existingDocs.put(doc.getFilePath(), doc);
+            }
+
+            List<DocumentDataPO> toSave = new ArrayList<>();
+            List<ScanEntry> individually = new ArrayList<>();
+            for (ScanEntry entry : batch) {
+                DocumentDataPO existing = existingDocs.get(entry.path.toString());
+                if (entry.ignored) {
+                    DocumentDataPO doc = existing != null ? existing
+                            : createDocumentDataWithoutMd5(entry.path, entry.priorityTier, entry.attrs);
+                    if (!DocumentDataPO.PROCESSED_STATE_IGNORED.equals(doc.getProcessedState())) {
+                        doc.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
+                        toSave.add(doc);
+                    }
+                    ignored.incrementAndGet();
+                    continue;
+                }
+
+                DocumentDataPO current = createDocumentDataWithoutMd5(entry.path, entry.priorityTier, entry.attrs);
+                boolean shouldProcess = selector.select(current.getExtension()).shouldProcess(current.getExtension());
+                if (existing == null) {
+                    if (!shouldProcess) {
+                        current.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
+                    }
+                    toSave.add(current);
+                    inserted.incrementAndGet();
+                } else if (!shouldProcess) {
+                    if (!DocumentDataPO.PROCESSED_STATE_IGNORED.equals(existing.getProcessedState())) {
+                        existing.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
+                        toSave.add(existing);
+                        updated.incrementAndGet();
+                    }
+                } else if (fingerprintService.isUnchanged(existing, current)) {
+                    unchanged.incrementAndGet();
+                } else {
+                    individually.add(entry);
+                }
+            }
+            documentDataRepository.saveAll(toSave);
+            return individually;
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("inserted", inserted.get());
+            stats.put("updated", updated.get());
+            stats.put("unchanged", unchanged.get());
+            stats.put("ignored", ignored.get());
+            stats.put("processedIndividually", fallback.get());
+            return stats;
+        }
+    }
+
+    private static class ScanEntry {
+        private final Path path;
+        private final BasicFileAttributes attrs;
+        private final int priorityTier;
+        private final boolean ignored;
+
+        ScanEntry(Path path, BasicFileAttributes attrs, int priorityTier, boolean ignored) {
+            this.path = path;
+            this.attrs = attrs;
+            this.priorityTier = priorityTier;
+            this.ignored = ignored;
+        }
+    }
+
+    private int resolvePriorityTier(UserDirectoryIndexPO index) {
+        return index.getPriority() != null ? index.getPriority() : DocumentDataPO.PRIORITY_NORMAL;
+    }
+
+    public void processFile(Path filePath, WatchEvent.Kind<?> kind) throws Exception {
+        processFile(filePath, kind, DocumentDataPO.PRIORITY_NORMAL);
+    }
+
+    /**
+     * 处理单个文件
+     *
+     * @param filePath     文件路径
+     * @param kind         事件类型
+     * @param priorityTier 优先级档位，最终优先级会再叠加最近修改、小文件的加分
+     */
+    public void processFile(Path filePath, WatchEvent.Kind<?> kind, int priorityTier) throws Exception {
+        processFile(filePath, kind, priorityTier, null);
+    }
+
+    /**
+     * @param attrs 遍历时已读取的文件属性，为空时重新读取
+     */
+    public void processFile(Path filePath, WatchEvent.Kind<?> kind, int priorityTier,
+            BasicFileAttributes attrs) throws Exception {
+        Lock lock = lockPath(filePath);
+        try {
+            processFileLocked(filePath, kind, priorityTier, attrs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void processFileLocked(Path filePath, WatchEvent.Kind<?> kind, int priorityTier,
+            BasicFileAttributes attrs) throws Exception {
         logger.debug("Processing file: {}, event type: {}", filePath, kind);
 
         // Handle delete event
@@ -167,7 +465,8 @@ public class DirectoryProcessingService {
         }
 
         // Create basic document data (without MD5)
-        DocumentDataPO documentData = createDocumentDataWithoutMd5(filePath);
+        DocumentDataPO documentData = createDocumentDataWithoutMd5(filePath, priorityTier,
+                attrs != null ? attrs : Files.readAttributes(filePath, BasicFileAttributes.class));
         DocumentParserInterface parser = selector.select(documentData.getExtension());
         boolean shouldProcess = parser.shouldProcess(documentData.getExtension());
 
@@ -187,12 +486,17 @@ public class DirectoryProcessingService {
     }
 
     private void handleDeletedFile(Path filePath) {
-        Optional<DocumentDataPO> existingDoc = documentDataRepository.findByFilePath(filePath.toString());
-        if (existingDoc.isPresent()) {
-            DocumentDataPO doc = existingDoc.get();
-            doc.setProcessedState(DocumentDataPO.PROCESSED_STATE_DELETED);
-            documentDataRepository.save(doc);
-            logger.info("File marked as deleted: {}", filePath);
+        Lock lock = lockPath(filePath);
+        try {
+            Optional<DocumentDataPO> existingDoc = documentDataRepository.findByFilePath(filePath.toString());
+            if (existingDoc.isPresent()) {
+                DocumentDataPO doc = existingDoc.get();
+                doc.setProcessedState(DocumentDataPO.PROCESSED_STATE_DELETED);
+                documentDataRepository.save(doc);
+                logger.info("File marked as deleted: {}", filePath);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -204,12 +508,24 @@ public class DirectoryProcessingService {
             return;
         }
 
-        // Calculate MD5 only if processing is needed
-        String newMd5 = calculateMD5(filePath);
-        if (existing.getMd5() != null && existing.getMd5().equals(newMd5)) {
+        // 大小和修改时间都没变（如只改了权限）时不读取文件内容
+        if (fingerprintService.isUnchanged(existing, newDoc)) {
+            logger.debug("File size and modification time unchanged, skipping: {}", filePath);
+            return;
+        }
+
+        // Calculate fingerprint only if processing is needed
+        String recorded = existing.getMd5();
+        String newMd5 = fingerprintService.fingerprint(filePath);
+        boolean unchanged = recorded != null && (recorded.equals(newMd5)
+                || (!FileFingerprintService.isSameAlgorithm(recorded, newMd5)
+                        && fingerprintService.matches(filePath, recorded)));
+        if (unchanged) {
             logger.debug("File unchanged, skipping processing: {}", filePath);
-            existing.setUpdateDateTime(
-                    LocalDateTime.ofInstant(Files.getLastModifiedTime(filePath).toInstant(), ZoneId.systemDefault()));
+            // 旧算法的指纹顺便换成当前算法
+            existing.setMd5(newMd5);
+            existing.setUpdateDateTime(newDoc.getUpdateDateTime());
+            existing.setFileSize(newDoc.getFileSize());
             documentDataRepository.save(existing);
             return;
         }
@@ -235,36 +551,373 @@ public class DirectoryProcessingService {
             return;
         }
 
-        documentData.setMd5(calculateMD5(filePath));
+        documentData.setMd5(fingerprintService.fingerprint(filePath));
         documentData.setProcessedState(DocumentDataPO.PROCESSED_STATE_FILE_SAVED);
         documentDataRepository.save(documentData);
         logger.debug("New file saved: {}", filePath);
     }
 
-    public synchronized void handleFileChange(Path file, WatchEvent.Kind<?> kind) {
+    /**
+     * 文件被移动或改名：只更新已有记录和索引中的路径，不重新解析
+     *
+     * @param existing 原路径上的文档记录，调用方已确认内容一致
+     * @param newPath  新路径
+     */
+    public void handleMovedFile(DocumentDataPO existing, Path newPath) throws IOException {
+        String oldPath = existing.getFilePath();
+        // 同时锁住新旧两个路径，按条带顺序加锁避免死锁
+        List<Lock> locks = new ArrayList<>();
+        for (Lock lock : pathLocks.bulkGet(Arrays.asList(lockKey(Paths.get(oldPath)), lockKey(newPath)))) {
+            lock.lock();
+            locks.add(lock);
+        }
+        try {
+            existing.setFilePath(newPath.toString());
+            existing.setFileName(newPath.getFileName().toString());
+            existing.setExtension(getFileExtension(newPath.toString()));
+            existing.setUpdateDateTime(
+                    LocalDateTime.ofInstant(Files.getLastModifiedTime(newPath).toInstant(), ZoneId.systemDefault()));
+            documentDataRepository.save(existing);
+
+            // 已建索引的段落同步更新 file_path，路径前缀过滤才能找到新位置
+            if (DocumentDataPO.PROCESSED_STATE_FILE_INDEXED.equals(existing.getProcessedState())) {
+                List<MarkdownParagraphPO> paragraphs = markdownParagraphRepository
+                        .findByDocumentDataId(existing.getId());
+                documentIndexService.buildDocumentIndex(existing.getFilePath(), paragraphs, existing.getCreateTime());
+                // 事实索引中也存有文件路径，按新路径重新写入这些段落的事实
+                List<Long> paragraphIds = paragraphs.stream().map(MarkdownParagraphPO::getId).toList();
+                if (!paragraphIds.isEmpty()) {
+                    factIndex.update(refineryFactRepository.findByParagraphIdIn(paragraphIds),
+                            Collections.emptyList());
+                }
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+        logger.info("File moved: {} -> {}", oldPath, newPath);
+    }
+
+    /**
+     * 按文件大小配对删除和新增的文件，修改时间相同的候选优先，最终以内容hash确认。配对成功的文件从两个集合中移除
+     *
+     * @return 识别出的移动文件数
+     */
+    public int detectMovedFiles(Set<String> newFiles, Map<String, DocumentDataPO> deletedDocs) {
+        if (newFiles.isEmpty() || deletedDocs.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, List<DocumentDataPO>> candidatesBySize = new HashMap<>();
+        for (DocumentDataPO doc : deletedDocs.values()) {
+            if (doc.getFileSize() != null && doc.getMd5() != null) {
+                candidatesBySize.computeIfAbsent(doc.getFileSize(), k -> new ArrayList<>()).add(doc);
+            }
+        }
+        if (candidatesBySize.isEmpty()) {
+            return 0;
+        }
+
+        int movedCount = 0;
+        Iterator<String> it = newFiles.iterator();
+        while (it.hasNext()) {
+            Path newPath = Paths.get(it.next());
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(newPath, BasicFileAttributes.class);
+                List<DocumentDataPO> candidates = candidatesBySize.get(attrs.size());
+                if (candidates == null || candidates.isEmpty()) {
+                    continue;
+                }
+                DocumentDataPO matched = findMovedSource(newPath, attrs, candidates);
+                if (matched == null) {
+                    continue;
+                }
+                String oldPath = matched.getFilePath();
+                handleMovedFile(matched, newPath);
+                candidates.remove(matched);
+                deletedDocs.remove(oldPath);
+                it.remove();
+                movedCount++;
+            } catch (Exception e) {
+                logger.error("Failed to check moved file: {}", newPath, e);
+            }
+        }
+        if (movedCount > 0) {
+            logger.info("Detected {} moved or renamed files", movedCount);
+        }
+        return movedCount;
+    }
+
+    private DocumentDataPO findMovedSource(Path newPath, BasicFileAttributes attrs, List<DocumentDataPO> candidates)
+            throws Exception {
+        String extension = getFileExtension(newPath.getFileName().toString());
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        // 扩展名变化可能换用不同的解析器，不当作移动
+        List<DocumentDataPO> sameExtension = new ArrayList<>();
+        for (DocumentDataPO doc : candidates) {
+            if (extension.equalsIgnoreCase(doc.getExtension() == null ? "" : doc.getExtension())) {
+                sameExtension.add(doc);
+            }
+        }
+        if (sameExtension.isEmpty()) {
+            return null;
+        }
+        sameExtension.sort(Comparator.comparing(doc -> toEpochMilli(doc) == lastModified ? 0 : 1));
+
+        String hash = fingerprintService.fingerprint(newPath);
+        for (DocumentDataPO doc : sameExtension) {
+            // 旧算法生成的指纹按其算法重新计算后比较
+            if (FileFingerprintService.isSameAlgorithm(hash, doc.getMd5()) ? hash.equals(doc.getMd5())
+                    : fingerprintService.matches(newPath, doc.getMd5())) {
+                return doc;
+            }
+        }
+        return null;
+    }
+
+    public void handleFileChange(Path file, WatchEvent.Kind<?> kind) {
+        handleFileChange(file, kind, DocumentDataPO.PRIORITY_NORMAL);
+    }
+
+    public void handleFileChange(Path file, WatchEvent.Kind<?> kind, int priorityTier) {
         try {
             logger.debug("Handling file change: {} - {}", kind.name(), file);
             if (Files.isRegularFile(file) || kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                processFile(file, kind);
+                processFile(file, kind, priorityTier);
             }
         } catch (Exception e) {
             logger.error("Failed to handle file change: " + file, e);
         }
     }
 
+    /**
+     * 判断监控目录下的路径是否命中忽略规则
+     */
+    public boolean isIgnored(Path rootPath, Path path) {
+        return getIgnoredPathMatcher().matches(rootPath.relativize(path));
+    }
+
+    /**
+     * 并行遍历监控目录，跳过整体被忽略的子目录
+     *
+     * @param consumer 文件回调，会被多个线程同时调用
+     * @return 访问到的文件数量
+     */
+    public long walkDirectory(Path rootPath, BiConsumer<Path, BasicFileAttributes> consumer) {
+        PathMatcherUtil matcher = getIgnoredPathMatcher();
+        return treeWalker.walk(rootPath, new ParallelTreeWalker.Visitor() {
+            @Override
+            public boolean isDirectoryExcluded(Path dir) {
+                return !dir.equals(rootPath) && matcher.isDirectoryExcluded(rootPath.relativize(dir));
+            }
+
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                consumer.accept(file, attrs);
+            }
+        });
+    }
+
+    /**
+     * 判断监控目录下的子目录是否整体被忽略，遍历时可以跳过整个子树
+     */
+    public boolean isDirectoryIgnored(Path rootPath, Path dir) {
+        return !dir.equals(rootPath) && getIgnoredPathMatcher().isDirectoryExcluded(rootPath.relativize(dir));
+    }
+
+    /**
+     * 重新扫描监控目录下的一个子树，只处理修改时间比记录新的文件，记录中存在但磁盘上已消失的文件标记删除。
+     * 用于文件监听丢事件（OVERFLOW）、新建或删除目录等无法逐个文件处理的情况
+     *
+     * @param rootPath     所属监控目录
+     * @param subtree      需要重新扫描的子目录，已被删除时其下所有记录标记删除
+     * @param priorityTier 优先级档位
+     */
+    public void rescanSubtree(Path rootPath, Path subtree, int priorityTier) {
+        handleWatchBatch(Collections.emptyList(), Map.of(subtree, rootPath), Collections.emptyList(), priorityTier);
+    }
+
+    /**
+     * 处理文件监听攒下的一批变化。同一批中磁盘上消失的记录和新出现的文件按内容配对，作为移动/改名处理，不再重新解析；
+     * 目录改名时旧目录的删除和新目录的创建在同一批中，整个子树都按移动处理
+     *
+     * @param files        静默时间已到的文件
+     * @param subtrees     需要重新扫描的子树 -> 所属监控目录
+     * @param candidates   还在静默期的文件，只用于和本批配对，未配对的不处理
+     * @param priorityTier 优先级档位
+     * @return 作为移动处理掉的候选文件
+     */
+    public Set<Path> handleWatchBatch(Collection<Path> files, Map<Path, Path> subtrees, Collection<Path> candidates,
+            int priorityTier) {
+        Set<String> newFiles = new LinkedHashSet<>();
+        Map<String, DocumentDataPO> deletedDocs = new LinkedHashMap<>();
+        for (Path file : files) {
+            if (classifyWatchedFile(file, newFiles, deletedDocs)) {
+                handleFileChange(file, StandardWatchEventKinds.ENTRY_MODIFY, priorityTier);
+            }
+        }
+        for (Map.Entry<Path, Path> entry : subtrees.entrySet()) {
+            collectSubtreeChanges(entry.getValue(), entry.getKey(), priorityTier, newFiles, deletedDocs);
+        }
+
+        Set<Path> movedCandidates = new HashSet<>();
+        if (!newFiles.isEmpty() || !deletedDocs.isEmpty()) {
+            Set<String> candidateNew = new LinkedHashSet<>();
+            Map<String, DocumentDataPO> candidateDeleted = new LinkedHashMap<>();
+            for (Path file : candidates) {
+                classifyWatchedFile(file, candidateNew, candidateDeleted);
+            }
+            Set<String> allNew = new LinkedHashSet<>(newFiles);
+            allNew.addAll(candidateNew);
+            Map<String, DocumentDataPO> allDeleted = new LinkedHashMap<>(deletedDocs);
+            allDeleted.putAll(candidateDeleted);
+            detectMovedFiles(allNew, allDeleted);
+
+            // 配对成功的从两边集合中移除，本批剩下的按新增和删除处理
+            newFiles.retainAll(allNew);
+            deletedDocs.keySet().retainAll(allDeleted.keySet());
+            candidateNew.removeAll(allNew);
+            candidateDeleted.keySet().removeAll(allDeleted.keySet());
+            candidateNew.forEach(filePath -> movedCandidates.add(Paths.get(filePath)));
+            candidateDeleted.keySet().forEach(filePath -> movedCandidates.add(Paths.get(filePath)));
+        }
+
+        for (String filePath : newFiles) {
+            handleFileChange(Paths.get(filePath), StandardWatchEventKinds.ENTRY_CREATE, priorityTier);
+        }
+        for (String filePath : deletedDocs.keySet()) {
+            handleDeletedFile(Paths.get(filePath));
+        }
+        return movedCandidates;
+    }
+
+    /**
+     * 没有记录的新文件和已消失的记录放入对应集合，留给移动配对
+     *
+     * @return 文件已有记录且仍存在，需要按修改处理
+     */
+    private boolean classifyWatchedFile(Path file, Set<String> newFiles, Map<String, DocumentDataPO> deletedDocs) {
+        Optional<DocumentDataPO> existing = documentDataRepository.findByFilePath(file.toString());
+        if (Files.isRegularFile(file)) {
+            if (existing.isEmpty()) {
+                newFiles.add(file.toString());
+                return false;
+            }
+            return true;
+        }
+        if (!Files.exists(file) && existing.isPresent()
+                && !DocumentDataPO.PROCESSED_STATE_DELETED.equals(existing.get().getProcessedState())) {
+            deletedDocs.put(file.toString(), existing.get());
+        }
+        return false;
+    }
+
+    /**
+     * 扫描子树：修改过的文件直接处理，没有记录的新文件和已消失的记录留给调用方做移动配对
+     */
+    private void collectSubtreeChanges(Path rootPath, Path subtree, int priorityTier, Set<String> newFiles,
+            Map<String, DocumentDataPO> deletedDocs) {
+        logger.info("Rescanning subtree: {}", subtree);
+        String prefix = subtree.toString().endsWith(File.separator) ? subtree.toString()
+                : subtree.toString() + File.separator;
+        Map<String, DocumentDataPO> existingDocs = new HashMap<>();
+        Set<String> deletedPaths = new HashSet<>();
+        for (DocumentDataPO doc : documentDataRepository.findByFilePathStartingWith(prefix)) {
+            if (DocumentDataPO.PROCESSED_STATE_DELETED.equals(doc.getProcessedState())) {
+                deletedPaths.add(doc.getFilePath());
+            } else {
+                existingDocs.put(doc.getFilePath(), doc);
+            }
+        }
+
+        if (Files.isDirectory(subtree)) {
+            try (Stream<Path> paths = Files.walk(subtree)) {
+                paths.filter(Files::isRegularFile).forEach(filePath -> {
+                    DocumentDataPO existing = existingDocs.remove(filePath.toString());
+                    try {
+                        if (isIgnored(rootPath, filePath)) {
+                            if (existing == null
+                                    || !DocumentDataPO.PROCESSED_STATE_IGNORED.equals(existing.getProcessedState())) {
+                                markFileAsIgnored(filePath);
+                            }
+                            return;
+                        }
+                        if (existing == null && !deletedPaths.contains(filePath.toString())) {
+                            newFiles.add(filePath.toString());
+                            return;
+                        }
+                        if (existing != null && !isModifiedSince(existing, filePath)) {
+                            return;
+                        }
+                        processFile(filePath, StandardWatchEventKinds.ENTRY_MODIFY, priorityTier);
+                    } catch (Exception e) {
+                        logger.error("Failed to rescan file: {}", filePath, e);
+                    }
+                });
+            } catch (IOException | UncheckedIOException e) {
+                logger.error("Failed to rescan subtree: {}", subtree, e);
+                return;
+            }
+        }
+
+        // 剩下的记录在磁盘上已不存在
+        deletedDocs.putAll(existingDocs);
+    }
+
+    private boolean isModifiedSince(DocumentDataPO doc, Path filePath) throws IOException {
+        if (doc.getUpdateDateTime() == null) {
+            return true;
+        }
+        return Files.getLastModifiedTime(filePath).toMillis() > toEpochMilli(doc);
+    }
+
+    private long toEpochMilli(DocumentDataPO doc) {
+        if (doc.getUpdateDateTime() == null) {
+            return -1;
+        }
+        return doc.getUpdateDateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     private DocumentDataPO createDocumentDataWithoutMd5(Path filePath) throws IOException {
+        return createDocumentDataWithoutMd5(filePath, DocumentDataPO.PRIORITY_NORMAL);
+    }
+
+    private DocumentDataPO createDocumentDataWithoutMd5(Path filePath, int priorityTier) throws IOException {
+        return createDocumentDataWithoutMd5(filePath, priorityTier,
+                Files.readAttributes(filePath, BasicFileAttributes.class));
+    }
+
+    private DocumentDataPO createDocumentDataWithoutMd5(Path filePath, int priorityTier, BasicFileAttributes attrs) {
         DocumentDataPO documentData = new DocumentDataPO();
         documentData.setFileName(filePath.getFileName().toString());
         documentData.setFilePath(filePath.toString());
         documentData.setFileRequestType(DocumentDataPO.FILE_REQUEST_TYPE_LOCAL);
         documentData.setExtension(getFileExtension(filePath.toString()));
         documentData.setUpdateDateTime(
-                LocalDateTime.ofInstant(Files.getLastModifiedTime(filePath).toInstant(), ZoneId.systemDefault()));
+                LocalDateTime.ofInstant(attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault()));
+        documentData.setFileSize(attrs.size());
+        documentData.setPriority(calculatePriority(attrs, priorityTier));
         documentData.setProcessedState(DocumentDataPO.PROCESSED_STATE_FILE_SAVED);
 
         return documentData;
     }
 
+    /**
+     * 在档位基础上，最近修改的文件和小文件分别加分，保证同一档位内先处理用户最可能马上搜索的文件
+     */
+    private int calculatePriority(BasicFileAttributes attrs, int priorityTier) {
+        int priority = priorityTier;
+        if (System.currentTimeMillis() - attrs.lastModifiedTime().toMillis() <= RECENTLY_MODIFIED_WINDOW_MS) {
+            priority += DocumentDataPO.PRIORITY_BOOST_RECENTLY_MODIFIED;
+        }
+        if (attrs.size() <= SMALL_FILE_SIZE) {
+            priority += DocumentDataPO.PRIORITY_BOOST_SMALL_FILE;
+        }
+        return priority;
+    }
+
     private String getFileExtension(String fileName) {
         int lastIndexOf = fileName.lastIndexOf(".");
         if (lastIndexOf == -1) {
@@ -273,38 +926,7 @@ public class DirectoryProcessingService {
         return fileName.substring(lastIndexOf + 1);
     }
 
-    private static final long MAX_DIRECT_READ_SIZE = 10 * 1024 * 1024; // 10MB
-
-    private String calculateMD5(Path filePath) throws IOException, NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        long fileSize = Files.size(filePath);
-
-        if (fileSize < MAX_DIRECT_READ_SIZE) {
-            // 小文件直接读取全部内容
-            byte[] content = Files.readAllBytes(filePath);
-            return bytesToHex(md.digest(content));
-        } else {
-            // 大文件分块读取
-            try (InputStream is = Files.newInputStream(filePath)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    md.update(buffer, 0, bytesRead);
-                }
-            }
-            return bytesToHex(md.digest());
-        }
-    }
-
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
-        }
-        return sb.toString();
-    }
-
-    private synchronized void processDeletedDirectory(UserDirectoryIndexPO task) {
+    private void processDeletedDirectory(UserDirectoryIndexPO task) {
         try {
             logger.debug("Processing deleted directory: {}", task.getDirectoryPath());
 
@@ -313,9 +935,14 @@ public class DirectoryProcessingService {
 
             // Mark all documents as deleted
             for (DocumentDataPO doc : docs) {
-                doc.setProcessedState(DocumentDataPO.PROCESSED_STATE_DELETED);
-                documentDataRepository.save(doc);
-                logger.debug("Document marked as deleted: {}", doc.getFilePath());
+                Lock lock = lockPath(Paths.get(doc.getFilePath()));
+                try {
+                    doc.setProcessedState(DocumentDataPO.PROCESSED_STATE_DELETED);
+                    documentDataRepository.save(doc);
+                    logger.debug("Document marked as deleted: {}", doc.getFilePath());
+                } finally {
+                    lock.unlock();
+                }
             }
 
             // Directly delete the directory record from the database
@@ -328,20 +955,25 @@ public class DirectoryProcessingService {
         }
     }
 
-    public synchronized void reprocessFileForIgnoreRules(Path filePath) throws Exception {
+    public void reprocessFileForIgnoreRules(Path filePath) throws Exception {
         DocumentDataPO documentData = createDocumentDataWithoutMd5(filePath);
         DocumentParserInterface parser = selector.select(documentData.getExtension());
         boolean shouldProcess = parser.shouldProcess(documentData.getExtension());
 
-        Optional<DocumentDataPO> existingDoc = documentDataRepository.findByFilePath(filePath.toString());
-        if (existingDoc.isPresent()) {
-            DocumentDataPO existing = existingDoc.get();
-            if (!shouldProcess) {
-                // If the file should now be ignored
-                existing.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
-                documentDataRepository.save(existing);
-                logger.info("File status updated to ignored: {}", filePath);
+        Lock lock = lockPath(filePath);
+        try {
+            Optional<DocumentDataPO> existingDoc = documentDataRepository.findByFilePath(filePath.toString());
+            if (existingDoc.isPresent()) {
+                DocumentDataPO existing = existingDoc.get();
+                if (!shouldProcess) {
+                    // If the file should now be ignored
+                    existing.setProcessedState(DocumentDataPO.PROCESSED_STATE_IGNORED);
+                    documentDataRepository.save(existing);
+                    logger.info("File status updated to ignored: {}", filePath);
+                }
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -411,4 +1043,10 @@ public class DirectoryProcessingService {
             throw new RuntimeException("Failed to trigger re-evaluation of ignore rules", e);
         }
     }
+
+    @PreDestroy
+    public void shutdown() {
+        rootExecutor.shutdownNow();
+        treeWalker.close();
+    }
 }
@@ -3,26 +3,37 @@ package com.wibot.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import com.wibot.persistence.DocumentDataRepository;
 import com.wibot.persistence.UserDirectoryIndexRepository;
 import com.wibot.persistence.entity.DocumentDataPO;
 import com.wibot.persistence.entity.UserDirectoryIndexPO;
+import com.wibot.utils.fs.DirectoryCatalog;
+import com.wibot.utils.fs.SortedTreeIterator;
 
+import org.springframework.data.domain.PageRequest;
+
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Service
 public class DirectorySyncService {
     private static final Logger logger = LoggerFactory.getLogger(DirectorySyncService.class);
+    public static final String CONFIG_DIRECTORY_CATALOG_ENABLED = "directory.catalog.enabled";
     private static final int BATCH_SIZE = 5; // Number of files processed per batch
     private static final int PROCESS_DELAY = 1000; // Delay time after each batch (milliseconds)
+    // 已实时监听的目录只作为兜底，间隔较长地做一次全量同步
+    private static final long WATCHED_FULL_SYNC_INTERVAL_MS = 6 * 60 * 60 * 1000L;
+    private static final int CURSOR_PAGE_SIZE = 1000; // 每次从数据库读取的记录数
+    private static final int MOVE_DETECTION_WINDOW = 10000; // 暂存用于移动检测的新增/删除文件上限
 
     @Autowired
     private UserDirectoryIndexRepository indexRepository;
@@ -33,6 +44,20 @@ public class DirectorySyncService {
     @Autowired
     private DirectoryProcessingService directoryProcessingService;
 
+    @Autowired
+    private DirectoryWatchService directoryWatchService;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    @Value("${app.cache.path}")
+    private String cachePath;
+
+    // 目录 -> 上次全量同步时间
+    private final Map<String, Long> lastFullSyncTimes = new HashMap<>();
+    // 目录 -> 本进程内最近一次写出目录清单的遍历开始时间
+    private final Map<String, Long> catalogWalkTimes = new HashMap<>();
+
     private final AtomicInteger processingCount = new AtomicInteger(0);
 
     @Scheduled(fixedRate = 300000) // Execute every 5 minutes
@@ -41,11 +66,18 @@ public class DirectorySyncService {
         List<UserDirectoryIndexPO> completedTasks = indexRepository
                 .findByIndexStatus(UserDirectoryIndexPO.STATUS_COMPLETED);
 
+        long now = System.currentTimeMillis();
         for (UserDirectoryIndexPO task : completedTasks) {
+            String directoryPath = task.getDirectoryPath();
+            if (directoryWatchService.isWatching(directoryPath)
+                    && now - lastFullSyncTimes.getOrDefault(directoryPath, 0L) < WATCHED_FULL_SYNC_INTERVAL_MS) {
+                logger.debug("Directory is watched, skipping full synchronization: {}", directoryPath);
+                continue;
+            }
             try {
                 syncDirectory(task);
             } catch (Exception e) {
-                logger.error("Failed to synchronize directory: " + task.getDirectoryPath(), e);
+                logger.error("Failed to synchronize directory: " + directoryPath, e);
             }
         }
     }
@@ -88,98 +120,243 @@ public class DirectorySyncService {
         return result;
     }
 
+    /**
+     * 把数据库中按路径排序的记录和按同样顺序遍历的文件做归并比较，边比较边产出新增、删除、更新的文件，
+     * 内存占用与目录下的文件总数无关
+     */
     private synchronized void syncDirectory(UserDirectoryIndexPO task) throws IOException {
         String directoryPath = task.getDirectoryPath();
         Path dirPath = Paths.get(directoryPath);
 
-        // Modify the logic to get existing file records, separating normal files and
-        // ignored files
-        List<DocumentDataPO> existingDocs = documentDataRepository.findByFilePathStartingWith(directoryPath);
-
-        // Process normal files and ignored files separately
-        Map<String, DocumentDataPO> normalDocsMap = existingDocs.stream()
-                .filter(doc -> !DocumentDataPO.PROCESSED_STATE_DELETED.equals(doc.getProcessedState())
-                        && !DocumentDataPO.PROCESSED_STATE_IGNORED.equals(doc.getProcessedState()))
-                .collect(Collectors.toMap(DocumentDataPO::getFilePath, doc -> doc));
-
-        Map<String, DocumentDataPO> ignoredDocsMap = existingDocs.stream()
-                .filter(doc -> DocumentDataPO.PROCESSED_STATE_IGNORED.equals(doc.getProcessedState()))
-                .collect(Collectors.toMap(DocumentDataPO::getFilePath, doc -> doc));
+        // 添加目录存在性检查
+        if (!Files.exists(dirPath)) {
+            logger.warn("Directory does not exist: {}. Skipping synchronization.", directoryPath);
+            // 可选：更新任务状态或从数据库中移除
+            task.setIndexStatus(UserDirectoryIndexPO.STATUS_DELETED);
+            indexRepository.save(task);
+            return;
+        }
 
+        if (!systemConfigService.getBooleanValue(CONFIG_DIRECTORY_CATALOG_ENABLED, true)) {
+            syncDirectory(task, dirPath, null, null, false);
+            return;
+        }
 
-                    // 添加目录存在性检查
-    if (!Files.exists(dirPath)) {
-        logger.warn("Directory does not exist: {}. Skipping synchronization.", directoryPath);
-        // 可选：更新任务状态或从数据库中移除
-        task.setIndexStatus(UserDirectoryIndexPO.STATUS_DELETED);
-        indexRepository.save(task);
-        return;
-    }
-        // Get files in the current file system
-        Set<String> currentFiles = new HashSet<>();
-        try (Stream<Path> paths = Files.walk(dirPath)) {
-            paths.filter(Files::isRegularFile).forEach(path -> currentFiles.add(path.toString()));
+        // 目录清单记录上次遍历时每个目录的修改时间和子项，未变化的目录不必重新列出
+        Path catalogFile = getCatalogFile(directoryPath);
+        long walkStart = System.currentTimeMillis();
+        boolean trustCatalogFiles = isCatalogTrusted(directoryPath);
+        DirectoryCatalog.Writer writer;
+        try {
+            writer = new DirectoryCatalog.Writer(catalogFile);
+        } catch (IOException e) {
+            logger.warn("Cannot write directory catalog {}, synchronizing without it: {}", catalogFile,
+                    e.getMessage());
+            syncDirectory(task, dirPath, null, null, false);
+            return;
         }
+        DirectoryCatalog catalog = DirectoryCatalog.open(catalogFile);
+        try (writer) {
+            if (syncDirectory(task, dirPath, catalog, writer, trustCatalogFiles)) {
+                if (catalog != null) {
+                    // 替换文件前先解除映射
+                    catalog.close();
+                    catalog = null;
+                }
+                writer.commit();
+                catalogWalkTimes.put(directoryPath, walkStart);
+            }
+        } finally {
+            if (catalog != null) {
+                catalog.close();
+            }
+        }
+    }
 
-        // Analyze changes in normal files
-        Set<String> newFiles = findNewFiles(currentFiles, normalDocsMap.keySet(), ignoredDocsMap.keySet());
-        Set<String> deletedFiles = findDeletedFiles(currentFiles, normalDocsMap.keySet());
-        Set<String> updatedFiles = findUpdatedFiles(currentFiles, normalDocsMap);
+    /**
+     * 只有在上次写出清单之前就已开始实时监听时，清单中记录的文件属性才可信：之后的原地修改都会通过监听事件处理。
+     * 进程重启后第一次同步总是逐个读取文件属性
+     */
+    private boolean isCatalogTrusted(String directoryPath) {
+        Long watchingSince = directoryWatchService.getWatchingSince(directoryPath);
+        Long lastWalk = catalogWalkTimes.get(directoryPath);
+        return watchingSince != null && lastWalk != null && watchingSince <= lastWalk;
+    }
 
-        // Analyze changes in ignored files (check for deletion)
-        Set<String> deletedIgnoredFiles = findDeletedFiles(currentFiles, ignoredDocsMap.keySet());
-        // Merge all files to be deleted
-        deletedFiles.addAll(deletedIgnoredFiles);
+    private Path getCatalogFile(String directoryPath) {
+        String name = UUID.nameUUIDFromBytes(directoryPath.getBytes(StandardCharsets.UTF_8)).toString();
+        return Paths.get(cachePath, "catalog", name + ".cat");
+    }
 
-        // Process file changes
-        processBatch(newFiles, StandardWatchEventKinds.ENTRY_CREATE, "new");
-        processBatch(deletedFiles, StandardWatchEventKinds.ENTRY_DELETE, "delete");
-        processBatch(updatedFiles, StandardWatchEventKinds.ENTRY_MODIFY, "update");
+    /**
+     * @return 新的目录清单是否完整，可以替换旧清单
+     */
+    private boolean syncDirectory(UserDirectoryIndexPO task, Path dirPath, DirectoryCatalog catalog,
+            DirectoryCatalog.Writer catalogWriter, boolean trustCatalogFiles) {
+        String directoryPath = task.getDirectoryPath();
+        SortedTreeIterator files = new SortedTreeIterator(dirPath,
+                dir -> directoryProcessingService.isDirectoryIgnored(dirPath, dir), catalog, catalogWriter,
+                trustCatalogFiles);
+        DocumentCursor docs = new DocumentCursor(toDirectoryPrefix(directoryPath));
+        SyncChanges changes = new SyncChanges();
+
+        SortedTreeIterator.Entry file = files.hasNext() ? files.next() : null;
+        DocumentDataPO doc = docs.next();
+        while (file != null || doc != null) {
+            int cmp = file == null ? 1 : doc == null ? -1 : file.getPathString().compareTo(doc.getFilePath());
+            if (cmp < 0) {
+                // 磁盘上有，记录中没有
+                changes.addNew(file.getPathString());
+                file = files.hasNext() ? files.next() : null;
+            } else if (cmp > 0) {
+                // 记录中有，磁盘上已没有；无法访问的目录下的记录不能当作删除
+                if (!DocumentDataPO.PROCESSED_STATE_DELETED.equals(doc.getProcessedState())
+                        && !isUnderFailedPath(doc.getFilePath(), files.getFailedPaths())) {
+                    changes.addDeleted(doc);
+                }
+                doc = docs.next();
+            } else {
+                if (DocumentDataPO.PROCESSED_STATE_DELETED.equals(doc.getProcessedState())) {
+                    changes.addNew(file.getPathString());
+                } else if (!DocumentDataPO.PROCESSED_STATE_IGNORED.equals(doc.getProcessedState())
+                        && isModified(doc, file.getAttributes())) {
+                    changes.addUpdated(file.getPathString());
+                }
+                file = files.hasNext() ? files.next() : null;
+                doc = docs.next();
+            }
+        }
+        changes.flush();
+        logger.info("Synchronized {}: {} new, {} deleted, {} updated, {} moved; {} directories listed, {} unchanged",
+                directoryPath, changes.newCount, changes.deletedCount, changes.updatedCount, changes.movedCount,
+                files.getListedDirectories(), files.getReusedDirectories());
 
         indexRepository.save(task);
+        lastFullSyncTimes.put(directoryPath, System.currentTimeMillis());
+        return files.isCatalogComplete();
+    }
+
+    private String toDirectoryPrefix(String path) {
+        return path.endsWith(File.separator) ? path : path + File.separator;
     }
 
-    private Set<String> findNewFiles(Set<String> currentFiles, Set<String> existingFiles, Set<String> ignoredFiles) {
-        return currentFiles.stream()
-                .filter(path -> !existingFiles.contains(path) && !ignoredFiles.contains(path))
-                .collect(Collectors.toSet());
+    private boolean isUnderFailedPath(String filePath, List<Path> failedPaths) {
+        for (Path failed : failedPaths) {
+            String failedPath = failed.toString();
+            if (filePath.equals(failedPath) || filePath.startsWith(toDirectoryPrefix(failedPath))) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private Set<String> findDeletedFiles(Set<String> currentFiles, Set<String> existingFiles) {
-        return existingFiles.stream().filter(path -> !currentFiles.contains(path)).collect(Collectors.toSet());
+    private boolean isModified(DocumentDataPO doc, BasicFileAttributes attrs) {
+        if (doc.getUpdateDateTime() == null) {
+            return true;
+        }
+        boolean modified = attrs.lastModifiedTime().toMillis() > toEpochMilli(doc);
+        if (modified) {
+            logger.debug("{} modified: lastModified {} , recorded {}", doc.getFilePath(),
+                    attrs.lastModifiedTime().toMillis(), toEpochMilli(doc));
+        }
+        return modified;
     }
 
-    private Set<String> findUpdatedFiles(Set<String> currentFiles, Map<String, DocumentDataPO> existingDocsMap) {
-        return currentFiles.stream().filter(path -> {
-            try {
-                DocumentDataPO existingDoc = existingDocsMap.get(path);
-                if (existingDoc == null)
-                    return false;
-
-                Path filePath = Paths.get(path);
-                long lastModified = Files.getLastModifiedTime(filePath).toMillis();
-                boolean modified = lastModified > existingDoc.getUpdateDateTime().atZone(ZoneId.systemDefault())
-                        .toInstant()
-                        .toEpochMilli();
-                if (modified) {
-                    long epoch = existingDoc.getUpdateDateTime().atZone(ZoneId.systemDefault()).toInstant()
-                            .toEpochMilli();
-                    String modifiedDateTimeString = new Date(lastModified).toString();
-                    String existingDateTimeString = new Date(epoch).toString();
-                    logger.info(path + " modified: " + modified + " lastModified: " + "date time :"
-                            + modifiedDateTimeString + " . " + lastModified
-                            + " existingDoc: "
-                            + epoch + " date time : " + existingDateTimeString);
+    /**
+     * 按路径升序逐条读取目录下的记录，以上一页最后一条路径作为下一页的起点。H2 默认按 String.compareTo
+     * 比较字符串，与 SortedTreeIterator 的顺序一致
+     */
+    private class DocumentCursor {
+        private final String upperBound;
+        private String after;
+        private Iterator<DocumentDataPO> page = Collections.emptyIterator();
+        private boolean exhausted = false;
+
+        DocumentCursor(String directoryPrefix) {
+            // 目录前缀以分隔符结尾，把最后一个字符加一即得到该目录下所有路径的上界
+            int last = directoryPrefix.length() - 1;
+            this.upperBound = directoryPrefix.substring(0, last) + (char) (directoryPrefix.charAt(last) + 1);
+            this.after = directoryPrefix;
+        }
+
+        DocumentDataPO next() {
+            if (!page.hasNext() && !exhausted) {
+                List<DocumentDataPO> docs = documentDataRepository.findPathRangeAfter(after, upperBound,
+                        PageRequest.of(0, CURSOR_PAGE_SIZE));
+                exhausted = docs.size() < CURSOR_PAGE_SIZE;
+                if (!docs.isEmpty()) {
+                    after = docs.get(docs.size() - 1).getFilePath();
                 }
-                return modified;
-            } catch (IOException e) {
-                logger.error("Failed to check file update: " + path, e);
-                return false;
+                page = docs.iterator();
+            }
+            return page.hasNext() ? page.next() : null;
+        }
+    }
+
+    /**
+     * 暂存同步中产出的变化。新增和删除先留在有上限的窗口里用于移动检测，窗口满或同步结束时统一处理
+     */
+    private class SyncChanges {
+        private final Set<String> newFiles = new LinkedHashSet<>();
+        private final Map<String, DocumentDataPO> deletedDocs = new LinkedHashMap<>();
+        private final Set<String> updatedFiles = new LinkedHashSet<>();
+        private int newCount;
+        private int deletedCount;
+        private int updatedCount;
+        private int movedCount;
+
+        void addNew(String path) {
+            newFiles.add(path);
+            if (newFiles.size() >= MOVE_DETECTION_WINDOW) {
+                flushNewAndDeleted();
+            }
+        }
+
+        void addDeleted(DocumentDataPO doc) {
+            deletedDocs.put(doc.getFilePath(), doc);
+            if (deletedDocs.size() >= MOVE_DETECTION_WINDOW) {
+                flushNewAndDeleted();
+            }
+        }
+
+        void addUpdated(String path) {
+            updatedFiles.add(path);
+            if (updatedFiles.size() >= MOVE_DETECTION_WINDOW) {
+                flushUpdated();
             }
-        }).collect(Collectors.toSet());
+        }
+
+        void flush() {
+            flushNewAndDeleted();
+            flushUpdated();
+        }
+
+        private void flushNewAndDeleted() {
+            // 同一轮中消失的旧文件和新出现的文件按内容配对，作为移动/改名处理，避免重新解析
+            movedCount += directoryProcessingService.detectMovedFiles(newFiles, deletedDocs);
+            newCount += newFiles.size();
+            deletedCount += deletedDocs.size();
+            processBatch(newFiles, StandardWatchEventKinds.ENTRY_CREATE, "new");
+            processBatch(deletedDocs.keySet(), StandardWatchEventKinds.ENTRY_DELETE, "delete");
+            newFiles.clear();
+            deletedDocs.clear();
+        }
+
+        private void flushUpdated() {
+            updatedCount += updatedFiles.size();
+            processBatch(updatedFiles, StandardWatchEventKinds.ENTRY_MODIFY, "update");
+            updatedFiles.clear();
+        }
+    }
+
+    private long toEpochMilli(DocumentDataPO doc) {
+        if (doc.getUpdateDateTime() == null) {
+            return -1;
+        }
+        return doc.getUpdateDateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 
-    private void processBatch(Set<String> files, WatchEvent.Kind<?> eventKind, String operationType) {
+    private void processBatch(Collection<String> files, WatchEvent.Kind<?> eventKind, String operationType) {
         List<String> fileList = new ArrayList<>(files);
         for (int i = 0; i < fileList.size(); i += BATCH_SIZE) {
             waitForProcessingSlot();
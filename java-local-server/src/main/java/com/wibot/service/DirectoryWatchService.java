@@ -0,0 +1,370 @@
+package com.wibot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.wibot.persistence.UserDirectoryIndexRepository;
+import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.persistence.entity.UserDirectoryIndexPO;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 实时监听已完成索引的目录
+ *
+ * 1）递归注册每个子目录，新建的目录自动注册 2）同一文件的连续事件合并，静默一段时间后按文件当前状态处理一次
+ * 3）事件溢出、目录新建或删除时退化为只扫描对应子树 4）注册失败的目录不算作已监听，仍由定期全量同步兜底
+ * 5）同一批中消失和新出现的文件按内容配对为移动，不重新解析 6）子目录数超过上限或系统只提供轮询实现（如macOS）时不监听，
+ * 轮询实现要定期列出每个注册的目录，比定期同步更重
+ */
+@Service
+public class DirectoryWatchService {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatchService.class);
+
+    public static final String CONFIG_DIRECTORY_WATCH_ENABLED = "directory.watch.enabled";
+    public static final String CONFIG_DIRECTORY_WATCH_MAX_DIRECTORIES = "directory.watch.max.directories";
+
+    private static final long DEBOUNCE_MS = 2000; // 文件静默2秒后再处理，编辑器保存时常连续触发多个事件
+    private static final long FLUSH_INTERVAL_MS = 500;
+    private static final int DEFAULT_MAX_DIRECTORIES_PER_ROOT = 10000; // Linux inotify 默认上限为8192个监听
+    private static final long WATCH_RETRY_INTERVAL_MS = 30 * 60 * 1000L; // 超过上限的目录隔一段时间再尝试
+
+    @Autowired
+    private UserDirectoryIndexRepository indexRepository;
+
+    @Autowired
+    private DirectoryProcessingService directoryProcessingService;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    private WatchService watchService;
+
+    // WatchKey -> 被监听的目录
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirPaths = ConcurrentHashMap.newKeySet();
+    // 监控根目录 -> 其下所有已注册的 WatchKey
+    private final Map<Path, Set<WatchKey>> rootKeys = new ConcurrentHashMap<>();
+    // 监控根目录 -> 开始监听的时间
+    private final Map<Path, Long> rootWatchStartTimes = new ConcurrentHashMap<>();
+    // 注册失败的根目录 -> 失败时间，期间依赖定期全量同步
+    private final Map<Path, Long> rootWatchFailedTimes = new ConcurrentHashMap<>();
+
+    // 等待处理的文件 -> 最后一次事件时间；等待重新扫描的子树 -> 所属根目录
+    private final Map<Path, Long> pendingFiles = new ConcurrentHashMap<>();
+    private final Map<Path, Path> pendingSubtrees = new ConcurrentHashMap<>();
+
+    private final ExecutorService watchExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("dir-watcher-%d").setDaemon(true).build());
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("dir-watch-flush-%d").setDaemon(true).build());
+
+    @PostConstruct
+    public void init() {
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            logger.error("Failed to create watch service, falling back to periodic sync", e);
+            return;
+        }
+        if (service.getClass().getName().endsWith("PollingWatchService")) {
+            // 轮询实现（如macOS）对每个注册的目录定期列出，大目录树上开销比定期同步还大
+            logger.info("Only a polling watch service is available, falling back to periodic sync");
+            try {
+                service.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        watchService = service;
+        watchExecutor.submit(this::pollEvents);
+        flushExecutor.scheduleWithFixedDelay(this::flushPending, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 根目录是否已完整注册监听。未监听的目录需要依赖定期全量同步
+     */
+    public boolean isWatching(String directoryPath) {
+        return rootKeys.containsKey(Paths.get(directoryPath));
+    }
+
+    /**
+     * @return 根目录开始监听的时间，未监听时返回 null。此后的文件修改都会通过事件处理
+     */
+    public Long getWatchingSince(String directoryPath) {
+        Path root = Paths.get(directoryPath);
+        return rootKeys.containsKey(root) ? rootWatchStartTimes.get(root) : null;
+    }
+
+    // 每30秒对齐一次监听的目录集合：新完成索引的目录开始监听，已删除的目录停止监听
+    @Scheduled(fixedRate = 30000)
+    public void refreshWatchedRoots() {
+        if (watchService == null) {
+            return;
+        }
+        boolean enabled = systemConfigService.getBooleanValue(CONFIG_DIRECTORY_WATCH_ENABLED, true);
+
+        Set<Path> activeRoots = new HashSet<>();
+        if (enabled) {
+            for (UserDirectoryIndexPO task : indexRepository.findByIndexStatus(UserDirectoryIndexPO.STATUS_COMPLETED)) {
+                activeRoots.add(Paths.get(task.getDirectoryPath()));
+            }
+        }
+
+        for (Path root : new ArrayList<>(rootKeys.keySet())) {
+            if (!activeRoots.contains(root)) {
+                unwatchRoot(root);
+            }
+        }
+        rootWatchFailedTimes.keySet().retainAll(activeRoots);
+        long now = System.currentTimeMillis();
+        for (Path root : activeRoots) {
+            Long failedAt = rootWatchFailedTimes.get(root);
+            if (failedAt != null && now - failedAt < WATCH_RETRY_INTERVAL_MS) {
+                continue;
+            }
+            if (!rootKeys.containsKey(root) && Files.isDirectory(root)) {
+                watchRoot(root);
+            }
+        }
+    }
+
+    private void watchRoot(Path root) {
+        Set<WatchKey> keys = ConcurrentHashMap.newKeySet();
+        long startTime = System.currentTimeMillis();
+        try {
+            registerTree(root, root, keys);
+            rootWatchStartTimes.put(root, startTime);
+            rootKeys.put(root, keys);
+            rootWatchFailedTimes.remove(root);
+            logger.info("Watching directory {} ({} subdirectories)", root, keys.size());
+        } catch (IOException e) {
+            // 常见原因是超出系统的监听数量上限（如Linux的inotify限制）
+            logger.warn("Failed to watch directory {}, relying on periodic sync: {}", root, e.getMessage());
+            for (WatchKey key : keys) {
+                cancelKey(key);
+            }
+            rootWatchFailedTimes.put(root, System.currentTimeMillis());
+        }
+    }
+
+    private void unwatchRoot(Path root) {
+        Set<WatchKey> keys = rootKeys.remove(root);
+        rootWatchStartTimes.remove(root);
+        if (keys != null) {
+            for (WatchKey key : keys) {
+                cancelKey(key);
+            }
+            logger.info("Stopped watching directory {}", root);
+        }
+    }
+
+    private void cancelKey(WatchKey key) {
+        key.cancel();
+        Path dir = watchedDirs.remove(key);
+        if (dir != null) {
+            watchedDirPaths.remove(dir);
+        }
+    }
+
+    private void registerTree(Path root, Path start, Set<WatchKey> keys) throws IOException {
+        int maxDirectories = systemConfigService.getIntValue(CONFIG_DIRECTORY_WATCH_MAX_DIRECTORIES,
+                DEFAULT_MAX_DIRECTORIES_PER_ROOT);
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (directoryProcessingService.isDirectoryIgnored(root, dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (keys.size() >= maxDirectories) {
+                    throw new IOException("More than " + maxDirectories + " subdirectories to watch");
+                }
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, dir);
+                watchedDirPaths.add(dir);
+                keys.add(key);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                logger.debug("Skipping unreadable path while registering watch: {}", file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void pollEvents() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = watchedDirs.get(key);
+            if (dir != null) {
+                try {
+                    handleEvents(key, dir);
+                } catch (Exception e) {
+                    logger.error("Failed to handle watch events for {}", dir, e);
+                }
+            }
+
+            if (!key.reset()) {
+                // 目录已被删除或无法访问
+                cancelKey(key);
+                rootKeys.values().forEach(keys -> keys.remove(key));
+            }
+        }
+    }
+
+    private void handleEvents(WatchKey key, Path dir) {
+        Path root = findRoot(key);
+        if (root == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                logger.warn("Watch events overflowed for {}, rescanning subtree", dir);
+                pendingSubtrees.put(dir, root);
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            if (directoryProcessingService.isIgnored(root, child)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                // 新目录：注册监听，并扫描一次注册前已经写入的文件
+                Set<WatchKey> keys = rootKeys.get(root);
+                try {
+                    if (keys != null) {
+                        registerTree(root, child, keys);
+                    }
+                } catch (IOException e) {
+                    // 部分子目录未监听时整个根目录不能再算作已监听，改由定期全量同步兜底
+                    logger.warn("Failed to watch new directory {}, relying on periodic sync for {}: {}", child, root,
+                            e.getMessage());
+                    unwatchRoot(root);
+                    rootWatchFailedTimes.put(root, System.currentTimeMillis());
+                }
+                pendingSubtrees.put(child, root);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && isWatchedDirectory(child)) {
+                // 删除目录时不会收到其下每个文件的事件
+                pendingSubtrees.put(child, root);
+            } else {
+                pendingFiles.put(child, now);
+            }
+        }
+    }
+
+    private Path findRoot(WatchKey key) {
+        for (Map.Entry<Path, Set<WatchKey>> entry : rootKeys.entrySet()) {
+            if (entry.getValue().contains(key)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private boolean isWatchedDirectory(Path path) {
+        return watchedDirPaths.contains(path);
+    }
+
+    /**
+     * 处理静默时间已到的文件和待扫描的子树。同一文件的多次事件只处理一次，按文件此刻是否存在决定是更新还是删除。
+     * 移动产生的删除和新建事件可能分属前后两轮，还在静默期的文件也作为配对候选，配对成功的不再等待。
+     * 监听到的变化不是用户提交的，按普通优先级排队
+     */
+    private void flushPending() {
+        try {
+            long threshold = System.currentTimeMillis() - DEBOUNCE_MS;
+            List<Path> files = new ArrayList<>();
+            Map<Path, Long> waiting = new HashMap<>();
+            for (Map.Entry<Path, Long> entry : pendingFiles.entrySet()) {
+                if (entry.getValue() > threshold) {
+                    waiting.put(entry.getKey(), entry.getValue());
+                } else if (pendingFiles.remove(entry.getKey(), entry.getValue())) {
+                    // 处理期间又有新事件时保留，等下次静默
+                    files.add(entry.getKey());
+                }
+            }
+
+            Map<Path, Path> subtrees = new HashMap<>(pendingSubtrees);
+            subtrees.keySet().forEach(pendingSubtrees::remove);
+            if (files.isEmpty() && subtrees.isEmpty()) {
+                return;
+            }
+            Set<Path> moved = directoryProcessingService.handleWatchBatch(files, subtrees, waiting.keySet(),
+                    DocumentDataPO.PRIORITY_NORMAL);
+            for (Path file : moved) {
+                pendingFiles.remove(file, waiting.get(file));
+            }
+        } catch (Exception e) {
+            logger.error("Failed to flush watch events", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("watchedRoots", rootKeys.size());
+        stats.put("watchedDirectories", watchedDirs.size());
+        stats.put("pendingFiles", pendingFiles.size());
+        stats.put("pendingSubtrees", pendingSubtrees.size());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdownNow();
+        watchExecutor.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close watch service", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.wibot.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.utils.fs.ContentFingerprinter;
+import com.wibot.utils.fs.Md5Fingerprinter;
+import com.wibot.utils.fs.Murmur3Fingerprinter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件内容指纹，用于判断文件内容是否变化以及识别移动的文件
+ *
+ * 1）默认使用 murmur3_128，可配置回MD5 2）文件大小和修改时间都与记录一致时不再计算 3）可选对超大文件抽样计算
+ * 4）与已有指纹比较时按其前缀使用相同算法，切换算法后旧记录仍可比较
+ */
+@Service
+public class FileFingerprintService {
+
+    public static final String CONFIG_FINGERPRINT_ALGORITHM = "fingerprint.algorithm"; // murmur3 或 md5
+    public static final String CONFIG_FINGERPRINT_SAMPLE_THRESHOLD_MB = "fingerprint.sample.threshold.mb";
+
+    private static final String ALGORITHM_MD5 = "md5";
+    private static final int DEFAULT_SAMPLE_THRESHOLD_MB = 0; // 默认不抽样
+    private static final long MTIME_TOLERANCE_NANOS = 1_000_000;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    private final Md5Fingerprinter md5Fingerprinter = new Md5Fingerprinter();
+
+    private final AtomicLong hashedFiles = new AtomicLong();
+    private final AtomicLong hashedBytes = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+    private final AtomicLong skippedFiles = new AtomicLong();
+
+    /**
+     * 按当前配置的算法计算指纹
+     */
+    public String fingerprint(Path file) throws IOException {
+        return fingerprint(file, currentFingerprinter());
+    }
+
+    /**
+     * 文件内容是否与已有指纹一致，按已有指纹的算法计算
+     */
+    public boolean matches(Path file, String recorded) throws IOException {
+        if (recorded == null || recorded.isEmpty()) {
+            return false;
+        }
+        String algorithm = algorithmOf(recorded);
+        String current;
+        if (algorithm.isEmpty()) {
+            current = fingerprint(file, md5Fingerprinter);
+        } else if (Murmur3Fingerprinter.SAMPLED_ALGORITHM.equals(algorithm)) {
+            long start = System.nanoTime();
+            current = new Murmur3Fingerprinter(0).sampledFingerprint(file);
+            record(0, start);
+        } else if (Murmur3Fingerprinter.ALGORITHM.equals(algorithm)) {
+            current = fingerprint(file, new Murmur3Fingerprinter(0));
+        } else {
+            return false;
+        }
+        return recorded.equals(current);
+    }
+
+    /**
+     * 两个指纹是否由同一算法生成。不同算法的指纹不能直接比较，需要用 matches 按已有指纹的算法重新计算
+     */
+    public static boolean isSameAlgorithm(String a, String b) {
+        return a != null && b != null && algorithmOf(a).equals(algorithmOf(b));
+    }
+
+    /**
+     * 文件大小和修改时间都与记录一致时视为内容未变，不需要计算指纹。已标记删除的记录不适用。
+     * 文件系统的修改时间可到纳秒，数据库只保存到微秒（入库时可能进位），修改时间相差不到1毫秒即视为一致
+     *
+     * @param recorded 已有记录
+     * @param current  按文件当前属性生成的记录
+     */
+    public boolean isUnchanged(DocumentDataPO recorded, DocumentDataPO current) {
+        if (recorded.getMd5() == null || recorded.getFileSize() == null || recorded.getUpdateDateTime() == null
+                || DocumentDataPO.PROCESSED_STATE_DELETED.equals(recorded.getProcessedState())) {
+            return false;
+        }
+        boolean unchanged = recorded.getFileSize().equals(current.getFileSize())
+                && current.getUpdateDateTime() != null
+                && Math.abs(Duration.between(recorded.getUpdateDateTime(), current.getUpdateDateTime())
+                        .toNanos()) < MTIME_TOLERANCE_NANOS;
+        if (unchanged) {
+            skippedFiles.incrementAndGet();
+        }
+        return unchanged;
+    }
+
+    /**
+     * 文件当前的大小和修改时间是否仍与记录一致，即记录中的指纹是否仍对应文件内容。文件读不到时返回 false
+     */
+    public boolean matchesFileAttributes(DocumentDataPO recorded) {
+        if (recorded.getFileSize() == null || recorded.getUpdateDateTime() == null) {
+            return false;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(recorded.getDataPath(), BasicFileAttributes.class);
+            return attrs.size() == recorded.getFileSize()
+                    && Math.abs(Duration.between(recorded.getUpdateDateTime(), toLocal(attrs.lastModifiedTime()))
+                            .toNanos()) < MTIME_TOLERANCE_NANOS;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 按文件当前内容重新计算指纹，同时更新记录的大小和修改时间。先读属性再计算，计算期间文件又被修改时
+     * 属性与文件不再一致，之后的 matchesFileAttributes 会发现
+     */
+    public void refresh(DocumentDataPO document) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(document.getDataPath(), BasicFileAttributes.class);
+        document.setFileSize(attrs.size());
+        document.setUpdateDateTime(toLocal(attrs.lastModifiedTime()));
+        document.setMd5(fingerprint(document.getDataPath()));
+    }
+
+    private static LocalDateTime toLocal(FileTime time) {
+        return LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+    }
+
+    /**
+     * 抽样指纹不覆盖全部内容，不能作为解析结果缓存的key
+     */
+    public static boolean isSampled(String fingerprint) {
+        return fingerprint != null && fingerprint.startsWith(Murmur3Fingerprinter.SAMPLED_ALGORITHM + ":");
+    }
+
+    private static String algorithmOf(String fingerprint) {
+        int index = fingerprint.indexOf(':');
+        return index < 0 ? "" : fingerprint.substring(0, index);
+    }
+
+    private ContentFingerprinter currentFingerprinter() {
+        if (ALGORITHM_MD5.equalsIgnoreCase(systemConfigService.getValue(CONFIG_FINGERPRINT_ALGORITHM, "murmur3"))) {
+            return md5Fingerprinter;
+        }
+        long thresholdMb = systemConfigService.getIntValue(CONFIG_FINGERPRINT_SAMPLE_THRESHOLD_MB,
+                DEFAULT_SAMPLE_THRESHOLD_MB);
+        return new Murmur3Fingerprinter(Math.max(0, thresholdMb) * 1024 * 1024);
+    }
+
+    private String fingerprint(Path file, ContentFingerprinter fingerprinter) throws IOException {
+        long start = System.nanoTime();
+        String result = fingerprinter.fingerprint(file);
+        // 抽样时只读取了少量数据，不计入字节数
+        record(isSampled(result) ? 0 : file.toFile().length(), start);
+        return result;
+    }
+
+    private void record(long bytes, long start) {
+        hashNanos.addAndGet(System.nanoTime() - start);
+        hashedFiles.incrementAndGet();
+        hashedBytes.addAndGet(bytes);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long nanos = hashNanos.get();
+        stats.put("hashedFiles", hashedFiles.get());
+        stats.put("hashedBytes", hashedBytes.get());
+        stats.put("skippedFiles", skippedFiles.get());
+        stats.put("throughputMBps", nanos > 0 ? hashedBytes.get() / 1e6 / (nanos / 1e9) : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,126 @@
+package com.wibot.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.hash.Hashing;
+import com.wibot.utils.cache.CompressedDiskCache;
+
+import jakarta.annotation.PostConstruct;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大模型响应缓存
+ *
+ * 以调用点 + 模型 + 完整提示词（模板和内容都在其中）的hash为key缓存响应文本，重启、未变文件重新索引、重复提问时
+ * 不再重复付费调用。提示词中带有段落id等不影响结果的内容时，调用方可改用只含模板和内容的key来源。可整体关闭，也可按调用点关闭
+ */
+@Service
+public class LLMResponseCache {
+
+    public static final String CONFIG_LLM_CACHE_ENABLED = "llm.cache.enabled";
+    public static final String CONFIG_LLM_CACHE_MAX_MB = "llm.cache.max.mb";
+    public static final String CONFIG_LLM_CACHE_TTL_HOURS = "llm.cache.ttl.hours"; // 启动时读取
+    public static final String CONFIG_LLM_CACHE_SITE_PREFIX = "llm.cache.site."; // llm.cache.site.<调用点>.enabled
+
+    public static final String SITE_EXTRACT_FACTS = "extractFacts";
+    public static final String SITE_RERANK = "rerank";
+    public static final String SITE_QUERY_ANALYSIS = "queryAnalysis";
+    public static final String SITE_SIMILAR_QUESTIONS = "similarQuestions";
+
+    /**
+     * 缓存格式或调用方式变化、旧响应不再可用时递增
+     */
+    private static final int KEY_VERSION = 1;
+
+    private static final int DEFAULT_MAX_MB = 256;
+    private static final int DEFAULT_TTL_HOURS = 24 * 7;
+
+    @Value("${app.cache.path}")
+    private String cachePath;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    private CompressedDiskCache diskCache;
+
+    // 调用点 -> 命中/未命中次数
+    private final Map<String, AtomicLong> siteHits = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> siteMisses = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        long ttlHours = Math.max(0, systemConfigService.getIntValue(CONFIG_LLM_CACHE_TTL_HOURS, DEFAULT_TTL_HOURS));
+        diskCache = new CompressedDiskCache(Paths.get(cachePath, "llm"),
+                () -> systemConfigService.getIntValue(CONFIG_LLM_CACHE_MAX_MB, DEFAULT_MAX_MB) * 1024L * 1024L,
+                ttlHours * 60 * 60 * 1000);
+    }
+
+    public boolean isEnabled(String site) {
+        return systemConfigService.getBooleanValue(CONFIG_LLM_CACHE_ENABLED, true)
+                && systemConfigService.getBooleanValue(CONFIG_LLM_CACHE_SITE_PREFIX + site + ".enabled", true);
+    }
+
+    /**
+     * @param site   调用点
+     * @param model  模型名
+     * @param prompt 渲染后的完整提示词，或调用方给出的key来源
+     */
+    public String buildKey(String site, String model, String prompt) {
+        String hash = Hashing.murmur3_128().newHasher()
+                .putString(model != null ? model : "", StandardCharsets.UTF_8)
+                .putChar('\n')
+                .putString(prompt, StandardCharsets.UTF_8)
+                .hash().toString();
+        return (site + "_v" + KEY_VERSION + "_" + hash).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    public String get(String site, String key) {
+        String response = diskCache.get(key);
+        (response != null ? siteHits : siteMisses).computeIfAbsent(site, s -> new AtomicLong()).incrementAndGet();
+        return response;
+    }
+
+    public void put(String key, String response) {
+        diskCache.put(key, response);
+    }
+
+    /**
+     * 移除调用方解析失败的响应，下次重新请求
+     */
+    public void remove(String key) {
+        diskCache.remove(key);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = diskCache.getStats();
+        stats.put("enabled", systemConfigService.getBooleanValue(CONFIG_LLM_CACHE_ENABLED, true));
+        Map<String, Object> sites = new HashMap<>();
+        for (String site : siteMisses.keySet()) {
+            sites.putIfAbsent(site, siteStats(site));
+        }
+        for (String site : siteHits.keySet()) {
+            sites.putIfAbsent(site, siteStats(site));
+        }
+        stats.put("sites", sites);
+        return stats;
+    }
+
+    private Map<String, Object> siteStats(String site) {
+        long hits = siteHits.getOrDefault(site, new AtomicLong()).get();
+        long misses = siteMisses.getOrDefault(site, new AtomicLong()).get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled(site));
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        return stats;
+    }
+}
@@ -0,0 +1,292 @@
+package com.wibot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import jakarta.annotation.PreDestroy;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 精炼任务调度：多个任务同时运行，抽取批次按加权公平排队分给有限的LLM工作线程
+ *
+ * 1）每个任务一个批次队列，按 start-time fair queuing 计算虚拟时间，批次成本为参考内容字符数除以任务权重，
+ * 每次派发虚拟时间最小的任务，大目录任务不会饿死其他任务 2）可为单个任务设置并发上限 3）同时运行的任务数有上限，
+ * 超出的任务排队等待
+ */
+@Service
+public class RefineryScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(RefineryScheduler.class);
+
+    // 单个任务的配置：refinery.task.<id>.weight 和 refinery.task.<id>.max.concurrency
+    public static final String CONFIG_TASK_PREFIX = "refinery.task.";
+    private static final String CONFIG_TASK_WEIGHT_SUFFIX = ".weight";
+    private static final String CONFIG_TASK_MAX_CONCURRENCY_SUFFIX = ".max.concurrency"; // 0 表示不限制
+    public static final String CONFIG_TASK_DEFAULT_MAX_CONCURRENCY = "refinery.task.max.concurrency";
+
+    private static final int MAX_CONCURRENT_TASKS = 8;
+    private static final int DEFAULT_WORKER_COUNT = 20;
+    private static final long CONFIG_CHECK_INTERVAL = 10000;
+
+    @Autowired
+    private SystemConfigService systemConfigService;
+
+    // 运行任务本身的线程，主要在等待批次结果
+    private final ThreadPoolExecutor taskRunner = new ThreadPoolExecutor(MAX_CONCURRENT_TASKS, MAX_CONCURRENT_TASKS,
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("refinery-task-%d").setDaemon(true).build());
+
+    private final ExecutorService workers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("refinery-worker-%d").setDaemon(true).build());
+
+    // 以下状态都由 this 保护
+    private final Map<Long, TaskQueue> queues = new LinkedHashMap<>();
+    private final List<Long> waitingTasks = new ArrayList<>();
+    private double virtualTime;
+    private int inFlight;
+    private int workerCount = DEFAULT_WORKER_COUNT;
+    private long lastConfigCheck;
+
+    private static class WorkItem {
+        private final FutureTask<?> future;
+        private final long cost;
+
+        WorkItem(FutureTask<?> future, long cost) {
+            this.future = future;
+            this.cost = cost;
+        }
+    }
+
+    private static class TaskQueue {
+        private final Long taskId;
+        private final double weight;
+        private final int maxConcurrency;
+        private final Deque<WorkItem> items = new ArrayDeque<>();
+        private double finishTag;
+        private int inFlight;
+        private boolean running; // 任务本身在运行，队列可能暂时为空
+        private long completedItems;
+        private long completedCost;
+        private final LocalDateTime startTime = LocalDateTime.now();
+        private final long startMs = System.currentTimeMillis();
+
+        TaskQueue(Long taskId, double weight, int maxConcurrency) {
+            this.taskId = taskId;
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        boolean isEligible() {
+            return !items.isEmpty() && (maxConcurrency <= 0 || inFlight < maxConcurrency);
+        }
+
+        boolean isIdle() {
+            return items.isEmpty() && inFlight == 0;
+        }
+    }
+
+    /**
+     * 运行一个任务，同一任务已在运行或排队时忽略
+     *
+     * @return 是否已接受
+     */
+    public synchronized boolean runTask(Long taskId, Runnable job) {
+        if (queues.containsKey(taskId) || waitingTasks.contains(taskId)) {
+            logger.debug("Refinery task {} already scheduled", taskId);
+            return false;
+        }
+        waitingTasks.add(taskId);
+        taskRunner.execute(() -> {
+            startTask(taskId);
+            try {
+                job.run();
+            } catch (Exception e) {
+                logger.error("Refinery task {} failed", taskId, e);
+            } finally {
+                finishTask(taskId);
+            }
+        });
+        return true;
+    }
+
+    public synchronized boolean isScheduled(Long taskId) {
+        return queues.containsKey(taskId) || waitingTasks.contains(taskId);
+    }
+
+    /**
+     * 提交任务的一个抽取批次。不在运行中的任务（如文档修改触发的增量抽取）临时建立队列，批次完成后移除
+     *
+     * @param cost 批次成本，使用参考内容的字符数
+     */
+    public <T> Future<T> submit(Long taskId, long cost, Callable<T> batch) {
+        FutureTask<T> future = new FutureTask<>(batch);
+        synchronized (this) {
+            TaskQueue queue = queues.get(taskId);
+            if (queue == null) {
+                queue = createQueue(taskId);
+                queues.put(taskId, queue);
+            }
+            if (queue.isIdle()) {
+                // 重新变为活跃的任务从当前虚拟时间开始，不能用空闲期间攒下的额度插队
+                queue.finishTag = Math.max(queue.finishTag, virtualTime);
+            }
+            queue.items.add(new WorkItem(future, Math.max(1, cost)));
+        }
+        dispatch();
+        return future;
+    }
+
+    private synchronized void startTask(Long taskId) {
+        waitingTasks.remove(taskId);
+        TaskQueue queue = queues.get(taskId);
+        if (queue == null) {
+            queue = createQueue(taskId);
+            queues.put(taskId, queue);
+        }
+        queue.running = true;
+    }
+
+    private synchronized void finishTask(Long taskId) {
+        TaskQueue queue = queues.get(taskId);
+        if (queue != null) {
+            queue.running = false;
+            if (queue.isIdle()) {
+                queues.remove(taskId);
+            }
+        }
+    }
+
+    private TaskQueue createQueue(Long taskId) {
+        String prefix = CONFIG_TASK_PREFIX + taskId;
+        int weight = systemConfigService.getIntValue(prefix + CONFIG_TASK_WEIGHT_SUFFIX, 1);
+        int defaultMaxConcurrency = systemConfigService.getIntValue(CONFIG_TASK_DEFAULT_MAX_CONCURRENCY, 0);
+        int maxConcurrency = systemConfigService.getIntValue(prefix + CONFIG_TASK_MAX_CONCURRENCY_SUFFIX,
+                defaultMaxConcurrency);
+        return new TaskQueue(taskId, Math.max(1, weight), maxConcurrency);
+    }
+
+    /**
+     * 有空闲工作线程时，依次派发虚拟时间最小且未达到并发上限的任务的批次
+     */
+    private synchronized void dispatch() {
+        refreshWorkerCount();
+        while (inFlight < workerCount) {
+            TaskQueue next = null;
+            for (TaskQueue queue : queues.values()) {
+                if (queue.isEligible() && (next == null || queue.finishTag < next.finishTag)) {
+                    next = queue;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+
+            WorkItem item = next.items.poll();
+            // 派发时刻的虚拟时间取该任务的开始标签，完成标签按成本和权重推进
+            virtualTime = Math.max(virtualTime, next.finishTag);
+            next.finishTag += item.cost / next.weight;
+            next.inFlight++;
+            inFlight++;
+
+            TaskQueue queue = next;
+            workers.execute(() -> {
+                try {
+                    item.future.run();
+                } finally {
+                    complete(queue, item);
+                }
+            });
+        }
+    }
+
+    private void complete(TaskQueue queue, WorkItem item) {
+        synchronized (this) {
+            queue.inFlight--;
+            inFlight--;
+            queue.completedItems++;
+            queue.completedCost += item.cost;
+            if (!queue.running && queue.isIdle()) {
+                queues.remove(queue.taskId);
+            }
+        }
+        dispatch();
+    }
+
+    private void refreshWorkerCount() {
+        long now = System.currentTimeMillis();
+        if (now - lastConfigCheck > CONFIG_CHECK_INTERVAL) {
+            workerCount = Math.max(1,
+                    systemConfigService.getIntValue(SystemConfigService.CONFIG_LLM_CONCURRENCY, DEFAULT_WORKER_COUNT));
+            lastConfigCheck = now;
+        }
+    }
+
+    /**
+     * 各任务的排队位置和吞吐。运行中的任务按下一次派发的先后排位，等待运行的任务排在其后
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workerCount", workerCount);
+        stats.put("inFlight", inFlight);
+        stats.put("maxConcurrentTasks", MAX_CONCURRENT_TASKS);
+
+        List<TaskQueue> ordered = new ArrayList<>(queues.values());
+        ordered.sort(Comparator.comparing((TaskQueue q) -> q.items.isEmpty())
+                .thenComparingDouble(q -> q.finishTag));
+        List<Map<String, Object>> tasks = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        int position = 1;
+        for (TaskQueue queue : ordered) {
+            Map<String, Object> task = new HashMap<>();
+            task.put("taskId", queue.taskId);
+            task.put("state", queue.running ? "running" : "incremental");
+            task.put("queuePosition", position++);
+            task.put("weight", queue.weight);
+            task.put("maxConcurrency", queue.maxConcurrency);
+            task.put("queuedBatches", queue.items.size());
+            task.put("inFlight", queue.inFlight);
+            task.put("completedBatches", queue.completedItems);
+            task.put("completedChars", queue.completedCost);
+            long elapsed = Math.max(1, now - queue.startMs);
+            task.put("batchesPerMinute", queue.completedItems * 60000.0 / elapsed);
+            task.put("charsPerSecond", queue.completedCost * 1000.0 / elapsed);
+            task.put("startTime", queue.startTime);
+            tasks.add(task);
+        }
+        for (Long taskId : waitingTasks) {
+            Map<String, Object> task = new HashMap<>();
+            task.put("taskId", taskId);
+            task.put("state", "waiting");
+            task.put("queuePosition", position++);
+            tasks.add(task);
+        }
+        stats.put("tasks", tasks);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        taskRunner.shutdownNow();
+        workers.shutdownNow();
+    }
+}
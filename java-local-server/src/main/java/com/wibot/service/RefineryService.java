@@ -8,6 +8,10 @@ import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -29,22 +33,34 @@ import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 
 import com.wibot.controller.vo.RefineryTaskVO;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.wibot.documentLoader.DocumentIndexService;
 import com.wibot.documentLoader.DocumentProcessorService;
 import com.wibot.documentLoader.event.DocumentEventListener;
 import com.wibot.documentLoader.event.DocumentProcessEvent;
+import com.wibot.index.DocumentIndexInterface;
+import com.wibot.index.FactIndex;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -54,16 +70,30 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class RefineryService implements DocumentEventListener {
     private static final Logger logger = LoggerFactory.getLogger(RefineryService.class);
     private static final int MAX_CONTENT_SIZE = 28720;
+    // 一次请求中参考内容的字符预算，多个段落打包发送，共用一份提示词；0 表示每个段落单独请求
+    public static final String CONFIG_REFINERY_BATCH_MAX_CHARS = "refinery.batch.max.chars";
+    // 词法预筛：抽取前用全文索引按BM25给段落和任务问题打分，低于阈值的段落不发给大模型
+    public static final String CONFIG_REFINERY_PREFILTER_ENABLED = "refinery.prefilter.enabled";
+    public static final String CONFIG_REFINERY_PREFILTER_MIN_SCORE = "refinery.prefilter.min.score";
+    public static final double DEFAULT_PREFILTER_MIN_SCORE = 1.0;
     private static final String UPDATE_TYPE_INCREMENTAL = "INCREMENTAL";
     private static final String UPDATE_TYPE_FULL = "FULL";
+    private static final int PARAGRAPH_PAGE_SIZE = 500; // 全量处理时每次读取的段落数
+    private static final long STATS_FLUSH_INTERVAL_MS = 5000; // 任务统计写库间隔
+    private static final long MODIFY_DEBOUNCE_MS = 10000; // 文档修改后静默这么久才重新抽取，期间的多次修改合并为一次
+    private static final long MODIFY_FLUSH_INTERVAL_MS = 1000;
+    private static final long MODIFY_RETRY_DELAY_MS = 5 * 60 * 1000; // 重新抽取失败后等这么久再试
 
     @Value("classpath:/prompts/extractFacts.st")
     private Resource extractFactsPrompt;
+    // 模板内容参与抽取事实的缓存key，模板修改后旧响应自然失效
+    private volatile String extractFactsTemplate;
 
     @Autowired
     private SingletonLLMChat singletonLLMChat;
@@ -90,6 +120,40 @@ public class RefineryService implements DocumentEventListener {
 
     @Autowired
     private SystemConfigService systemConfigService;
+
+    @Autowired
+    private RefineryScheduler refineryScheduler;
+
+    @Autowired
+    private RefineryFactWriter refineryFactWriter;
+
+    @Autowired
+    private DocumentIndexInterface documentIndex;
+
+    @Autowired
+    private RefineryTaskRouter refineryTaskRouter;
+
+    @Autowired
+    private FactIndex factIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // 任务的token消耗和断点先在内存中累加，定时或任务结束时写库
+    private final Map<Long, TaskStats> pendingStats = new ConcurrentHashMap<>();
+
+    // 等待重新抽取的文档ID -> 最后一次修改事件时间。在单独的线程中处理，不占用文档处理线程
+    private final Map<Long, Long> pendingModifiedDocuments = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService modifyExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("refinery-modify-%d").setDaemon(true).build());
+    private final Object statsFlushLock = new Object();
+
+    private static class TaskStats {
+        private final AtomicLong fullTokenCost = new AtomicLong();
+        private final AtomicLong incrementalTokenCost = new AtomicLong();
+        private final AtomicReference<BatchProcessResult> checkpoint = new AtomicReference<>();
+        private final AtomicLong prefilterSkipped = new AtomicLong();
+    }
     
     private final AtomicLong lastConfigCheck = new AtomicLong(0);
     private static final long CONFIG_CHECK_INTERVAL = 10000; // 20秒
@@ -128,16 +192,9 @@ public class RefineryService implements DocumentEventListener {
     public RefineryTaskVO createTask(RefineryTaskVO taskVO) {
         // 检查是否已存在相同的任务
         Optional<RefineryTaskDO> existingTask = refineryTaskRepository
-                .findAll()
-                .stream()
-                .filter(task -> task.getDirectoryPath().equals(taskVO.getDirectoryPath())
-                        && task.getKeyQuestion().equals(taskVO.getKeyQuestion()))
-                .findFirst();
-
+                .findFirstByDirectoryPathAndKeyQuestion(taskVO.getDirectoryPath(), taskVO.getKeyQuestion());
         if (existingTask.isPresent()) {
-            RefineryTaskVO existingVO = convertToVO(existingTask.get());
-            existingVO.setMessage("任务已存在，请勿重复创建");
-            return existingVO;
+            return duplicateTaskVO(existingTask.get());
         }
 
         // 转换VO到DO
@@ -150,21 +207,78 @@ public class RefineryService implements DocumentEventListener {
         taskDO.setFullUpdateTokenCost(0);
         taskDO.setIncrementalTokenCost(0);
         taskDO.setHitCount(0);
+        taskDO.setPrefilterSkippedCount(0);
         taskDO.setCreateTime(LocalDateTime.now());
         taskDO.setLastUpdateTime(LocalDateTime.now());
         taskDO.setStatus(RefineryTaskDO.STATUS_PENDING);
 
-        // 保存到数据库
-        RefineryTaskDO savedTask = refineryTaskRepository.save(taskDO);
+        // 保存到数据库，并发创建相同任务时由唯一索引拦下
+        RefineryTaskDO savedTask;
+        try {
+            savedTask = refineryTaskRepository.save(taskDO);
+        } catch (DataIntegrityViolationException e) {
+            return refineryTaskRepository
+                    .findFirstByDirectoryPathAndKeyQuestion(taskVO.getDirectoryPath(), taskVO.getKeyQuestion())
+                    .map(this::duplicateTaskVO)
+                    .orElseThrow(() -> e);
+        }
+        refineryTaskRouter.add(savedTask.getId(), savedTask.getDirectoryPath());
 
         // 转换回VO
         return convertToVO(savedTask);
     }
 
+    private RefineryTaskVO duplicateTaskVO(RefineryTaskDO task) {
+        RefineryTaskVO existingVO = convertToVO(task);
+        existingVO.setMessage("任务已存在，请勿重复创建");
+        return existingVO;
+    }
+
+    public RefineryService() {
+    }
+
+    /**
+     * 测试用，只注入打包和抽取批次用到的依赖
+     */
+    RefineryService(SingletonLLMChat singletonLLMChat, RefineryFactWriter refineryFactWriter,
+            RefineryScheduler refineryScheduler, SystemConfigService systemConfigService, ObjectMapper objectMapper,
+            Resource extractFactsPrompt) {
+        this.singletonLLMChat = singletonLLMChat;
+        this.refineryFactWriter = refineryFactWriter;
+        this.refineryScheduler = refineryScheduler;
+        this.systemConfigService = systemConfigService;
+        this.objectMapper = objectMapper;
+        this.extractFactsPrompt = extractFactsPrompt;
+    }
+
     @PostConstruct
     public void init() {
+        removeDuplicateTasks();
         // 注册文档事件监听器
         documentProcessorService.addListener(this);
+        modifyExecutor.scheduleWithFixedDelay(this::flushModifiedDocuments, MODIFY_FLUSH_INTERVAL_MS,
+                MODIFY_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 唯一索引加入之前创建的重复 (目录, 问题) 任务会让 ddl-auto=update 建索引失败。启动时每组只保留最早创建的任务，
+     * 删除其余任务及其事实，再补建唯一索引
+     */
+    private void removeDuplicateTasks() {
+        Set<List<String>> seen = new HashSet<>();
+        for (RefineryTaskDO task : refineryTaskRepository.findAll(Sort.by("id"))) {
+            if (!seen.add(Arrays.asList(task.getDirectoryPath(), task.getKeyQuestion()))) {
+                logger.warn("Deleting duplicate refinery task {} for {} / {}", task.getId(), task.getDirectoryPath(),
+                        task.getKeyQuestion());
+                deleteTask(task.getId());
+            }
+        }
+        try {
+            jdbcTemplate.execute("ALTER TABLE refinery_task ADD CONSTRAINT IF NOT EXISTS uk_refinery_task_path_question "
+                    + "UNIQUE (directory_path, key_question)");
+        } catch (Exception e) {
+            logger.error("Failed to create unique constraint on refinery_task", e);
+        }
     }
 
     public RefineryTaskVO getTask(Long taskId) {
@@ -179,7 +293,7 @@ public class RefineryService implements DocumentEventListener {
                 .collect(Collectors.toList());
     }
 
-    @Scheduled(fixedDelay = 60000) // 每分钟执行一次,为了简化，这个任务是单线程的，以后再看看要不要改多线程，短期就单线程做分发，节省同步难度。
+    @Scheduled(fixedDelay = 60000) // 每分钟检查一次，只负责把待处理任务交给 RefineryScheduler，各任务并发运行、公平分享LLM工作线程
     public synchronized void processScheduledTasks() {
         logger.info("Starting scheduled task processing");
 
@@ -190,32 +304,47 @@ public class RefineryService implements DocumentEventListener {
         logger.info("Found {} pending tasks", tasksToProcess.size());
 
         for (RefineryTaskDO task : tasksToProcess) {
-            try {
-                // 2. 检查是否需要执行（根据更新周期）
+            // 上次调度的任务还在运行或排队
+            if (refineryScheduler.isScheduled(task.getId())) {
+                continue;
+            }
+            refineryScheduler.runTask(task.getId(), () -> runTask(task.getId()));
+        }
+    }
 
-                // 3. 更新状态为处理中
-                task.setStatus(RefineryTaskDO.STATUS_PROCESSING);
-                task.setLastUpdateTime(LocalDateTime.now());
-                refineryTaskRepository.save(task);
+    private void runTask(Long taskId) {
+        RefineryTaskDO task = refineryTaskRepository.findById(taskId).orElse(null);
+        if (task == null) {
+            return;
+        }
+        try {
+            // 2. 检查是否需要执行（根据更新周期）
 
-                // 4. 处理任务
-                processTask(task);
-                task = refineryTaskRepository.findById(task.getId())
-                        .orElseThrow(() -> new RuntimeException("Task not found: "));
+            // 3. 更新状态为处理中
+            task.setStatus(RefineryTaskDO.STATUS_PROCESSING);
+            task.setLastUpdateTime(LocalDateTime.now());
+            refineryTaskRepository.save(task);
 
-                // 5. 更新状态为活跃
-                task.setStatus(RefineryTaskDO.STATUS_ACTIVE);
-                task.setErrorMessage(null);
-                task.setProcessingCheckpoint(null);
-                refineryTaskRepository.save(task);
+            // 4. 处理任务
+            processTask(task);
+            flushTaskStats(task.getId());
+            task = refineryTaskRepository.findById(task.getId())
+                    .orElseThrow(() -> new RuntimeException("Task not found: "));
 
-            } catch (Exception e) {
-                logger.error("Error processing task: " + task.getId(), e);
-                // 6. 更新失败状态和错误信息
-                task.setStatus(RefineryTaskDO.STATUS_FAILED);
-                task.setErrorMessage(e.getMessage());
-                refineryTaskRepository.save(task);
-            }
+            // 5. 更新状态为活跃
+            task.setStatus(RefineryTaskDO.STATUS_ACTIVE);
+            task.setErrorMessage(null);
+            task.setProcessingCheckpoint(null);
+            refineryTaskRepository.save(task);
+
+        } catch (Exception e) {
+            logger.error("Error processing task: " + task.getId(), e);
+            // 6. 更新失败状态和错误信息，重新读取以保留处理过程中写入的断点
+            flushTaskStats(task.getId());
+            task = refineryTaskRepository.findById(task.getId()).orElse(task);
+            task.setStatus(RefineryTaskDO.STATUS_FAILED);
+            task.setErrorMessage(e.getMessage());
+            refineryTaskRepository.save(task);
         }
     }
 
@@ -223,49 +352,55 @@ public class RefineryService implements DocumentEventListener {
         String checkpoint = task.getProcessingCheckpoint();
         try {
             // 统计文件数
-            long coveredFileCount = documentDataRepository.countByFilePathStartingWith(task.getDirectoryPath());
+            long coveredFileCount = documentDataRepository.countByDirectory(task.getDirectoryPath());
             task.setCoveredFileCount((int) coveredFileCount);
             task.setLastUpdateTime(LocalDateTime.now());
+            if (checkpoint == null || checkpoint.isEmpty()) {
+                // 从头扫描时重新统计预筛跳过数
+                task.setPrefilterSkippedCount(0);
+            }
             refineryTaskRepository.save(task);
 
-            List<MarkdownParagraphPO> paragraphsToDo = null;
-            final List<MarkdownParagraphPO> paragraphs = new ArrayList<>();
-
-            documentDataRepository.findByFilePathStartingWith(task.getDirectoryPath())
-                    .forEach(doc -> {
-
-                        markdownParagraphRepository.findByDocumentDataId(doc.getId())
-                                .forEach(paragraph -> {
-                                    paragraphs.add(paragraph);
-                                });
-                    });
-
-            // 排序以方便断点续传
-            paragraphs.sort((p1, p2) -> Long.compare(p1.getId(), p2.getId()));
-            paragraphsToDo = paragraphs;
-
-            // 如果有断点，过滤出断点之后的段落
+            // 按段落ID游标分页读取，只有当前一页的段落内容在内存中；从断点之后开始
+            long afterId = 0;
             if (checkpoint != null && !checkpoint.isEmpty()) {
-                Long checkpointId = Long.parseLong(checkpoint);
-                paragraphsToDo = paragraphs.stream()
-                        .filter(p -> p.getId() > checkpointId)
-                        .toList();
+                afterId = Long.parseLong(checkpoint);
             }
+            long watermark = verifyWatermark(task);
+            int processedCount = 0;
+            while (true) {
+                List<MarkdownParagraphPO> paragraphs = markdownParagraphRepository.findByDirectoryAfterId(
+                        task.getDirectoryPath(), afterId, PageRequest.of(0, PARAGRAPH_PAGE_SIZE));
+                if (paragraphs.isEmpty()) {
+                    break;
+                }
 
-            // 获取所有任务的Future
-            List<Future<BatchProcessResult>> futures = extractFactsFromParagraph(paragraphsToDo, task.getKeyQuestion(),
-                    task);
+                // 水位以内的段落已处理过，内容未变的不再抽取；剩下的段落再经词法预筛
+                List<MarkdownParagraphPO> changed = filterChangedParagraphs(task.getId(), paragraphs, watermark);
+                List<MarkdownParagraphPO> paragraphsToDo = prefilterParagraphs(task, changed);
+                MarkdownParagraphPO last = paragraphs.get(paragraphs.size() - 1);
 
-            // 逐个处理future结果
-            for (Future<BatchProcessResult> future : futures) {
-                try {
-                    BatchProcessResult result = future.get();
-                    updateTaskStats(task.getId(), result.getTokenCost(),
-                            result.getMinId(), UPDATE_TYPE_FULL);
-                } catch (Exception e) {
-                    logger.error("Error processing future result: {}", e.getMessage());
-                    throw new RuntimeException("Failed to process task future", e);
+                // 当前一页的批次全部完成后再读下一页，断点随批次依次推进
+                List<Future<BatchProcessResult>> futures = extractFactsFromParagraph(paragraphsToDo,
+                        task.getKeyQuestion(), task);
+                for (Future<BatchProcessResult> future : futures) {
+                    try {
+                        BatchProcessResult result = future.get();
+                        updateTaskStats(task.getId(), result.getTokenCost(),
+                                result.getCheckpointId(), result.getCheckpointContentHash(), UPDATE_TYPE_FULL);
+                    } catch (Exception e) {
+                        logger.error("Error processing future result: {}", e.getMessage());
+                        throw new RuntimeException("Failed to process task future", e);
+                    }
                 }
+                // 本页全部完成，断点推进到页尾，页尾被跳过的段落也不必再处理
+                updateTaskStats(task.getId(), 0, last.getId(), contentHash(last.getContent()), UPDATE_TYPE_FULL);
+
+                processedCount += paragraphs.size();
+                afterId = last.getId();
+                logger.info("Task {} processed {} paragraphs ({} extracted, {} skipped by prefilter in this page), "
+                        + "up to id {}", task.getId(), processedCount, paragraphsToDo.size(),
+                        changed.size() - paragraphsToDo.size(), afterId);
             }
 
         } catch (Exception e) {
@@ -273,39 +408,219 @@ public class RefineryService implements DocumentEventListener {
         }
     }
 
-    private List<Future<BatchProcessResult>> extractFactsFromParagraph(List<MarkdownParagraphPO> paragraphs,
+    /**
+     * 水位段落仍在但内容hash对不上时，说明水位不可信，退回到该段落之前重新处理
+     *
+     * @return 可信的水位段落ID，没有水位时为0
+     */
+    private long verifyWatermark(RefineryTaskDO task) {
+        Long watermark = task.getWatermarkParagraphId();
+        if (watermark == null) {
+            return 0;
+        }
+        Optional<MarkdownParagraphPO> paragraph = markdownParagraphRepository.findById(watermark);
+        if (paragraph.isPresent() && task.getWatermarkContentHash() != null
+                && !task.getWatermarkContentHash().equals(contentHash(paragraph.get().getContent()))) {
+            logger.warn("Watermark paragraph {} of task {} changed, re-extracting from it", watermark, task.getId());
+            return watermark - 1;
+        }
+        return watermark;
+    }
+
+    /**
+     * 已有事实的段落只有事实的内容hash与当前内容不一致（或旧数据没有hash）时才重新抽取；被预筛跳过的段落在预筛关闭或
+     * 阈值调低后重新检查；没有记录的段落在水位之后要抽取，水位以内说明上次没抽到内容，段落ID不变内容就不变，跳过
+     */
+    private List<MarkdownParagraphPO> filterChangedParagraphs(Long taskId, List<MarkdownParagraphPO> paragraphs,
+            long watermark) {
+        List<Long> paragraphIds = paragraphs.stream().map(MarkdownParagraphPO::getId).toList();
+        Map<Long, RefineryFactDO> recordedFacts = new HashMap<>();
+        for (RefineryFactDO fact : refineryFactRepository.findByRefineryTaskIdAndParagraphIdIn(taskId, paragraphIds)) {
+            recordedFacts.put(fact.getParagraphId(), fact);
+        }
+        boolean prefilterEnabled = systemConfigService.getBooleanValue(CONFIG_REFINERY_PREFILTER_ENABLED, false);
+        double minScore = getPrefilterMinScore();
+        List<MarkdownParagraphPO> changed = new ArrayList<>();
+        for (MarkdownParagraphPO paragraph : paragraphs) {
+            RefineryFactDO fact = recordedFacts.get(paragraph.getId());
+            if (fact != null) {
+                String recorded = fact.getContentHash();
+                if (recorded == null || !recorded.equals(contentHash(paragraph.getContent()))) {
+                    changed.add(paragraph);
+                } else if (fact.isSkippedMarker() && (!prefilterEnabled || minScore < fact.getSkippedMinScore())) {
+                    changed.add(paragraph);
+                }
+            } else if (paragraph.getId() > watermark) {
+                changed.add(paragraph);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 词法预筛：用任务问题在全文索引中给段落打BM25分，低于阈值的段落跳过，它们之前抽取的事实替换为带阈值的跳过标记。
+     * 还没进入索引的段落无法判断，照常抽取
+     */
+    private List<MarkdownParagraphPO> prefilterParagraphs(RefineryTaskDO task, List<MarkdownParagraphPO> paragraphs) {
+        if (paragraphs.isEmpty() || !systemConfigService.getBooleanValue(CONFIG_REFINERY_PREFILTER_ENABLED, false)) {
+            return paragraphs;
+        }
+        double minScore = getPrefilterMinScore();
+        Map<Long, Float> scores = documentIndex.scoreParagraphs(task.getKeyQuestion(),
+                paragraphs.stream().map(MarkdownParagraphPO::getId).toList());
+
+        List<MarkdownParagraphPO> kept = new ArrayList<>();
+        Map<Long, String> skippedHashes = new LinkedHashMap<>();
+        for (MarkdownParagraphPO paragraph : paragraphs) {
+            Float score = scores.get(paragraph.getId());
+            if (score == null || score >= minScore) {
+                kept.add(paragraph);
+            } else {
+                skippedHashes.put(paragraph.getId(), contentHash(paragraph.getContent()));
+            }
+        }
+        if (!skippedHashes.isEmpty()) {
+            List<Long> skippedIds = new ArrayList<>(skippedHashes.keySet());
+            refineryFactWriter.markSkipped(task.getId(), skippedIds, skippedHashes, minScore);
+            TaskStats stats = pendingStats.computeIfAbsent(task.getId(), id -> new TaskStats());
+            stats.prefilterSkipped.addAndGet(skippedIds.size());
+            logger.debug("Prefilter skipped {} of {} paragraphs for task {}", skippedIds.size(), paragraphs.size(),
+                    task.getId());
+        }
+        return kept;
+    }
+
+    private double getPrefilterMinScore() {
+        Double minScore = systemConfigService.getConfig(CONFIG_REFINERY_PREFILTER_MIN_SCORE, Double.class,
+                DEFAULT_PREFILTER_MIN_SCORE);
+        return minScore != null ? minScore : DEFAULT_PREFILTER_MIN_SCORE;
+    }
+
+    /**
+     * 评估词法预筛的召回。以任务已抽取出事实的段落为正样本（应来自未开启预筛的全量更新），
+     * 在目录的前 sampleSize 个段落上统计每个阈值保留下来的段落比例和正样本召回率
+     *
+     * @param minScores 待评估的阈值，为空时使用当前配置
+     */
+    public Map<String, Object> evaluatePrefilter(Long taskId, List<Double> minScores, int sampleSize) {
+        RefineryTaskDO task = refineryTaskRepository.findById(taskId)
+                .orElseThrow(() -> new RuntimeException("Task not found: " + taskId));
+        if (minScores == null || minScores.isEmpty()) {
+            minScores = Collections.singletonList(getPrefilterMinScore());
+        }
+        Set<Long> positives = refineryFactRepository.findByRefineryTaskId(taskId).stream()
+                .filter(fact -> !fact.isSkippedMarker())
+                .map(RefineryFactDO::getParagraphId)
+                .collect(Collectors.toSet());
+
+        // 段落ID -> 分数，只统计已进入索引的段落
+        Map<Long, Float> scores = new HashMap<>();
+        int sampled = 0;
+        long afterId = 0;
+        while (sampled < sampleSize) {
+            List<MarkdownParagraphPO> paragraphs = markdownParagraphRepository.findByDirectoryAfterId(
+                    task.getDirectoryPath(), afterId,
+                    PageRequest.of(0, Math.min(PARAGRAPH_PAGE_SIZE, sampleSize - sampled)));
+            if (paragraphs.isEmpty()) {
+                break;
+            }
+            scores.putAll(documentIndex.scoreParagraphs(task.getKeyQuestion(),
+                    paragraphs.stream().map(MarkdownParagraphPO::getId).toList()));
+            sampled += paragraphs.size();
+            afterId = paragraphs.get(paragraphs.size() - 1).getId();
+        }
+
+        long positiveCount = scores.keySet().stream().filter(positives::contains).count();
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Double minScore : minScores) {
+            long kept = 0;
+            long keptPositives = 0;
+            for (Map.Entry<Long, Float> entry : scores.entrySet()) {
+                if (entry.getValue() >= minScore) {
+                    kept++;
+                    if (positives.contains(entry.getKey())) {
+                        keptPositives++;
+                    }
+                }
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("minScore", minScore);
+            result.put("keptParagraphs", kept);
+            result.put("keepRate", scores.isEmpty() ? 0.0 : (double) kept / scores.size());
+            result.put("keptPositives", keptPositives);
+            result.put("recall", positiveCount > 0 ? (double) keptPositives / positiveCount : 1.0);
+            results.add(result);
+        }
+
+        Map<String, Object> evaluation = new HashMap<>();
+        evaluation.put("taskId", taskId);
+        evaluation.put("sampledParagraphs", sampled);
+        evaluation.put("indexedParagraphs", scores.size());
+        evaluation.put("positiveParagraphs", positiveCount);
+        // 正样本来自开启预筛的抽取时，被跳过的段落不会成为正样本，召回率偏高
+        Integer skipped = task.getPrefilterSkippedCount();
+        evaluation.put("labelsAffectedByPrefilter", skipped != null && skipped > 0);
+        evaluation.put("results", results);
+        return evaluation;
+    }
+
+    private static String contentHash(String content) {
+        return Hashing.murmur3_128().hashString(content != null ? content : "", StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * 按字符预算把段落打包成批次提交，每个段落带自己的id，抽取出的事实按id归回对应段落。
+     * 批次按段落id顺序提交，依次完成后可把批次中最后一个段落id作为断点
+     */
+    List<Future<BatchProcessResult>> extractFactsFromParagraph(List<MarkdownParagraphPO> paragraphs,
             String question, RefineryTaskDO task) {
-        checkAndUpdateThreadPoolConfig(); // 添加配置检查
+        int maxBatchChars = systemConfigService.getIntValue(CONFIG_REFINERY_BATCH_MAX_CHARS, MAX_CONTENT_SIZE);
         List<Future<BatchProcessResult>> futures = new ArrayList<>();
+        List<Map<String, Object>> currentBatch = new ArrayList<>();
+        int currentBatchSize = 0;
         int batchIndex = 1;
 
         // 只创建和提交任务,不等待结果
         for (MarkdownParagraphPO paragraph : paragraphs) {
             Map<String, Object> reference = new HashMap<>();
-            reference.put("part", "第" + batchIndex + "篇参考内容");
+            reference.put("part", "第" + (currentBatch.size() + 1) + "篇参考内容");
             reference.put("id", paragraph.getId());
             reference.put("content", paragraph.getContent());
             reference.put("paragraphOrder", paragraph.getParagraphOrder());
             reference.put("date", paragraph.getCreatedDateTime());
-
-            // try {
-            // String jsonStr = objectMapper.writeValueAsString(reference);
-            List<Map<String, Object>> singleItemBatch = Collections.singletonList(reference);
-
-            Future<BatchProcessResult> future = submitTask(
-                    new PrecomputedFactsExtractTask(singleItemBatch, question, task, batchIndex, this));
-            futures.add(future);
-
-            batchIndex++;
-            // } catch (JsonProcessingException e) {
-            // logger.error("Failed to serialize reference to JSON", e);
-            // throw new RuntimeException(e);
-            // }
+            int contentSize = estimateReferenceSize(reference);
+
+            // 加入后超出预算时先提交当前批次，单个超出预算的段落自成一批
+            if (!currentBatch.isEmpty() && currentBatchSize + contentSize > maxBatchChars) {
+                futures.add(refineryScheduler.submit(task.getId(), currentBatchSize,
+                        new PrecomputedFactsExtractTask(currentBatch, question, task, batchIndex, this)));
+                batchIndex++;
+                currentBatch = new ArrayList<>();
+                currentBatchSize = 0;
+                reference.put("part", "第1篇参考内容");
+            }
+            currentBatch.add(reference);
+            currentBatchSize += contentSize;
+        }
+        if (!currentBatch.isEmpty()) {
+            futures.add(refineryScheduler.submit(task.getId(), currentBatchSize,
+                    new PrecomputedFactsExtractTask(currentBatch, question, task, batchIndex, this)));
         }
 
+        logger.info("Packed {} paragraphs into {} extraction requests for task {}", paragraphs.size(), futures.size(),
+                task.getId());
         return futures;
     }
 
+    private int estimateReferenceSize(Map<String, Object> reference) {
+        try {
+            return objectMapper.writeValueAsString(reference).length();
+        } catch (Exception e) {
+            Object content = reference.get("content");
+            return content != null ? content.toString().length() : 0;
+        }
+    }
+
     /**
      * 用于封装LLM调用结果的类
      */
@@ -334,22 +649,37 @@ public class RefineryService implements DocumentEventListener {
     }
 
     /**
-     * 公共方法：从内容中提取事实
+     * 公共方法：从内容中提取事实。
+     *
+     * 发给模型的id换成批次内序号，返回后再换回本次的段落id；缓存key只由模板、问题和各段落内容hash组成，
+     * 段落重新入库换了id、日期变化时仍能命中缓存
      */
     public ExtractFactsResult extractFactsFromContent(List<Map<String, Object>> batch, String question) {
         Map<String, Object> params = new HashMap<>();
         try {
-            String jsonInput = objectMapper.writeValueAsString(batch);
+            List<Long> paragraphIds = new ArrayList<>();
+            List<Map<String, Object>> references = new ArrayList<>();
+            StringBuilder cacheKeySource = new StringBuilder(getExtractFactsTemplate()).append('\n').append(question);
+            for (Map<String, Object> reference : batch) {
+                paragraphIds.add(Long.parseLong(reference.get("id").toString()));
+                Map<String, Object> rendered = new LinkedHashMap<>(reference);
+                rendered.put("id", paragraphIds.size());
+                references.add(rendered);
+                cacheKeySource.append('\n').append(contentHash((String) reference.get("content")));
+            }
+            String jsonInput = objectMapper.writeValueAsString(references);
             params.put("references", jsonInput);
             params.put("question", question);
 
             PromptTemplate promptTemplate = new PromptTemplate(extractFactsPrompt);
             Message userMessage = promptTemplate.createMessage(params);
             Prompt prompt = new Prompt(Collections.singletonList(userMessage));
+            String keySource = cacheKeySource.toString();
 
             for (int attempt = 0; attempt < 3; attempt++) {
                 try {
-                    String response = singletonLLMChat.sendThrottledRequest(prompt);
+                    String response = singletonLLMChat.sendThrottledRequest(prompt,
+                            LLMResponseCache.SITE_EXTRACT_FACTS, keySource);
 
                     String jsonStr = JsonExtractor.extractJsonFromResponse(response);
                     if (jsonStr == null) {
@@ -361,9 +691,13 @@ public class RefineryService implements DocumentEventListener {
 
                     if (factResponse != null && factResponse.getFacts() != null) {
                         int tokenCost = prompt.getContents().length() + response.length();
-                        return new ExtractFactsResult(factResponse.getFacts(), response, tokenCost);
+                        return new ExtractFactsResult(toParagraphIds(factResponse.getFacts(), paragraphIds), response,
+                                tokenCost);
                     }
+                    // 结构不对的响应不能留在缓存里，否则重试拿到的还是它
+                    singletonLLMChat.evictCachedResponse(LLMResponseCache.SITE_EXTRACT_FACTS, keySource);
                 } catch (Exception e) {
+                    singletonLLMChat.evictCachedResponse(LLMResponseCache.SITE_EXTRACT_FACTS, keySource);
                     if (attempt == 2) {
                         throw e;
                     }
@@ -375,46 +709,83 @@ public class RefineryService implements DocumentEventListener {
             logger.error("Error extracting facts: {}", e.getMessage());
             throw new RuntimeException("Failed to extract facts ， already retry 3 times  ", e);
         }
-        return new ExtractFactsResult(Collections.emptyList(), null, 0);
+        // 三次都拿不到可解析的响应时不能当作没有事实，否则会清掉段落原有的事实并推进断点
+        throw new RuntimeException("Failed to extract facts: no parsable response after 3 attempts");
+    }
+
+    /**
+     * 把模型返回的批次内序号换回段落id。只有一个段落时缺少或写错序号也能确定来源，其余无法对应的事实丢弃
+     */
+    private List<ExtractedFact> toParagraphIds(List<ExtractedFact> facts, List<Long> paragraphIds) {
+        List<ExtractedFact> mapped = new ArrayList<>();
+        for (ExtractedFact fact : facts) {
+            Long ordinal = fact.getId();
+            if (ordinal != null && ordinal >= 1 && ordinal <= paragraphIds.size()) {
+                fact.setId(paragraphIds.get(ordinal.intValue() - 1));
+            } else if (paragraphIds.size() == 1) {
+                fact.setId(paragraphIds.get(0));
+            } else {
+                logger.warn("Discarding fact with unknown reference id {}", ordinal);
+                continue;
+            }
+            mapped.add(fact);
+        }
+        return mapped;
+    }
+
+    private String getExtractFactsTemplate() throws IOException {
+        if (extractFactsTemplate == null) {
+            extractFactsTemplate = extractFactsPrompt.getContentAsString(StandardCharsets.UTF_8);
+        }
+        return extractFactsTemplate;
     }
 
     /**
-     * 修改后的处理方法，使用新的公共方法
+     * 抽取一个批次的事实并保存。批次中可能有多个段落，事实按返回的id归到对应段落，不属于本批次的id丢弃
      */
     public BatchProcessResult processBatchAndGetTokenCost(List<Map<String, Object>> batch, String question,
             Long taskId, int batchIndex) {
         try {
+            Map<Long, Map<String, Object>> referencesById = new LinkedHashMap<>();
+            for (Map<String, Object> reference : batch) {
+                referencesById.put(Long.parseLong(reference.get("id").toString()), reference);
+            }
+            List<Long> paragraphIds = new ArrayList<>(referencesById.keySet());
+            // 批次中最后一个段落id，全部完成后作为断点
+            Long checkpointId = paragraphIds.get(paragraphIds.size() - 1);
+            String checkpointHash = contentHash((String) referencesById.get(checkpointId).get("content"));
+
             ExtractFactsResult result = extractFactsFromContent(batch, question);
             if (result.getFacts().isEmpty()) {
                 logger.warn("No facts extracted for batch {}", batchIndex);
-                return new BatchProcessResult(0, null);
             }
 
-            boolean isFirst = true;
+            // 同一段落的多条事实合并为一条；本批次没有事实的段落清掉旧事实（断点续传时可能已保存过）
+            Map<Long, String> factsByParagraph = new HashMap<>();
+            Map<Long, String> contentHashes = new HashMap<>();
+            for (Map.Entry<Long, Map<String, Object>> entry : referencesById.entrySet()) {
+                contentHashes.put(entry.getKey(), contentHash((String) entry.getValue().get("content")));
+            }
+            int saved = 0;
             for (ExtractedFact fact : result.getFacts()) {
                 Long paragraphId = fact.getId();
-                if (isFirst) {
-                    logger.info("Extracted facts: {}", result.getFacts());
-                    isFirst = false;
-                    refineryFactRepository.deleteByRefineryTaskIdAndParagraphId(taskId, paragraphId);
+                if (paragraphId == null && paragraphIds.size() == 1) {
+                    // 只有一个段落时缺少id也能确定来源
+                    paragraphId = paragraphIds.get(0);
                 }
-
-                saveFact(taskId, paragraphId, fact.getFact());
+                if (paragraphId == null || !referencesById.containsKey(paragraphId)) {
+                    logger.warn("Discarding fact with unknown paragraph id {} in batch {}", fact.getId(), batchIndex);
+                    continue;
+                }
+                factsByParagraph.merge(paragraphId, fact.getFact(), (a, b) -> a + "\n" + b);
+                saved++;
             }
+            refineryFactWriter.replaceFacts(taskId, paragraphIds, factsByParagraph, contentHashes);
 
-            logger.info("Successfully processed and saved batch {}, extracted {} facts",
-                    batchIndex, result.getFacts().size());
-
-            // 获取当前批次的段落ID
-            Long paragraphId = Long.parseLong(batch.get(0).get("id").toString());
-
-            // 更新任务状态
-            // updateTaskWithRetry(taskId, result.getResponseLength(), paragraphId,
-            // result.getRawResponse());
-
-            BatchProcessResult batchProcessResult = new BatchProcessResult(result.getTokenCost(), paragraphId);
+            logger.info("Successfully processed and saved batch {} ({} paragraphs), extracted {} facts",
+                    batchIndex, paragraphIds.size(), saved);
 
-            return batchProcessResult;
+            return new BatchProcessResult(result.getTokenCost(), checkpointId, checkpointHash);
 
         } catch (Exception e) {
             logger.error("Error processing batch {}", batchIndex, e);
@@ -422,22 +793,6 @@ public class RefineryService implements DocumentEventListener {
         }
     }
 
-    private void saveFact(Long taskId, Long paragraphId, String factContent) {
-        Optional<RefineryFactDO> existingFact = refineryFactRepository
-                .findByRefineryTaskIdAndParagraphId(taskId, paragraphId)
-                .stream()
-                .findFirst();
-
-        if (existingFact.isPresent()) {
-            RefineryFactDO factDO = existingFact.get();
-            factDO.setFact(factDO.getFact() + "\n" + factContent);
-            refineryFactRepository.save(factDO);
-        } else {
-            RefineryFactDO factDO = new RefineryFactDO(taskId, paragraphId, factContent);
-            refineryFactRepository.save(factDO);
-        }
-    }
-
     private RefineryTaskVO convertToVO(RefineryTaskDO taskDO) {
         RefineryTaskVO vo = new RefineryTaskVO();
         vo.setId(taskDO.getId());
@@ -453,6 +808,7 @@ public class RefineryService implements DocumentEventListener {
         vo.setStatus(taskDO.getStatus());
         vo.setErrorMessage(taskDO.getErrorMessage());
         vo.setProcessingCheckpoint(taskDO.getProcessingCheckpoint());
+        vo.setPrefilterSkippedCount(taskDO.getPrefilterSkippedCount() != null ? taskDO.getPrefilterSkippedCount() : 0);
         return vo;
     }
 
@@ -464,7 +820,8 @@ public class RefineryService implements DocumentEventListener {
                     handleBeforeDocumentDelete(event.getDocument());
                     break;
                 case DocumentProcessEvent.TYPE_AFTER_MODIFY:
-                    handleAfterDocumentModify(event.getDocument());
+                    // 只登记，静默后在后台重新抽取，索引不等待精炼
+                    pendingModifiedDocuments.put(event.getDocument().getId(), System.currentTimeMillis());
                     break;
             }
         } catch (Exception e) {
@@ -474,6 +831,7 @@ public class RefineryService implements DocumentEventListener {
 
     private void handleBeforeDocumentDelete(DocumentDataPO document) {
         logger.info("Handling document deletion: {}", document.getFilePath());
+        pendingModifiedDocuments.remove(document.getId());
 
         // 获取文档相关的所有段落
         List<MarkdownParagraphPO> paragraphs = markdownParagraphRepository.findByDocumentDataId(document.getId());
@@ -483,14 +841,15 @@ public class RefineryService implements DocumentEventListener {
                 .map(MarkdownParagraphPO::getId)
                 .toList();
 
-        // 删除这些段落相关的所有事实
+        // 删除这些段落相关的所有事实，尚未写入的也一并丢弃
         if (!paragraphIds.isEmpty()) {
+            refineryFactWriter.discardParagraphs(paragraphIds);
             refineryFactRepository.deleteByParagraphIdIn(paragraphIds);
+            factIndex.deleteByParagraphIds(paragraphIds);
         }
 
-        String directoryPathPattern = getParentPath(document.getFilePath()) + "%";
-        List<RefineryTaskDO> relatedTasks = refineryTaskRepository.findByDirectoryPathLike(
-                directoryPathPattern);
+        List<RefineryTaskDO> relatedTasks = refineryTaskRepository.findAllById(
+                refineryTaskRouter.findTasksCovering(document.getFilePath()));
         for (RefineryTaskDO task : relatedTasks) {
             task.setCoveredFileCount(task.getCoveredFileCount() - 1);
             task.setLastUpdateTime(LocalDateTime.now());
@@ -499,64 +858,82 @@ public class RefineryService implements DocumentEventListener {
 
     }
 
+    /**
+     * 等待重新抽取的已修改文档数
+     */
+    public int getPendingModifiedDocumentCount() {
+        return pendingModifiedDocuments.size();
+    }
+
+    private void flushModifiedDocuments() {
+        try {
+            long threshold = System.currentTimeMillis() - MODIFY_DEBOUNCE_MS;
+            List<Long> ready = new ArrayList<>();
+            for (Map.Entry<Long, Long> entry : pendingModifiedDocuments.entrySet()) {
+                if (entry.getValue() <= threshold) {
+                    ready.add(entry.getKey());
+                }
+            }
+            for (Long documentId : ready) {
+                // 处理期间又有新事件时保留，等下次静默
+                Long last = pendingModifiedDocuments.get(documentId);
+                if (last == null || last > threshold || !pendingModifiedDocuments.remove(documentId, last)) {
+                    continue;
+                }
+                // 重新读取，按文档的最新状态处理
+                Optional<DocumentDataPO> document = documentDataRepository.findById(documentId);
+                if (document.isEmpty()
+                        || DocumentDataPO.PROCESSED_STATE_DELETED.equals(document.get().getProcessedState())) {
+                    continue;
+                }
+                handleAfterDocumentModify(document.get());
+            }
+        } catch (Exception e) {
+            logger.error("Failed to process modified documents", e);
+        }
+    }
+
     private void handleAfterDocumentModify(DocumentDataPO document) {
         logger.info("Handling document modification: {}", document.getFilePath());
-        String directoryPathPattern = getParentPath(document.getFilePath()) + "%";
-        List<RefineryTaskDO> relatedTasks = refineryTaskRepository.findByDirectoryPathLike(
-                directoryPathPattern);
+        // 目录是该文件祖先的任务
+        List<RefineryTaskDO> relatedTasks = refineryTaskRepository.findAllById(
+                refineryTaskRouter.findTasksCovering(document.getFilePath()));
 
+        boolean failed = false;
         for (RefineryTaskDO task : relatedTasks) {
             try {
-                List<MarkdownParagraphPO> paragraphs = markdownParagraphRepository
-                        .findByDocumentDataId(document.getId());
-
-                // 删除旧的事实
-                List<Long> paragraphIds = paragraphs.stream()
-                        .map(MarkdownParagraphPO::getId)
-                        .toList();
-                if (!paragraphIds.isEmpty()) {
-                    refineryFactRepository.deleteByRefineryTaskIdAndParagraphIdIn(task.getId(), paragraphIds);
-                }
+                List<MarkdownParagraphPO> paragraphs = prefilterParagraphs(task,
+                        markdownParagraphRepository.findByDocumentDataId(document.getId()));
 
-                // 获取所有future并等待完成
+                // 获取所有future并等待完成，每个批次会替换其段落的旧事实
                 List<Future<BatchProcessResult>> futures = extractFactsFromParagraph(paragraphs, task.getKeyQuestion(),
                         task);
-                int tokenCost = 0;
                 for (Future<BatchProcessResult> future : futures) {
                     BatchProcessResult result = future.get();
-                    tokenCost += result.getTokenCost();
-                    updateTaskStats(task.getId(), result.getTokenCost(), null, UPDATE_TYPE_INCREMENTAL);
+                    updateTaskStats(task.getId(), result.getTokenCost(), null, null, UPDATE_TYPE_INCREMENTAL);
                 }
+                // 抽取期间统计可能已写库，重新读取后再更新文件数
+                task = refineryTaskRepository.findById(task.getId()).orElse(task);
                 task.setCoveredFileCount(task.getCoveredFileCount() + 1);
-                task.setIncrementalTokenCost(task.getIncrementalTokenCost() + tokenCost);
                 task.setLastUpdateTime(LocalDateTime.now());
                 refineryTaskRepository.save(task);
 
             } catch (Exception e) {
                 logger.error("Error processing modified document for task {}: {}", task.getId(), e.getMessage());
-                task.setStatus(RefineryTaskDO.STATUS_FAILED);
-                task.setErrorMessage("Error processing modified document: " + e.getMessage());
-                refineryTaskRepository.save(task);
+                failed = true;
+                // 只记录错误，不改任务状态：任务可能正在全量运行；统计可能已写库，重新读取后再保存
+                task = refineryTaskRepository.findById(task.getId()).orElse(null);
+                if (task != null) {
+                    task.setErrorMessage("Error processing modified document: " + e.getMessage());
+                    refineryTaskRepository.save(task);
+                }
             }
         }
-    }
-
-    private String getParentPath(String filePath) {
-        // 同时处理 Windows 和 Unix 风格的路径分隔符
-        int lastUnixSeparator = filePath.lastIndexOf('/');
-        int lastWindowsSeparator = filePath.lastIndexOf('\\');
-        int lastColon = filePath.lastIndexOf(':');
-
-        // 获取最后一个分隔符的位置
-        int lastSeparator = Math.max(lastUnixSeparator, Math.max(lastWindowsSeparator, lastColon));
-
-        // 如果找不到分隔符或分隔符在开头，返回原路径
-        if (lastSeparator <= 0) {
-            return filePath;
+        if (failed) {
+            // 稍后重新处理该文档，期间有新的修改事件时以新事件为准
+            pendingModifiedDocuments.merge(document.getId(), System.currentTimeMillis() + MODIFY_RETRY_DELAY_MS,
+                    Math::max);
         }
-
-        // 截取到最后一个分隔符的位置
-        return filePath.substring(0, lastSeparator);
     }
 
     /**
@@ -566,8 +943,9 @@ public class RefineryService implements DocumentEventListener {
         RefineryTaskDO task = refineryTaskRepository.findById(taskId)
                 .orElseThrow(() -> new RuntimeException("Task not found: " + taskId));
 
-        // 清除checkpoint，以便重新处理所有内容
+        // 清除checkpoint从头扫描；已有事实和水位保留，只有内容变化的段落会重新抽取
         task.setProcessingCheckpoint(null);
+        task.setPrefilterSkippedCount(0);
 
         // 将状态设置为待处理
         task.setStatus(RefineryTaskDO.STATUS_PENDING);
@@ -575,17 +953,6 @@ public class RefineryService implements DocumentEventListener {
         task.setErrorMessage(null);
 
         refineryTaskRepository.save(task);
-
-        // 删除现有的事实和索引
-        refineryFactRepository.deleteByRefineryTaskId(taskId);
-        try {
-            List<RefineryFactDO> facts = refineryFactRepository.findByRefineryTaskId(taskId);
-            for (RefineryFactDO fact : facts) {
-                documentIndexService.deleteRefineryTaskIndex(taskId, fact.getParagraphId());
-            }
-        } catch (Exception e) {
-            logger.error("Error cleaning up old indices for task {}", taskId, e);
-        }
     }
 
     /**
@@ -602,14 +969,20 @@ public class RefineryService implements DocumentEventListener {
             logger.error("Error deleting indices for task {}", taskId, e);
         }
 
-        // 删除数据库中的数据
+        // 删除数据库中的数据，尚未写入的事实和统计一并丢弃
+        refineryFactWriter.discardTask(taskId);
+        pendingStats.remove(taskId);
         refineryFactRepository.deleteByRefineryTaskId(taskId);
+        factIndex.deleteByTaskId(taskId);
+        refineryTaskRepository.findById(taskId)
+                .ifPresent(task -> refineryTaskRouter.remove(taskId, task.getDirectoryPath()));
         refineryTaskRepository.deleteById(taskId);
     }
 
     @PreDestroy
     public void cleanup() {
         // 优雅关闭线程池
+        modifyExecutor.shutdownNow();
         batchProcessor.shutdown();
         try {
             if (!batchProcessor.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -628,25 +1001,78 @@ public class RefineryService implements DocumentEventListener {
     }
 
     /**
-     * 同步更新任务状态
+     * 在内存中累加任务统计，由 flushTaskStats 写库
      */
-    private synchronized void updateTaskStats(Long taskId, int tokenCost, Long paragraphId, String updateType) {
-        RefineryTaskDO task = refineryTaskRepository.findById(taskId)
-                .orElseThrow(() -> new RuntimeException("Task not found: " + taskId));
-
+    private void updateTaskStats(Long taskId, int tokenCost, Long paragraphId, String contentHash,
+            String updateType) {
+        TaskStats stats = pendingStats.computeIfAbsent(taskId, id -> new TaskStats());
         if (UPDATE_TYPE_INCREMENTAL.equals(updateType)) {
             // 增量更新只更新token消耗
-            task.setIncrementalTokenCost(task.getIncrementalTokenCost() + tokenCost);
+            stats.incrementalTokenCost.addAndGet(tokenCost);
         } else {
-            // 全量更新需要更新checkpoint和token消耗
-            task.setFullUpdateTokenCost(task.getFullUpdateTokenCost() + tokenCost);
+            // 全量更新需要更新checkpoint和token消耗；同一任务的批次按顺序完成，后设置的断点总是更靠后
+            stats.fullTokenCost.addAndGet(tokenCost);
             if (paragraphId != null) {
-                task.setProcessingCheckpoint(paragraphId.toString());
+                stats.checkpoint.set(new BatchProcessResult(0, paragraphId, contentHash));
             }
         }
+    }
 
-        task.setLastUpdateTime(LocalDateTime.now());
-        refineryTaskRepository.save(task);
+    @Scheduled(fixedDelay = STATS_FLUSH_INTERVAL_MS)
+    public void flushAllTaskStats() {
+        for (Long taskId : pendingStats.keySet()) {
+            try {
+                flushTaskStats(taskId);
+            } catch (Exception e) {
+                logger.error("Failed to flush stats for task {}", taskId, e);
+            }
+        }
+    }
+
+    /**
+     * 把累加的统计写入任务记录。先取走统计再写事实，保证写入的断点之前的事实都已落库
+     */
+    private void flushTaskStats(Long taskId) {
+        synchronized (statsFlushLock) {
+            TaskStats stats = pendingStats.get(taskId);
+            if (stats == null) {
+                refineryFactWriter.flush();
+                return;
+            }
+            long fullTokenCost = stats.fullTokenCost.getAndSet(0);
+            long incrementalTokenCost = stats.incrementalTokenCost.getAndSet(0);
+            BatchProcessResult checkpoint = stats.checkpoint.getAndSet(null);
+            long prefilterSkipped = stats.prefilterSkipped.getAndSet(0);
+
+            refineryFactWriter.flush();
+            if (fullTokenCost == 0 && incrementalTokenCost == 0 && checkpoint == null && prefilterSkipped == 0) {
+                return;
+            }
+
+            Optional<RefineryTaskDO> found = refineryTaskRepository.findById(taskId);
+            if (found.isEmpty()) {
+                pendingStats.remove(taskId);
+                return;
+            }
+            RefineryTaskDO task = found.get();
+            task.setFullUpdateTokenCost(task.getFullUpdateTokenCost() + (int) fullTokenCost);
+            task.setIncrementalTokenCost(task.getIncrementalTokenCost() + (int) incrementalTokenCost);
+            if (prefilterSkipped > 0) {
+                int skipped = task.getPrefilterSkippedCount() != null ? task.getPrefilterSkippedCount() : 0;
+                task.setPrefilterSkippedCount(skipped + (int) prefilterSkipped);
+            }
+            if (checkpoint != null) {
+                Long paragraphId = checkpoint.getCheckpointId();
+                task.setProcessingCheckpoint(paragraphId.toString());
+                // 水位只前进，全量更新从头扫描时不会退回
+                if (task.getWatermarkParagraphId() == null || paragraphId > task.getWatermarkParagraphId()) {
+                    task.setWatermarkParagraphId(paragraphId);
+                    task.setWatermarkContentHash(checkpoint.getCheckpointContentHash());
+                }
+            }
+            task.setLastUpdateTime(LocalDateTime.now());
+            refineryTaskRepository.save(task);
+        }
     }
 
 }
@@ -0,0 +1,131 @@
+package com.wibot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.wibot.persistence.RefineryTaskRepository;
+import com.wibot.persistence.entity.RefineryTaskDO;
+
+import jakarta.annotation.PostConstruct;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 精炼任务的目录路由
+ *
+ * 按路径分段把任务目录放进前缀树，文件变化时沿文件路径向下走一遍，途经节点上的任务就是覆盖该文件的任务，
+ * 耗时只和路径深度有关，与任务数无关。启动时从数据库重建，任务创建和删除时同步更新。
+ * 路径按 / 和 \ 分段，任务目录只覆盖自身及其子目录下的文件，同级的同名前缀目录（如 docs 和 docs2）不算
+ */
+@Service
+public class RefineryTaskRouter {
+    private static final Logger logger = LoggerFactory.getLogger(RefineryTaskRouter.class);
+
+    @Autowired
+    private RefineryTaskRepository refineryTaskRepository;
+
+    // 由 this 保护
+    private final Node root = new Node();
+    private int taskCount;
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final Set<Long> taskIds = new LinkedHashSet<>();
+
+        boolean isEmpty() {
+            return children.isEmpty() && taskIds.isEmpty();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    /**
+     * 从数据库重建路由
+     */
+    public synchronized void rebuild() {
+        root.children.clear();
+        root.taskIds.clear();
+        taskCount = 0;
+        for (RefineryTaskDO task : refineryTaskRepository.findAll()) {
+            add(task.getId(), task.getDirectoryPath());
+        }
+        logger.info("Refinery task router built with {} tasks", taskCount);
+    }
+
+    public synchronized void add(Long taskId, String directoryPath) {
+        Node node = root;
+        for (String segment : split(directoryPath)) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+        }
+        if (node.taskIds.add(taskId)) {
+            taskCount++;
+        }
+    }
+
+    public synchronized void remove(Long taskId, String directoryPath) {
+        // 记下途经节点，删除后自底向上清理空节点
+        Deque<Node> path = new ArrayDeque<>();
+        List<String> segments = split(directoryPath);
+        Node node = root;
+        for (String segment : segments) {
+            path.push(node);
+            node = node.children.get(segment);
+            if (node == null) {
+                return;
+            }
+        }
+        if (node.taskIds.remove(taskId)) {
+            taskCount--;
+        }
+        for (int i = segments.size() - 1; i >= 0 && node.isEmpty(); i--) {
+            Node parent = path.pop();
+            parent.children.remove(segments.get(i));
+            node = parent;
+        }
+    }
+
+    /**
+     * 覆盖该文件的任务，即目录是文件路径祖先的任务
+     */
+    public synchronized List<Long> findTasksCovering(String filePath) {
+        List<Long> taskIds = new ArrayList<>(root.taskIds);
+        Node node = root;
+        for (String segment : split(filePath)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                break;
+            }
+            taskIds.addAll(node.taskIds);
+        }
+        return taskIds;
+    }
+
+    public synchronized int getTaskCount() {
+        return taskCount;
+    }
+
+    private static List<String> split(String path) {
+        List<String> segments = new ArrayList<>();
+        if (path == null) {
+            return segments;
+        }
+        for (String segment : path.split("[/\\\\]")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+}
@@ -7,6 +7,8 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.boot.autoconfigure.web.ServerProperties;
+import com.wibot.persistence.entity.DocumentDataPO;
+
 import java.nio.file.*;
 import java.net.*;
 import java.util.*;
@@ -26,6 +28,9 @@ public class RemoteUploadService {
     @Autowired
     private DirectoryManagementService directoryManagementService;
 
+    @Autowired
+    private DirectoryProcessingService directoryProcessingService;
+
     public Map<String, Object> toggleRemoteUpload(boolean enable) {
         Map<String, Object> response = new HashMap<>();
         try {
@@ -84,6 +89,10 @@ public class RemoteUploadService {
             // 保存文件
             file.transferTo(targetPath);
 
+            // 单个上传的文件直接入队，不必等待下一轮目录同步
+            directoryProcessingService.processFile(targetPath, StandardWatchEventKinds.ENTRY_CREATE,
+                    DocumentDataPO.PRIORITY_USER_TRIGGERED);
+
             response.put("success", true);
             response.put("message", "文件上传成功");
         } catch (Exception e) {
@@ -52,6 +52,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import com.wibot.persistence.DocumentDataRepository;
 import com.wibot.persistence.MarkdownParagraphRepository;
 import com.wibot.controller.vo.SearchResultVO;
+import com.wibot.index.FactIndex;
+import com.wibot.index.FactSearchResult;
 import com.wibot.persistence.entity.DocumentDataPO;
 import com.wibot.persistence.entity.MarkdownParagraphPO;
 
@@ -91,11 +93,15 @@ public class SearchService {
 
     @Autowired
     private SystemConfigService systemConfigService;
+
+    @Autowired
+    private FactIndex factIndex;
     
     private final AtomicLong lastConfigCheck = new AtomicLong(0);
     private static final long CONFIG_CHECK_INTERVAL = 10000; // 20秒
 
     public final int MAX_BATCH_SIZE = 28720;
+    private static final int MAX_SIMILAR_FACTS = 1000; // 相似问题模式下从事实索引最多取的事实数
 
     private final AtomicLong taskIdGenerator = new AtomicLong(0);
     private final ThreadPoolExecutor executorService = new ThreadPoolExecutor(
@@ -288,7 +294,7 @@ public class SearchService {
             Message userMessage = promptTemplate.createMessage(params);
             Prompt prompt = new Prompt(Collections.singletonList(userMessage));
 
-            String response = singletonLLMChat.sendThrottledRequest(prompt);
+            String response = singletonLLMChat.sendThrottledRequest(prompt, LLMResponseCache.SITE_SIMILAR_QUESTIONS);
 
             // 5. 提取JSON结果
             String jsonStr = JsonExtractor.extractJsonFromResponse(response);
@@ -356,13 +362,56 @@ public class SearchService {
         return results;
     }
 
+    /**
+     * 相似问题先从事实索引中按任务和目录检索已提炼的事实；没有事实时再从原始段落中提取。
+     * 事实索引重建期间仍从数据库逐条读取事实
+     */
     private List<SearchResultVO> processSimilarQuestion(CollectFactsTask task) {
-        checkAndUpdateThreadPoolConfig(); // 添加配置检查
         List<Long> similarTaskIds = task.getSimilarTaskIds();
         if (similarTaskIds == null || similarTaskIds.isEmpty()) {
             task.addSystemLog("⚠️ 未找到相似问题");
             return new ArrayList<>();
         }
+        if (!factIndex.isReady()) {
+            task.addSystemLog("⚠️ 事实索引重建中，从数据库读取事实");
+            return processSimilarQuestionFromDatabase(task);
+        }
+
+        long start = System.currentTimeMillis();
+        List<FactSearchResult> facts = factIndex.search(task.getQuery(), similarTaskIds, task.getPathPrefix(),
+                MAX_SIMILAR_FACTS);
+        if (facts.isEmpty()) {
+            task.addSystemLog("⚠️ 相似问题在当前目录下没有已提炼的事实，改为从原始内容中提取");
+            return processNewQuestion(task);
+        }
+        if (facts.size() >= MAX_SIMILAR_FACTS) {
+            task.addSystemLog(String.format("⚠️ 相关事实超过 %d 条，只取相关度最高的 %d 条", MAX_SIMILAR_FACTS,
+                    MAX_SIMILAR_FACTS));
+        }
+
+        // 多个相似问题可能有同一段落的事实，只保留相关度最高的一条
+        Set<Long> processedParagraphIds = new HashSet<>();
+        List<SearchResultVO> results = new ArrayList<>();
+        for (FactSearchResult fact : facts) {
+            if (processedParagraphIds.add(fact.getParagraphId())) {
+                results.add(new SearchResultVO(fact.getParagraphId(), fact.getFileName(), fact.getFact(),
+                        fact.getParagraphTime(), fact.getFilePath()));
+            }
+        }
+        for (RefineryTaskDO similarTask : refineryTaskRepository.findAllById(similarTaskIds)) {
+            similarTask.setHitCount(similarTask.getHitCount() + 1);
+            refineryTaskRepository.save(similarTask);
+        }
+
+        // 保持事实索引的相关度顺序，截断时留下的是最相关的部分
+        task.addSystemLog(String.format("✅ 从事实索引取得 %d 个相关段落，耗时 %d ms", results.size(),
+                System.currentTimeMillis() - start));
+        return results;
+    }
+
+    private List<SearchResultVO> processSimilarQuestionFromDatabase(CollectFactsTask task) {
+        checkAndUpdateThreadPoolConfig(); // 添加配置检查
+        List<Long> similarTaskIds = task.getSimilarTaskIds();
 
         task.addSystemLog(String.format("🔍 找到 %d 个相似问题，开始提取相关内容...", similarTaskIds.size()));
 
@@ -380,8 +429,8 @@ public class SearchService {
                 List<RefineryFactDO> facts = refineryFactRepository.findByRefineryTaskId(taskId);
 
                 for (RefineryFactDO fact : facts) {
-                    // 跳过已处理的段落
-                    if (processedParagraphIds.contains(fact.getParagraphId())) {
+                    // 跳过已处理的段落和预筛跳过标记
+                    if (fact.isSkippedMarker() || processedParagraphIds.contains(fact.getParagraphId())) {
                         continue;
                     }
 
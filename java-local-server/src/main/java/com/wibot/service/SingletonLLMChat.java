@@ -14,6 +14,7 @@ import org.springframework.web.client.RestClient;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.wibot.config.OpenAIConfig;
+import com.wibot.utils.JsonExtractor;
 
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.OpenAiChatModel;
@@ -28,6 +29,9 @@ public class SingletonLLMChat {
     @Autowired
     private SystemConfigService systemConfigService;
 
+    @Autowired
+    private LLMResponseCache llmResponseCache;
+
     private boolean inited = false;
     private ChatClient chatClient;
     private ChatModel chatModel;
@@ -143,6 +147,46 @@ public class SingletonLLMChat {
         throw new RuntimeException("Failed to send request after " + MAX_RETRIES + " attempts");
     }
 
+    /**
+     * 带响应缓存的请求，相同模型和提示词直接返回缓存的响应。只缓存能提取出JSON的响应，格式错误的响应不会被反复命中
+     *
+     * @param cacheSite 调用点，可通过 llm.cache.site.<调用点>.enabled 单独关闭缓存
+     */
+    public String sendThrottledRequest(Prompt prompt, String cacheSite) {
+        return sendThrottledRequest(prompt, cacheSite, prompt.getContents());
+    }
+
+    /**
+     * @param cacheKeySource 代替完整提示词计算缓存key的内容，提示词中有不影响结果的变化部分（如段落id）时由调用方给出
+     */
+    public String sendThrottledRequest(Prompt prompt, String cacheSite, String cacheKeySource) {
+        String key = null;
+        if (llmResponseCache.isEnabled(cacheSite)) {
+            key = llmResponseCache.buildKey(cacheSite, getChatModelConf(), cacheKeySource);
+            String cached = llmResponseCache.get(cacheSite, key);
+            if (cached != null) {
+                logger.debug("LLM response cache hit for {}", cacheSite);
+                return cached;
+            }
+        }
+        String response = sendThrottledRequest(prompt);
+        if (key != null && JsonExtractor.extractJsonFromResponse(response) != null) {
+            llmResponseCache.put(key, response);
+        }
+        return response;
+    }
+
+    /**
+     * 调用方无法使用缓存的响应时（如JSON结构不对）移除，重试时重新请求
+     */
+    public void evictCachedResponse(Prompt prompt, String cacheSite) {
+        evictCachedResponse(cacheSite, prompt.getContents());
+    }
+
+    public void evictCachedResponse(String cacheSite, String cacheKeySource) {
+        llmResponseCache.remove(llmResponseCache.buildKey(cacheSite, getChatModelConf(), cacheKeySource));
+    }
+
     public ChatResponse sendThrottledMediaRequest(Prompt mediaPrompt) {
         init();
         int attempts = 0;
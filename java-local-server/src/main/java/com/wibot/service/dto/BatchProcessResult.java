@@ -2,18 +2,24 @@ package com.wibot.service.dto;
 
 public class BatchProcessResult {
     private final int tokenCost;
-    private final Long minId;
+    private final Long checkpointId; // 批次中最后一个段落id
+    private final String checkpointContentHash; // 该段落的内容hash
 
-    public BatchProcessResult(int tokenCost, Long minId) {
+    public BatchProcessResult(int tokenCost, Long checkpointId, String checkpointContentHash) {
         this.tokenCost = tokenCost;
-        this.minId = minId;
+        this.checkpointId = checkpointId;
+        this.checkpointContentHash = checkpointContentHash;
     }
 
     public int getTokenCost() {
         return tokenCost;
     }
 
-    public Long getMinId() {
-        return minId;
+    public Long getCheckpointId() {
+        return checkpointId;
+    }
+
+    public String getCheckpointContentHash() {
+        return checkpointContentHash;
     }
 }
\ No newline at end of file
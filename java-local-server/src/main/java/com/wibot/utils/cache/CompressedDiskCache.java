@@ -0,0 +1,216 @@
+package com.wibot.utils.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 基于磁盘的字符串缓存，每个条目gzip压缩后单独存为一个文件
+ *
+ * 1）按总字节数做LRU淘汰，访问时刷新文件修改时间，重启后按修改时间恢复LRU顺序 2）可选的过期时间
+ * 3）key 由调用方保证只包含文件名安全的字符
+ */
+public class CompressedDiskCache {
+    private static final Logger logger = LoggerFactory.getLogger(CompressedDiskCache.class);
+
+    private static final String ENTRY_SUFFIX = ".gz";
+
+    private final Path rootDir;
+    private final LongSupplier maxBytesSupplier;
+    private final long ttlMillis;
+
+    // key -> 压缩后的文件大小，按访问顺序排列
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param rootDir          缓存目录
+     * @param maxBytesSupplier 缓存总大小上限（压缩后），每次写入时读取，便于动态调整
+     * @param ttlMillis        条目过期时间，0 表示不过期
+     */
+    public CompressedDiskCache(Path rootDir, LongSupplier maxBytesSupplier, long ttlMillis) {
+        this.rootDir = rootDir;
+        this.maxBytesSupplier = maxBytesSupplier;
+        this.ttlMillis = ttlMillis;
+        load();
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(rootDir);
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(rootDir)) {
+                paths.filter(p -> p.getFileName().toString().endsWith(ENTRY_SUFFIX)).forEach(files::add);
+            }
+            files.sort(Comparator.comparingLong(this::lastModifiedMillis));
+            synchronized (this) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+                    Path expected = entryPath(key);
+                    if (!file.equals(expected)) {
+                        // 旧版本按其他规则分目录的条目移到当前位置
+                        Files.createDirectories(expected.getParent());
+                        Files.move(file, expected, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    long size = Files.size(expected);
+                    Long previous = entries.put(key, size);
+                    totalBytes += size - (previous != null ? previous : 0);
+                }
+            }
+            evictIfNeeded();
+            logger.info("Loaded disk cache {} with {} entries, {} bytes", rootDir, entries.size(), totalBytes);
+        } catch (IOException e) {
+            logger.error("Failed to load disk cache: {}", rootDir, e);
+        }
+    }
+
+    public String get(String key) {
+        synchronized (this) {
+            // 用 get 而不是 containsKey，命中时才会刷新访问顺序
+            if (entries.get(key) == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+        }
+        Path file = entryPath(key);
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(Files.newInputStream(file)))) {
+            long createdAt = in.readLong();
+            if (ttlMillis > 0 && System.currentTimeMillis() - createdAt > ttlMillis) {
+                in.close();
+                remove(key);
+                missCount.incrementAndGet();
+                return null;
+            }
+            int length = in.readInt();
+            byte[] bytes = in.readNBytes(length);
+            // 刷新修改时间，重启后仍能按最近访问恢复LRU顺序
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hitCount.incrementAndGet();
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Failed to read cache entry {}, dropping it", key, e);
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, String value) {
+        Path file = entryPath(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            try (OutputStream os = Files.newOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new GZIPOutputStream(os))) {
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(file);
+            synchronized (this) {
+                Long previous = entries.put(key, size);
+                totalBytes += size - (previous != null ? previous : 0);
+            }
+            evictIfNeeded();
+        } catch (IOException e) {
+            logger.warn("Failed to write cache entry {}", key, e);
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (this) {
+            Long size = entries.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+        deleteQuietly(entryPath(key));
+    }
+
+    private void evictIfNeeded() {
+        long maxBytes = maxBytesSupplier.getAsLong();
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                totalBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String key : evicted) {
+            deleteQuietly(entryPath(key));
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private Path entryPath(String key) {
+        // 按key的hash分256个目录，避免单个目录下文件过多；key本身常以相同的前缀开头，不能直接用前几个字符
+        int hash = Hashing.murmur3_32_fixed().hashString(key, StandardCharsets.UTF_8).asInt();
+        String shard = String.format("%02x", hash & 0xff);
+        return rootDir.resolve(shard).resolve(key + ENTRY_SUFFIX);
+    }
+
+    private long lastModifiedMillis(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete cache file {}", file, e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("totalBytes", totalBytes);
+        }
+        stats.put("maxBytes", maxBytesSupplier.getAsLong());
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("evictionCount", evictionCount.get());
+        stats.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        return stats;
+    }
+}
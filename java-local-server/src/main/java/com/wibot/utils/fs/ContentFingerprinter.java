@@ -0,0 +1,19 @@
+package com.wibot.utils.fs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 文件内容指纹算法
+ *
+ * 指纹以“算法前缀:十六进制值”的形式保存，前缀不同的指纹不能直接比较。早期记录的是不带前缀的MD5
+ */
+public interface ContentFingerprinter {
+
+    /**
+     * @return 写在指纹前面的算法前缀，为空表示不带前缀
+     */
+    String getAlgorithm();
+
+    String fingerprint(Path file) throws IOException;
+}
@@ -0,0 +1,422 @@
+package com.wibot.utils.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 目录树的磁盘目录清单，按内存映射读取
+ *
+ * 文件结构：头部 | 目录表（按路径hash排序，二分查找） | 条目表（同一目录的直接子项连续存放） | 名称区（UTF-8）
+ *
+ * 目录记录：路径hash、修改时间、列出时间、路径在名称区的位置、首个条目下标、条目数，共40字节。
+ * 条目记录：名称位置、名称长度、类型、大小、修改时间，共32字节。
+ *
+ * 目录的修改时间只在其直接子项增删改名时变化，所以修改时间不变只说明不必重新列出该目录，子目录仍需逐个检查，
+ * 文件内容的原地修改也不会体现在目录的修改时间上
+ */
+public class DirectoryCatalog implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryCatalog.class);
+
+    private static final int MAGIC = 0x57434154; // "WCAT"
+    private static final int FORMAT_VERSION = 2; // 版本1的条目带有未使用的内容hash
+    private static final int HEADER_BYTES = 32;
+    private static final int DIR_RECORD_BYTES = 40;
+    private static final int ENTRY_RECORD_BYTES = 32;
+
+    private static final int FLAG_DIRECTORY = 1;
+
+    /**
+     * 目录在列出时刻前后这段时间内被修改时，修改时间可能没有变化（文件系统时间精度有限），视为已变化
+     */
+    private static final long RACY_WINDOW_MS = 2000;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer dirTable;
+    private final MappedByteBuffer entryTable;
+    private final MappedByteBuffer names;
+    private final int dirCount;
+    private boolean closed;
+
+    /**
+     * 目录清单中的一个条目
+     */
+    public static class CatalogEntry {
+        private final String name;
+        private final boolean directory;
+        private final long size;
+        private final long lastModified;
+
+        public CatalogEntry(String name, boolean directory, long size, long lastModified) {
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private DirectoryCatalog(FileChannel channel, int dirCount, long entryCount, long namesLength) throws IOException {
+        this.channel = channel;
+        this.dirCount = dirCount;
+        long dirTableBytes = (long) dirCount * DIR_RECORD_BYTES;
+        long entryTableBytes = entryCount * ENTRY_RECORD_BYTES;
+        this.dirTable = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, dirTableBytes);
+        this.entryTable = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + dirTableBytes, entryTableBytes);
+        this.names = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + dirTableBytes + entryTableBytes,
+                namesLength);
+    }
+
+    /**
+     * 打开已有的目录清单，文件不存在或格式不符时返回 null
+     */
+    public static DirectoryCatalog open(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                logger.warn("Ignoring incompatible directory catalog: {}", file);
+                channel.close();
+                return null;
+            }
+            int dirCount = header.getInt();
+            header.getInt();
+            long entryCount = header.getLong();
+            long namesLength = header.getLong();
+            return new DirectoryCatalog(channel, dirCount, entryCount, namesLength);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Failed to open directory catalog {}: {}", file, e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 取出目录上次记录的直接子项
+     *
+     * @param dir          目录完整路径
+     * @param lastModified 目录当前的修改时间
+     * @return 目录未变化时返回记录的子项，未记录、已变化或处于时间精度窗口内时返回 null
+     */
+    public List<CatalogEntry> getUnchangedEntries(String dir, long lastModified) {
+        int index = findDirectory(dir);
+        if (index < 0) {
+            return null;
+        }
+        int base = index * DIR_RECORD_BYTES;
+        long recordedModified = dirTable.getLong(base + 8);
+        long listedAt = dirTable.getLong(base + 16);
+        if (recordedModified != lastModified || lastModified >= listedAt - RACY_WINDOW_MS) {
+            return null;
+        }
+        return readEntries(index);
+    }
+
+    private List<CatalogEntry> readEntries(int dirIndex) {
+        int base = dirIndex * DIR_RECORD_BYTES;
+        int firstEntry = dirTable.getInt(base + 32);
+        int entryCount = dirTable.getInt(base + 36);
+        List<CatalogEntry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            int pos = (firstEntry + i) * ENTRY_RECORD_BYTES;
+            long nameOffset = entryTable.getLong(pos);
+            int nameLength = entryTable.getInt(pos + 8);
+            int flags = entryTable.getInt(pos + 12);
+            entries.add(new CatalogEntry(readName(nameOffset, nameLength), (flags & FLAG_DIRECTORY) != 0,
+                    entryTable.getLong(pos + 16), entryTable.getLong(pos + 24)));
+        }
+        return entries;
+    }
+
+    private int findDirectory(String dir) {
+        long hash = pathHash(dir);
+        int low = 0;
+        int high = dirCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midHash = dirTable.getLong(mid * DIR_RECORD_BYTES);
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                // hash 相同的记录相邻，逐个核对完整路径
+                int start = mid;
+                while (start > 0 && dirTable.getLong((start - 1) * DIR_RECORD_BYTES) == hash) {
+                    start--;
+                }
+                for (int i = start; i < dirCount && dirTable.getLong(i * DIR_RECORD_BYTES) == hash; i++) {
+                    int base = i * DIR_RECORD_BYTES;
+                    if (readName(dirTable.getInt(base + 24) & 0xFFFFFFFFL, dirTable.getInt(base + 28)).equals(dir)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private String readName(long offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = names.duplicate();
+        view.position((int) offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static long pathHash(String path) {
+        // 64位 FNV-1a，再做一次混合让高位分布均匀
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    /**
+     * 显式解除映射，Windows 上映射未解除时清单文件无法被新清单替换
+     */
+    @Override
+    public synchronized void close() {
+        // 解除映射后再访问会导致进程崩溃，只能解除一次
+        if (closed) {
+            return;
+        }
+        closed = true;
+        MappedBuffers.unmap(dirTable);
+        MappedBuffers.unmap(entryTable);
+        MappedBuffers.unmap(names);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close directory catalog", e);
+        }
+    }
+
+    /**
+     * 在一次遍历中按目录写出新的清单，全部写完后原子替换旧文件。中途失败时调用 abort 丢弃
+     */
+    public static class Writer implements AutoCloseable {
+        private final Path target;
+        private final Path entriesFile;
+        private final Path namesFile;
+        private final DataOutputStream entriesOut;
+        private final DataOutputStream namesOut;
+
+        // 每个目录一条：hash、修改时间、列出时间、路径位置、首个条目、条目数
+        private long[] dirHashes = new long[1024];
+        private long[] dirModified = new long[1024];
+        private long[] dirListedAt = new long[1024];
+        private int[] dirPathOffsets = new int[1024];
+        private int[] dirPathLengths = new int[1024];
+        private int[] dirFirstEntries = new int[1024];
+        private int[] dirEntryCounts = new int[1024];
+        private int dirCount = 0;
+        private int entryCount = 0;
+        private long namesLength = 0;
+        private boolean finished = false;
+
+        public Writer(Path target) throws IOException {
+            this.target = target;
+            Files.createDirectories(target.getParent());
+            this.entriesFile = Files.createTempFile(target.getParent(), "entries", ".tmp");
+            this.namesFile = Files.createTempFile(target.getParent(), "names", ".tmp");
+            this.entriesOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(entriesFile)));
+            this.namesOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(namesFile)));
+        }
+
+        /**
+         * 记录一个目录及其全部直接子项
+         */
+        public void addDirectory(String dir, long lastModified, long listedAt, List<CatalogEntry> entries)
+                throws IOException {
+            ensureCapacity();
+            byte[] pathBytes = dir.getBytes(StandardCharsets.UTF_8);
+            if (namesLength + pathBytes.length > Integer.MAX_VALUE) {
+                throw new IOException("Directory catalog name area too large");
+            }
+            dirHashes[dirCount] = pathHash(dir);
+            dirModified[dirCount] = lastModified;
+            dirListedAt[dirCount] = listedAt;
+            dirPathOffsets[dirCount] = (int) namesLength;
+            dirPathLengths[dirCount] = pathBytes.length;
+            dirFirstEntries[dirCount] = entryCount;
+            dirEntryCounts[dirCount] = entries.size();
+            dirCount++;
+            namesOut.write(pathBytes);
+            namesLength += pathBytes.length;
+
+            for (CatalogEntry entry : entries) {
+                byte[] nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+                entriesOut.writeLong(namesLength);
+                entriesOut.writeInt(nameBytes.length);
+                entriesOut.writeInt(entry.directory ? FLAG_DIRECTORY : 0);
+                entriesOut.writeLong(entry.size);
+                entriesOut.writeLong(entry.lastModified);
+                namesOut.write(nameBytes);
+                namesLength += nameBytes.length;
+                entryCount++;
+            }
+        }
+
+        private void ensureCapacity() {
+            if (dirCount < dirHashes.length) {
+                return;
+            }
+            int size = dirHashes.length * 2;
+            dirHashes = Arrays.copyOf(dirHashes, size);
+            dirModified = Arrays.copyOf(dirModified, size);
+            dirListedAt = Arrays.copyOf(dirListedAt, size);
+            dirPathOffsets = Arrays.copyOf(dirPathOffsets, size);
+            dirPathLengths = Arrays.copyOf(dirPathLengths, size);
+            dirFirstEntries = Arrays.copyOf(dirFirstEntries, size);
+            dirEntryCounts = Arrays.copyOf(dirEntryCounts, size);
+        }
+
+        /**
+         * 写出完整的清单并替换旧文件
+         */
+        public void commit() throws IOException {
+            entriesOut.close();
+            namesOut.close();
+
+            // 目录表按hash排序，读取时二分查找
+            Integer[] order = new Integer[dirCount];
+            for (int i = 0; i < dirCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(dirHashes[a], dirHashes[b]));
+
+            Path tmp = Files.createTempFile(target.getParent(), "catalog", ".tmp");
+            try {
+                writeCatalog(tmp, order);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                finished = true;
+            } finally {
+                if (!finished) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            deleteTempFiles();
+            logger.debug("Wrote directory catalog {} with {} directories and {} entries", target, dirCount,
+                    entryCount);
+        }
+
+        private void writeCatalog(Path tmp, Integer[] order) throws IOException {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(dirCount).putInt(0).putLong(entryCount)
+                        .putLong(namesLength).flip();
+                writeFully(out, header);
+
+                ByteBuffer dirBuffer = ByteBuffer.allocate(DIR_RECORD_BYTES * 1024);
+                for (int i : order) {
+                    if (dirBuffer.remaining() < DIR_RECORD_BYTES) {
+                        dirBuffer.flip();
+                        writeFully(out, dirBuffer);
+                        dirBuffer.clear();
+                    }
+                    dirBuffer.putLong(dirHashes[i]).putLong(dirModified[i]).putLong(dirListedAt[i])
+                            .putInt(dirPathOffsets[i]).putInt(dirPathLengths[i]).putInt(dirFirstEntries[i])
+                            .putInt(dirEntryCounts[i]);
+                }
+                dirBuffer.flip();
+                writeFully(out, dirBuffer);
+
+                appendFile(out, entriesFile);
+                appendFile(out, namesFile);
+            }
+        }
+
+        private void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+
+        private void appendFile(FileChannel out, Path file) throws IOException {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                long position = 0;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+        }
+
+        /**
+         * 丢弃写了一半的清单，旧文件保持不变
+         */
+        public void abort() {
+            try {
+                entriesOut.close();
+                namesOut.close();
+            } catch (IOException ignored) {
+            }
+            deleteTempFiles();
+            finished = true;
+        }
+
+        private void deleteTempFiles() {
+            try {
+                Files.deleteIfExists(entriesFile);
+                Files.deleteIfExists(namesFile);
+            } catch (IOException e) {
+                logger.warn("Failed to delete catalog temp files", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                abort();
+            }
+        }
+    }
+}
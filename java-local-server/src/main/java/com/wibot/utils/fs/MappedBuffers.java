@@ -0,0 +1,52 @@
+package com.wibot.utils.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * 立即解除内存映射，不等GC回收。Windows 上映射未解除时文件无法删除或改名
+ */
+final class MappedBuffers {
+    private static final Logger logger = LoggerFactory.getLogger(MappedBuffers.class);
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            logger.info("Mapped buffers will be released by GC: {}", e.toString());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * 解除映射后不能再访问该缓冲区
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (Exception e) {
+            logger.debug("Failed to unmap buffer: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.wibot.utils.fs;
+
+import com.google.common.hash.HashCode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 不带前缀的MD5指纹，与早期记录的格式一致，用于校验旧记录
+ */
+public class Md5Fingerprinter implements ContentFingerprinter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public String getAlgorithm() {
+        return "";
+    }
+
+    @Override
+    public String fingerprint(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                md.update(buffer, 0, bytesRead);
+            }
+        }
+        return HashCode.fromBytes(md.digest()).toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.wibot.utils.fs;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 基于 murmur3_128 的内容指纹，非加密hash，只用于判断内容是否变化
+ *
+ * 1）小文件读入复用的直接缓冲区，大文件按窗口内存映射后直接hash，不经过堆内存 2）映射用完立即解除，避免
+ * Windows 上文件在GC前无法删除或改名 3）可选的抽样模式：超大文件只hash文件大小和头、尾及均匀分布的若干块，
+ * 抽样之外的原地修改无法发现，指纹使用单独的前缀
+ */
+public class Murmur3Fingerprinter implements ContentFingerprinter {
+    public static final String ALGORITHM = "m3";
+    public static final String SAMPLED_ALGORITHM = "m3s";
+
+    private static final int SMALL_FILE_SIZE = 256 * 1024; // 以下直接读取，映射的开销大于收益
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int SAMPLE_BLOCK_SIZE = 1024 * 1024;
+    private static final int SAMPLE_BLOCK_COUNT = 16; // 含头尾两块
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(SAMPLE_BLOCK_SIZE));
+
+    private final long sampleThreshold;
+
+    /**
+     * @param sampleThreshold 超过该大小的文件使用抽样模式，0 表示始终完整hash
+     */
+    public Murmur3Fingerprinter(long sampleThreshold) {
+        this.sampleThreshold = sampleThreshold;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String fingerprint(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (sampleThreshold > 0 && size > sampleThreshold) {
+                return SAMPLED_ALGORITHM + ":" + sampledHash(channel, size);
+            }
+            return ALGORITHM + ":" + fullHash(channel, size);
+        }
+    }
+
+    /**
+     * 按抽样模式计算指纹，与阈值设置无关，用于校验已有的抽样指纹
+     */
+    public String sampledFingerprint(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return SAMPLED_ALGORITHM + ":" + sampledHash(channel, channel.size());
+        }
+    }
+
+    private String fullHash(FileChannel channel, long size) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        if (size <= SMALL_FILE_SIZE) {
+            ByteBuffer buffer = READ_BUFFER.get();
+            buffer.clear();
+            while (channel.read(buffer) > 0) {
+            }
+            buffer.flip();
+            hasher.putBytes(buffer);
+            return hasher.hash().toString();
+        }
+        for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAP_WINDOW_SIZE, size - position));
+            try {
+                hasher.putBytes(mapped);
+            } finally {
+                MappedBuffers.unmap(mapped);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private String sampledHash(FileChannel channel, long size) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putLong(size);
+        ByteBuffer buffer = READ_BUFFER.get();
+        long lastBlockStart = Math.max(0, size - SAMPLE_BLOCK_SIZE);
+        for (int i = 0; i < SAMPLE_BLOCK_COUNT; i++) {
+            // 第一块从0开始，最后一块贴着文件末尾，其余均匀分布
+            long position = lastBlockStart * i / (SAMPLE_BLOCK_COUNT - 1);
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read <= 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            hasher.putBytes(buffer);
+        }
+        return hasher.hash().toString();
+    }
+}
@@ -0,0 +1,122 @@
+package com.wibot.utils.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 基于 fork/join 的并行目录遍历
+ *
+ * 1）每个目录一个任务，只列出本层条目，子目录再拆成新任务 2）目录命中排除规则时直接 SKIP_SUBTREE，不再进入
+ * 3）文件属性在列目录时一并读取，回调中不需要再次 stat 4）不跟随符号链接
+ */
+public class ParallelTreeWalker implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelTreeWalker.class);
+
+    /**
+     * 遍历回调，可能被多个线程同时调用
+     */
+    public interface Visitor {
+        /**
+         * @param dir 目录的完整路径
+         * @return true 表示整个子树都不需要遍历
+         */
+        boolean isDirectoryExcluded(Path dir);
+
+        void visitFile(Path file, BasicFileAttributes attrs);
+    }
+
+    private final ForkJoinPool pool;
+
+    public ParallelTreeWalker(int parallelism, String threadNamePrefix) {
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName(threadNamePrefix + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * 遍历目录树，阻塞到整棵树遍历完成
+     *
+     * @return 访问到的普通文件数量
+     */
+    public long walk(Path root, Visitor visitor) {
+        return pool.invoke(new DirectoryTask(root, visitor));
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private static class DirectoryTask extends RecursiveTask<Long> {
+        private final Path dir;
+        private final Visitor visitor;
+
+        DirectoryTask(Path dir, Visitor visitor) {
+            this.dir = dir;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected Long compute() {
+            List<DirectoryTask> subTasks = new ArrayList<>();
+            long[] fileCount = { 0 };
+            try {
+                // 深度为1：本层的子目录也通过 visitFile 回调给出，由这里拆成子任务
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                        return visitor.isDirectoryExcluded(d) ? FileVisitResult.SKIP_SUBTREE
+                                : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isDirectory()) {
+                            DirectoryTask task = new DirectoryTask(file, visitor);
+                            task.fork();
+                            subTasks.add(task);
+                        } else if (attrs.isRegularFile()) {
+                            fileCount[0]++;
+                            try {
+                                visitor.visitFile(file, attrs);
+                            } catch (Exception e) {
+                                logger.error("Failed to visit file: {}", file, e);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        logger.warn("Cannot access {}: {}", file, exc.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("Failed to list directory {}: {}", dir, e.getMessage());
+            }
+
+            long total = fileCount[0];
+            for (DirectoryTask task : subTasks) {
+                total += task.join();
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.wibot.utils.fs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * 按完整路径字符串升序（String.compareTo）逐个给出目录树下的普通文件
+ *
+ * 深度优先遍历，同一目录下的条目按名称排序，目录的排序键为“名称+分隔符”，这样子树内所有路径都会排在正确的位置，
+ * 例如 a.txt < a/b < a0。内存占用只与目录深度和单个目录的条目数有关，与整棵树的文件数无关
+ *
+ * 提供上一次的目录清单时，修改时间未变的目录直接按清单给出子项，不再列目录；同时把本次遍历结果写入新的清单
+ */
+public class SortedTreeIterator implements Iterator<SortedTreeIterator.Entry> {
+    private static final Logger logger = LoggerFactory.getLogger(SortedTreeIterator.class);
+
+    public static class Entry {
+        private final Path path;
+        private final String pathString;
+        private final BasicFileAttributes attrs;
+        private final String sortKey;
+
+        public Entry(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.pathString = path.toString();
+            this.attrs = attrs;
+            String name = path.getFileName().toString();
+            this.sortKey = attrs.isDirectory() ? name + File.separator : name;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public String getPathString() {
+            return pathString;
+        }
+
+        public BasicFileAttributes getAttributes() {
+            return attrs;
+        }
+    }
+
+    private static final Comparator<Entry> SIBLING_ORDER = Comparator.comparing(e -> e.sortKey);
+
+    private final Predicate<Path> directoryExcluded;
+    private final DirectoryCatalog catalog;
+    private final DirectoryCatalog.Writer catalogWriter;
+    private final boolean trustCatalogFiles;
+    private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+    private final List<Path> failedPaths = new ArrayList<>();
+    private Entry next;
+    private boolean catalogWriteFailed = false;
+    private long listedDirectories = 0;
+    private long reusedDirectories = 0;
+
+    /**
+     * @param root              根目录
+     * @param directoryExcluded 返回 true 的子目录整体跳过
+     */
+    public SortedTreeIterator(Path root, Predicate<Path> directoryExcluded) {
+        this(root, directoryExcluded, null, null, false);
+    }
+
+    /**
+     * @param root              根目录
+     * @param directoryExcluded 返回 true 的子目录整体跳过
+     * @param catalog           上一次的目录清单，可为空
+     * @param catalogWriter     本次遍历结果写入的新清单，可为空
+     * @param trustCatalogFiles 为 true 时未变化目录下的文件直接使用清单中的大小和修改时间，不再逐个读取属性。
+     *                          只有在文件的原地修改另有途径发现（如实时监听）时才能使用
+     */
+    public SortedTreeIterator(Path root, Predicate<Path> directoryExcluded, DirectoryCatalog catalog,
+            DirectoryCatalog.Writer catalogWriter, boolean trustCatalogFiles) {
+        this.directoryExcluded = directoryExcluded;
+        this.catalog = catalog;
+        this.catalogWriter = catalogWriter;
+        this.trustCatalogFiles = trustCatalogFiles;
+        BasicFileAttributes rootAttrs = null;
+        try {
+            rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+        } catch (IOException e) {
+            logger.warn("Cannot read attributes of {}: {}", root, e.getMessage());
+        }
+        stack.push(listSorted(root, rootAttrs).iterator());
+        advance();
+    }
+
+    private void advance() {
+        next = null;
+        while (!stack.isEmpty()) {
+            Iterator<Entry> current = stack.peek();
+            if (!current.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Entry entry = current.next();
+            if (entry.attrs.isDirectory()) {
+                if (!directoryExcluded.test(entry.path)) {
+                    stack.push(listSorted(entry.path, entry.attrs).iterator());
+                }
+            } else if (entry.attrs.isRegularFile()) {
+                next = entry;
+                return;
+            }
+        }
+    }
+
+    private List<Entry> listSorted(Path dir, BasicFileAttributes dirAttrs) {
+        long listedAt = System.currentTimeMillis();
+        long dirModified = dirAttrs != null ? dirAttrs.lastModifiedTime().toMillis() : -1;
+        List<DirectoryCatalog.CatalogEntry> recorded = null;
+        if (catalog != null && dirAttrs != null) {
+            recorded = catalog.getUnchangedEntries(dir.toString(), dirModified);
+        }
+
+        List<Entry> entries;
+        boolean complete;
+        if (recorded != null) {
+            reusedDirectories++;
+            entries = new ArrayList<>(recorded.size());
+            complete = replay(dir, recorded, entries);
+        } else {
+            listedDirectories++;
+            entries = new ArrayList<>();
+            complete = list(dir, entries);
+        }
+        entries.sort(SIBLING_ORDER);
+
+        // 列出不完整的目录不写入清单，下次重新列出
+        if (catalogWriter != null && !catalogWriteFailed && complete && dirAttrs != null) {
+            recordDirectory(dir, dirModified, listedAt, entries);
+        }
+        return entries;
+    }
+
+    private boolean list(Path dir, List<Entry> entries) {
+        boolean[] complete = { true };
+        try {
+            // 深度为1时子目录也通过 visitFile 给出，属性随目录列表一起读取
+            Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    entries.add(new Entry(file, attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    logger.warn("Cannot access {}: {}", file, exc.getMessage());
+                    failedPaths.add(file);
+                    complete[0] = false;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to list directory {}: {}", dir, e.getMessage());
+            failedPaths.add(dir);
+            return false;
+        }
+        return complete[0];
+    }
+
+    /**
+     * 按清单给出未变化目录的子项。子目录仍需读取属性，用于判断它自己是否变化
+     */
+    private boolean replay(Path dir, List<DirectoryCatalog.CatalogEntry> recorded, List<Entry> entries) {
+        boolean complete = true;
+        for (DirectoryCatalog.CatalogEntry item : recorded) {
+            Path child = dir.resolve(item.getName());
+            if (!item.isDirectory() && trustCatalogFiles) {
+                entries.add(new Entry(child, new CatalogFileAttributes(item)));
+                continue;
+            }
+            try {
+                entries.add(new Entry(child,
+                        Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+            } catch (NoSuchFileException e) {
+                // 列出后刚被删除，目录的修改时间会在下次同步时体现
+                complete = false;
+            } catch (IOException e) {
+                logger.warn("Cannot access {}: {}", child, e.getMessage());
+                failedPaths.add(child);
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    private void recordDirectory(Path dir, long dirModified, long listedAt, List<Entry> entries) {
+        List<DirectoryCatalog.CatalogEntry> items = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            String name = entry.path.getFileName().toString();
+            boolean directory = entry.attrs.isDirectory();
+            long size = directory ? 0 : entry.attrs.size();
+            long modified = entry.attrs.lastModifiedTime().toMillis();
+            items.add(new DirectoryCatalog.CatalogEntry(name, directory, size, modified));
+        }
+        try {
+            catalogWriter.addDirectory(dir.toString(), dirModified, listedAt, items);
+        } catch (IOException e) {
+            logger.warn("Failed to write directory catalog, it will be rebuilt next time: {}", e.getMessage());
+            catalogWriteFailed = true;
+        }
+    }
+
+    /**
+     * 新清单是否完整写入。写入失败时调用方应丢弃新清单
+     */
+    public boolean isCatalogComplete() {
+        return !catalogWriteFailed;
+    }
+
+    public long getListedDirectories() {
+        return listedDirectories;
+    }
+
+    public long getReusedDirectories() {
+        return reusedDirectories;
+    }
+
+    /**
+     * 遍历中无法访问的文件或目录。它们下面的文件没有被列出，不能据此判断为已删除
+     */
+    public List<Path> getFailedPaths() {
+        return failedPaths;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Entry next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        Entry result = next;
+        advance();
+        return result;
+    }
+
+    /**
+     * 清单中记录的文件属性
+     */
+    private static class CatalogFileAttributes implements BasicFileAttributes {
+        private final DirectoryCatalog.CatalogEntry item;
+
+        CatalogFileAttributes(DirectoryCatalog.CatalogEntry item) {
+            this.item = item;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return FileTime.fromMillis(item.getLastModified());
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return lastModifiedTime();
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return !item.isDirectory();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return item.isDirectory();
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return false;
+        }
+
+        @Override
+        public boolean isOther() {
+            return false;
+        }
+
+        @Override
+        public long size() {
+            return item.getSize();
+        }
+
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+    }
+}
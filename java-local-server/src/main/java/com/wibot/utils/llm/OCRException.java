@@ -0,0 +1,16 @@
+package com.wibot.utils.llm;
+
+/**
+ * OCR调用失败（图片编码失败、模型请求出错或没有返回结果），与识别成功但图中没有文字区分开
+ */
+public class OCRException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public OCRException(String message) {
+        super(message);
+    }
+
+    public OCRException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -3,6 +3,11 @@ package com.wibot.utils.llm;
 import java.awt.image.BufferedImage;
 
 public interface OCRService {
+    /**
+     * 识别图片中的文字。图中没有文字时返回空字符串
+     *
+     * @throws OCRException 调用失败，稍后重试可能成功
+     */
     String recognizeText(BufferedImage image);
 
 }
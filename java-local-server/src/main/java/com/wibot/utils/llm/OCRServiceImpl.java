@@ -74,17 +74,20 @@ public class OCRServiceImpl implements OCRService {
 
             // 发送请求并获取响应
             ChatResponse response = singletonLLMChat.sendThrottledMediaRequest(mediaPrompt);
+            if (response == null || response.getResults().isEmpty()) {
+                throw new OCRException("OCR model returned no result");
+            }
             String result = response.getResults().get(0).getOutput().getText();
 
             logger.info("Successfully recognized text from image");
-            return result;
+            return result != null ? result : "";
 
+        } catch (OCRException e) {
+            throw e;
         } catch (IOException e) {
-            logger.error("Failed to process image for OCR: {}", e.getMessage());
-            return "";
+            throw new OCRException("Failed to encode image for OCR", e);
         } catch (Exception e) {
-            logger.error("Unexpected error during OCR processing", e);
-            return "";
+            throw new OCRException("OCR request failed", e);
         }
     }
 
@@ -1,32 +1,54 @@
 package com.wibot.utils.llm;
 
+import java.io.File;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * gitignore 风格的忽略规则，构造时一次编译，匹配时按路径段逐段比较
+ *
+ * 规则分两类：1）以“*.”开头的文件规则，匹配路径末尾的若干段（等价于 X 和 ** /X 两个glob）
+ * 2）其余为目录规则，匹配路径中任意位置连续的若干段及其下所有内容（等价于 X、X/**、** /X、** /X/** 四个glob），
+ * 以“/**”结尾的目录规则只匹配目录下的内容，不匹配目录本身。
+ * 只含普通字符的单段规则放进hash表直接查找，其余按段编译成正则；规则中间含 ** 等无法按段处理的写法时，
+ * 退回预先编译好的 glob 匹配器。Windows 上与系统glob一致，不区分大小写
+ */
 public class PathMatcherUtil {
     private static final Logger logger = LoggerFactory.getLogger(PathMatcherUtil.class);
-    private final List<PathMatcher> matchers = new ArrayList<>();
-    private final List<String> globPatterns = new ArrayList<>(); // 存储转换后的glob模式
+    private static final boolean CASE_INSENSITIVE = File.separatorChar == '\\';
+
+    // 文件规则：*.ext 形式的扩展名（不含开头的点）
+    private final Set<String> fileExtensions = new HashSet<>();
+    // 目录规则：单段普通名称；以 /** 结尾、只匹配目录下内容的单独存放
+    private final Set<String> directoryNames = new HashSet<>();
+    private final Set<String> contentDirectoryNames = new HashSet<>();
+    // 需要逐段比较的规则；目录规则按首段的普通名称建索引，首段含通配符的单独存放
+    private final List<SegmentRule> fileRules = new ArrayList<>();
+    private final Map<String, List<SegmentRule>> directoryRulesByFirstName = new HashMap<>();
+    private final List<SegmentRule> directoryRulesWithWildcardStart = new ArrayList<>();
+    // 无法按段处理的规则
+    private final List<PathMatcher> fallbackMatchers = new ArrayList<>();
+    private final List<PathMatcher> fallbackDirectoryMatchers = new ArrayList<>();
 
     public PathMatcherUtil(List<String> patterns) {
         for (String pattern : patterns) {
-            String globPattern = convertToGlob(pattern.trim());
-            // logger.debug("Converting pattern '{}' to glob pattern '{}'", pattern,
-            // globPattern);
-            globPatterns.add(globPattern);
-            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + globPattern));
+            compile(pattern.trim());
         }
     }
 
-    private String convertToGlob(String pattern) {
-        // logger.debug("Starting to convert pattern: {}", pattern);
-        pattern = pattern.trim();
-
+    private void compile(String pattern) {
         // 移除开头和结尾的斜杠
         if (pattern.startsWith("/")) {
             pattern = pattern.substring(1);
@@ -40,51 +62,321 @@ public class PathMatcherUtil {
         if (pattern.startsWith("**/")) {
             basePattern = pattern.substring(3);
         }
+        if (basePattern.isEmpty()) {
+            return;
+        }
 
-        // 对于文件扩展名模式（如 *.avi）
-        if (basePattern.startsWith("*.")) {
-            String filePattern = basePattern; // 直接匹配文件
-            String nestedPattern = "**/" + basePattern; // 匹配子目录中的文件
-            globPatterns.add(filePattern);
-            return nestedPattern;
+        boolean fileRule = basePattern.startsWith("*.");
+        boolean contentOnly = false;
+        if (!fileRule && basePattern.endsWith("/**") && basePattern.length() > 3) {
+            basePattern = basePattern.substring(0, basePattern.length() - 3);
+            contentOnly = true;
+        }
+        if (basePattern.contains("**") || basePattern.indexOf('\\') >= 0) {
+            if (contentOnly) {
+                basePattern = basePattern + "/**";
+            }
+            compileFallback(basePattern, fileRule);
+            return;
         }
 
-        // 对于目录模式
-        String dirPattern = basePattern; // 直接匹配目录
-        String dirContent = basePattern + "/**"; // 目录下文件
-        String nestedPattern = "**/" + basePattern; // 子目录
-        String nestedContent = nestedPattern + "/**"; // 子目录下文件
+        String[] segments = basePattern.split("/");
+        SegmentRule rule;
+        try {
+            rule = new SegmentRule(segments, contentOnly);
+        } catch (IllegalArgumentException e) {
+            // 与原glob一致：规则语法错误时在编译阶段报错
+            throw new PatternSyntaxException(e.getMessage(), basePattern, -1);
+        }
+
+        if (fileRule) {
+            String extension = basePattern.substring(2);
+            if (segments.length == 1 && isLiteral(extension)) {
+                fileExtensions.add(normalizeCase(extension));
+            } else {
+                fileRules.add(rule);
+            }
+        } else if (segments.length == 1 && rule.literals[0] != null) {
+            (contentOnly ? contentDirectoryNames : directoryNames).add(rule.literals[0]);
+        } else if (rule.literals[0] != null) {
+            directoryRulesByFirstName.computeIfAbsent(rule.literals[0], k -> new ArrayList<>()).add(rule);
+        } else {
+            directoryRulesWithWildcardStart.add(rule);
+        }
+    }
 
-        globPatterns.add(dirPattern);
-        globPatterns.add(dirContent);
-        globPatterns.add(nestedPattern);
-        globPatterns.add(nestedContent);
+    private void compileFallback(String basePattern, boolean fileRule) {
+        logger.debug("Pattern '{}' is matched with plain globs", basePattern);
+        if (fileRule) {
+            fallbackMatchers.add(globMatcher(basePattern));
+            fallbackMatchers.add(globMatcher("**/" + basePattern));
+            return;
+        }
+        PathMatcher dir = globMatcher(basePattern);
+        PathMatcher nested = globMatcher("**/" + basePattern);
+        fallbackMatchers.add(dir);
+        fallbackMatchers.add(globMatcher(basePattern + "/**"));
+        fallbackMatchers.add(nested);
+        fallbackMatchers.add(globMatcher("**/" + basePattern + "/**"));
+        fallbackDirectoryMatchers.add(dir);
+        fallbackDirectoryMatchers.add(nested);
+    }
 
-        return nestedPattern;
+    private PathMatcher globMatcher(String glob) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + glob);
     }
 
     public boolean matches(Path path) {
-        // logger.debug("Trying to match path: {}", path);
-        String pathString = path.toString().replace('\\', '/');
-        // logger.debug("Normalized path: {}", pathString);
-
-        // 移除开头的斜杠以确保正确匹配
-        if (pathString.startsWith("/")) {
-            pathString = pathString.substring(1);
-        }
-
-        Path normalizedPath = Path.of(pathString);
-        for (String pattern : globPatterns) {
-            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
-            boolean matches = matcher.matches(normalizedPath);
-            // logger.debug("Pattern '{}' {} path '{}'",
-            // pattern,
-            // matches ? "matches" : "does not match",
-            // pathString);
-            if (matches) {
+        String[] segments = toSegments(path);
+        if (segments.length == 0) {
+            return false;
+        }
+
+        // 文件规则：看文件名的扩展名，以及末尾若干段
+        String fileName = segments[segments.length - 1];
+        for (int dot = fileName.indexOf('.'); dot >= 0; dot = fileName.indexOf('.', dot + 1)) {
+            // * 可以匹配任意前缀（包括含点或为空），所以每个点之后的部分都要查
+            if (fileExtensions.contains(fileName.substring(dot + 1))) {
+                return true;
+            }
+        }
+        for (SegmentRule rule : fileRules) {
+            if (rule.matchesAt(segments, segments.length - rule.length())) {
+                return true;
+            }
+        }
+
+        // 目录规则：任意位置命中即整个子树都被忽略
+        for (int i = 0; i < segments.length; i++) {
+            if (matchesDirectoryRuleAt(segments, i, false)) {
+                return true;
+            }
+        }
+        return matchesFallback(fallbackMatchers, path);
+    }
+
+    /**
+     * 目录本身命中目录规则时，其下所有文件也都会被 matches 命中，遍历时可以整体跳过
+     *
+     * @param directory 相对监控根目录的目录路径
+     */
+    public boolean isDirectoryExcluded(Path directory) {
+        String[] segments = toSegments(directory);
+        if (segments.length == 0) {
+            return false;
+        }
+        // 只看 X 和 ** /X 两个glob：普通目录规则须以最后一段结尾，只匹配内容的规则须后面还有路径段
+        for (int i = 0; i < segments.length; i++) {
+            if (matchesDirectoryRuleAt(segments, i, true)) {
+                return true;
+            }
+        }
+        return matchesFallback(fallbackDirectoryMatchers, directory);
+    }
+
+    /**
+     * @param directoryOnly 为 true 时只按目录glob判断，普通目录规则必须恰好匹配到最后一段
+     */
+    private boolean matchesDirectoryRuleAt(String[] segments, int start, boolean directoryOnly) {
+        String segment = segments[start];
+        boolean last = start == segments.length - 1;
+        if (directoryNames.contains(segment) && (!directoryOnly || last)) {
+            return true;
+        }
+        if (!last && contentDirectoryNames.contains(segment)) {
+            return true;
+        }
+        List<SegmentRule> indexed = directoryRulesByFirstName.get(segment);
+        if (indexed != null) {
+            for (SegmentRule rule : indexed) {
+                if (rule.acceptsEnd(start + rule.length(), segments.length, directoryOnly)
+                        && rule.matchesAt(segments, start)) {
+                    return true;
+                }
+            }
+        }
+        for (SegmentRule rule : directoryRulesWithWildcardStart) {
+            if (rule.acceptsEnd(start + rule.length(), segments.length, directoryOnly)
+                    && rule.matchesAt(segments, start)) {
                 return true;
             }
         }
         return false;
     }
-}
\ No newline at end of file
+
+    private boolean matchesFallback(List<PathMatcher> matchers, Path path) {
+        if (matchers.isEmpty()) {
+            return false;
+        }
+        Path normalizedPath = Path.of(String.join("/", toSegments(path)));
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(normalizedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String[] toSegments(Path path) {
+        String pathString = normalizeCase(path.toString().replace('\\', '/'));
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= pathString.length(); i++) {
+            if (i == pathString.length() || pathString.charAt(i) == '/') {
+                // 与 Path.of 一致：忽略开头的斜杠和连续的斜杠
+                if (i > start) {
+                    segments.add(pathString.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static String normalizeCase(String s) {
+        return CASE_INSENSITIVE ? s.toLowerCase(Locale.ROOT) : s;
+    }
+
+    private static boolean isLiteral(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("*?[]{}\\".indexOf(s.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按段编译的规则，每段为普通名称或正则
+     */
+    private static class SegmentRule {
+        private final String[] literals;
+        private final Pattern[] patterns;
+        private final boolean contentOnly;
+
+        SegmentRule(String[] segments, boolean contentOnly) {
+            this.contentOnly = contentOnly;
+            literals = new String[segments.length];
+            patterns = new Pattern[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].isEmpty()) {
+                    throw new IllegalArgumentException("Empty path segment");
+                }
+                if (isLiteral(segments[i])) {
+                    literals[i] = normalizeCase(segments[i]);
+                } else {
+                    patterns[i] = Pattern.compile(segmentToRegex(segments[i]),
+                            CASE_INSENSITIVE ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+                }
+            }
+        }
+
+        int length() {
+            return literals.length;
+        }
+
+        /**
+         * 规则匹配到第 end 段之前时是否成立：只匹配内容的规则后面必须还有路径段
+         */
+        boolean acceptsEnd(int end, int segmentCount, boolean directoryOnly) {
+            if (contentOnly) {
+                return end < segmentCount;
+            }
+            return !directoryOnly || end == segmentCount;
+        }
+
+        boolean matchesAt(String[] segments, int start) {
+            if (start < 0 || start + literals.length > segments.length) {
+                return false;
+            }
+            for (int i = 0; i < literals.length; i++) {
+                String segment = segments[start + i];
+                if (literals[i] != null ? !literals[i].equals(segment) : !patterns[i].matcher(segment).matches()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 把单个路径段的glob转换为正则，语法与 FileSystem.getPathMatcher 的 glob 一致：* ? [...] [!...] {a,b}
+     */
+    static String segmentToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[': {
+                    regex.append('[');
+                    int j = i + 1;
+                    if (j < glob.length() && glob.charAt(j) == '^') {
+                        regex.append("\\^");
+                        j++;
+                    } else {
+                        if (j < glob.length() && glob.charAt(j) == '!') {
+                            regex.append('^');
+                            j++;
+                        }
+                        if (j < glob.length() && glob.charAt(j) == '-') {
+                            regex.append('-');
+                            j++;
+                        }
+                    }
+                    boolean closed = false;
+                    while (j < glob.length()) {
+                        char k = glob.charAt(j++);
+                        if (k == ']') {
+                            closed = true;
+                            break;
+                        }
+                        if (k == '[' || (k == '&' && j < glob.length() && glob.charAt(j) == '&')) {
+                            regex.append('\\');
+                        }
+                        regex.append(k);
+                    }
+                    if (!closed) {
+                        throw new IllegalArgumentException("Missing ']'");
+                    }
+                    regex.append(']');
+                    i = j - 1;
+                    break;
+                }
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("Cannot nest groups");
+                    }
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? ")|(?:" : ",");
+                    break;
+                default:
+                    if (".^$+()|".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Missing '}'");
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,192 @@
+package com.wibot.documentLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.Query;
+
+import com.wibot.persistence.DocumentDataRepository;
+import com.wibot.persistence.entity.DocumentDataPO;
+
+/**
+ * 两个实例通过各自的连接（与配置相同的 AUTO_SERVER 文件库）同时认领同一批文档，
+ * 使用 DocumentDataRepository 上的认领/释放语句，验证每个文档只被认领一次、过期租约可被接管
+ */
+public class DocumentLeaseClaimTest {
+    private static final int DOCUMENT_COUNT = 200;
+    private static final int THREADS_PER_INSTANCE = 4;
+
+    private Path dbDir;
+    private Connection instanceA;
+    private Connection instanceB;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dbDir = Files.createTempDirectory("lease-test");
+        String url = "jdbc:h2:file:" + dbDir.resolve("wibo-db") + ";AUTO_SERVER=TRUE";
+        instanceA = DriverManager.getConnection(url, "sa", "password");
+        instanceB = DriverManager.getConnection(url, "sa", "password");
+        try (Statement st = instanceA.createStatement()) {
+            st.execute("CREATE TABLE document_data (id BIGINT PRIMARY KEY, processed_state VARCHAR(32), "
+                    + "processor_id VARCHAR(64), last_processing_update TIMESTAMP, version INT)");
+        }
+        try (PreparedStatement ps = instanceA.prepareStatement(
+                "INSERT INTO document_data (id, processed_state, version) VALUES (?, ?, 0)")) {
+            for (long id = 1; id <= DOCUMENT_COUNT; id++) {
+                ps.setLong(1, id);
+                ps.setString(2, DocumentDataPO.PROCESSED_STATE_FILE_SAVED);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        instanceA.close();
+        instanceB.close();
+        try (var paths = Files.walk(dbDir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    void testEachDocumentClaimedOnceAcrossInstances() throws Exception {
+        Map<Long, String> owners = new ConcurrentHashMap<>();
+        Map<Long, Integer> claimCounts = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS_PER_INSTANCE * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS_PER_INSTANCE * 2; i++) {
+            Connection connection = i % 2 == 0 ? instanceA : instanceB;
+            String owner = (i % 2 == 0 ? "A-" : "B-") + i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                // 所有线程按相同顺序争抢全部文档
+                for (long id = 1; id <= DOCUMENT_COUNT; id++) {
+                    LocalDateTime now = LocalDateTime.now();
+                    if (claim(connection, id, owner, now, now.minusMinutes(5)) == 1) {
+                        owners.put(id, owner);
+                        claimCounts.merge(id, 1, Integer::sum);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(DOCUMENT_COUNT, claimCounts.size(), "每个文档都应被认领");
+        claimCounts.forEach((id, count) -> assertEquals(1, count, "文档 " + id + " 被认领了多次"));
+        assertTrue(owners.values().stream().anyMatch(o -> o.startsWith("A-")), "实例A应认领到文档");
+        assertTrue(owners.values().stream().anyMatch(o -> o.startsWith("B-")), "实例B应认领到文档");
+        for (long id = 1; id <= DOCUMENT_COUNT; id++) {
+            assertEquals(owners.get(id), readOwner(instanceA, id), "库中的认领者应与认领成功的一方一致");
+        }
+    }
+
+    @Test
+    void testExpiredLeaseCanBeTakenOver() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        assertEquals(1, claim(instanceA, 1L, "A-0", now.minusMinutes(10), now.minusMinutes(15)));
+        // 租约未过期时另一实例认领失败
+        assertEquals(0, claim(instanceB, 1L, "B-0", now, now.minusMinutes(15)));
+        // 实例A停止续约，租约过期后由实例B接管
+        assertEquals(1, claim(instanceB, 1L, "B-0", now, now.minusMinutes(5)));
+        assertEquals("B-0", readOwner(instanceA, 1L));
+    }
+
+    @Test
+    void testReleaseOnlyOwnLease() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        assertEquals(1, claim(instanceA, 1L, "A-0", now, now.minusMinutes(5)));
+        assertEquals(0, release(instanceB, 1L, "B-0"), "不能释放他人的租约");
+        assertEquals(1, release(instanceA, 1L, "A-0"));
+        assertEquals(1, claim(instanceB, 1L, "B-0", now, now.minusMinutes(5)), "释放后可被其他实例认领");
+    }
+
+    private int claim(Connection connection, Long id, String owner, LocalDateTime now, LocalDateTime leaseExpiry)
+            throws Exception {
+        Map<String, Object> params = Map.of("id", id, "states", DocumentDataPO.PROCESSED_STATE_FILE_SAVED,
+                "processorId", owner, "now", Timestamp.valueOf(now), "leaseExpiry", Timestamp.valueOf(leaseExpiry));
+        return execute(connection, "claimLease", params);
+    }
+
+    private int release(Connection connection, Long id, String owner) throws Exception {
+        return execute(connection, "releaseLease", Map.of("id", id, "processorId", owner));
+    }
+
+    private String readOwner(Connection connection, long id) throws Exception {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT processor_id FROM document_data WHERE id = ?")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * 把仓库方法上的JPQL按命名规则转换成SQL执行，测试的就是实际使用的语句
+     */
+    private int execute(Connection connection, String methodName, Map<String, Object> params) throws Exception {
+        String jpql = null;
+        for (Method method : DocumentDataRepository.class.getMethods()) {
+            if (method.getName().equals(methodName)) {
+                jpql = method.getAnnotation(Query.class).value();
+            }
+        }
+        assertNotNull(jpql, methodName);
+
+        String sql = jpql.replace("DocumentDataPO d", "document_data").replace("IN :states", "IN (:states)");
+        Matcher fields = Pattern.compile("\\bd\\.([a-zA-Z]+)").matcher(sql);
+        StringBuilder converted = new StringBuilder();
+        while (fields.find()) {
+            fields.appendReplacement(converted, fields.group(1).replaceAll("([A-Z])", "_$1").toLowerCase());
+        }
+        fields.appendTail(converted);
+
+        List<Object> values = new ArrayList<>();
+        Matcher names = Pattern.compile(":(\\w+)").matcher(converted.toString());
+        StringBuilder withPlaceholders = new StringBuilder();
+        while (names.find()) {
+            values.add(params.get(names.group(1)));
+            names.appendReplacement(withPlaceholders, "?");
+        }
+        names.appendTail(withPlaceholders);
+
+        try (PreparedStatement ps = connection.prepareStatement(withPlaceholders.toString())) {
+            for (int i = 0; i < values.size(); i++) {
+                ps.setObject(i + 1, values.get(i));
+            }
+            return ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.wibot.documentLoader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.wibot.documentParser.AbstractDocumentParser;
+import com.wibot.documentParser.DocumentFormatException;
+import com.wibot.documentParser.DocumentParseException;
+import com.wibot.documentParser.ParseResultCache;
+import com.wibot.persistence.entity.DocumentDataPO;
+import com.wibot.service.SystemConfigService;
+
+/**
+ * 解析器的失败要经由 parseDocument 抛出，交给重试调度：OCR之类的临时失败安排重试，文件格式问题直接进入死信
+ */
+public class DocumentRetrySchedulerTest {
+
+    /**
+     * 所有配置都取默认值，不访问数据库
+     */
+    private static class DefaultConfigService extends SystemConfigService {
+        @Override
+        public <T> T getConfig(String key, Class<T> clazz, T defaultValue) {
+            return defaultValue;
+        }
+    }
+
+    private static class DisabledParseCache extends ParseResultCache {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+    }
+
+    /**
+     * 按给定方式失败的解析器
+     */
+    private static class FailingParser extends AbstractDocumentParser {
+        private final Runnable failure;
+
+        FailingParser(SystemConfigService systemConfigService, Runnable failure) {
+            super(systemConfigService, new DisabledParseCache(), null);
+            this.failure = failure;
+        }
+
+        void reportIncomplete(Throwable cause) {
+            markResultIncomplete(cause);
+        }
+
+        @Override
+        protected String parseDocumentInner(DocumentDataPO documentData) {
+            failure.run();
+            return "## Page 1\n\n";
+        }
+
+        @Override
+        protected String getFileType() {
+            return "pdf";
+        }
+    }
+
+    private DocumentRetryScheduler scheduler;
+    private SystemConfigService systemConfigService;
+    private DocumentDataPO document;
+
+    @BeforeEach
+    void setUp() {
+        systemConfigService = new DefaultConfigService();
+        scheduler = new DocumentRetryScheduler(systemConfigService);
+
+        document = new DocumentDataPO();
+        document.setFileName("scan.pdf");
+        document.setExtension("pdf");
+        document.setFilePath("/data/docs/scan.pdf");
+        document.setAttemptCount(0);
+    }
+
+    @Test
+    void testOcrFailureSchedulesRetry() {
+        FailingParser[] holder = new FailingParser[1];
+        holder[0] = parser(() -> holder[0].reportIncomplete(new DocumentParseException("OCR failed for page 1")));
+
+        LocalDateTime before = LocalDateTime.now();
+        process(holder[0]);
+
+        assertEquals(DocumentDataPO.PROCESSED_STATE_RETRY_WAIT, document.getProcessedState(), "OCR失败应等待重试");
+        assertEquals(DocumentDataPO.ERROR_CLASS_RETRYABLE, document.getErrorClass());
+        assertEquals(1, document.getAttemptCount());
+        assertNotNull(document.getNextAttemptTime(), "应安排下次处理时间");
+        assertTrue(document.getNextAttemptTime().isAfter(before), "下次处理时间应在之后");
+        assertTrue(document.getLastError().contains("OCR"), "应记录失败原因");
+    }
+
+    @Test
+    void testReadFailureSchedulesRetry() {
+        FailingParser[] holder = new FailingParser[1];
+        holder[0] = parser(() -> holder[0].reportIncomplete(new IOException("The process cannot access the file")));
+
+        process(holder[0]);
+
+        assertEquals(DocumentDataPO.PROCESSED_STATE_RETRY_WAIT, document.getProcessedState(), "读文件失败应等待重试");
+    }
+
+    @Test
+    void testFormatErrorGoesToDeadLetters() {
+        process(parser(() -> {
+            throw new DocumentFormatException("Unreadable PDF: scan.pdf", new IOException("Header doesn't contain versioninfo"));
+        }));
+
+        assertEquals(DocumentDataPO.PROCESSED_ERROR, document.getProcessedState(), "格式错误不应重试");
+        assertEquals(DocumentDataPO.ERROR_CLASS_POISON, document.getErrorClass());
+        assertNull(document.getNextAttemptTime());
+    }
+
+    @Test
+    void testPoisonCauseKeptInChain() {
+        FailingParser[] holder = new FailingParser[1];
+        holder[0] = parser(() -> holder[0].reportIncomplete(new ZipException("invalid CEN header")));
+
+        process(holder[0]);
+
+        assertEquals(DocumentDataPO.PROCESSED_ERROR, document.getProcessedState(), "原始的格式类异常应保留在异常链中");
+    }
+
+    @Test
+    void testRetriesExhaustedGoToDeadLetters() {
+        FailingParser[] holder = new FailingParser[1];
+        holder[0] = parser(() -> holder[0].reportIncomplete(new DocumentParseException("OCR failed")));
+
+        for (int i = 0; i < 6; i++) {
+            process(holder[0]);
+        }
+
+        assertEquals(DocumentDataPO.PROCESSED_ERROR, document.getProcessedState(), "超过最大重试次数应进入死信");
+        assertEquals(6, document.getAttemptCount());
+    }
+
+    /**
+     * 与 DocumentProcessorService 处理单个文档时的异常处理一致
+     */
+    private void process(AbstractDocumentParser parser) {
+        try {
+            parser.parseDocument(document);
+            fail("解析失败应抛出异常");
+        } catch (DocumentParseException e) {
+            scheduler.recordFailure(document, e);
+        }
+    }
+
+    private FailingParser parser(Runnable failure) {
+        // 缓存关闭，用不到文件指纹
+        return new FailingParser(systemConfigService, failure);
+    }
+}
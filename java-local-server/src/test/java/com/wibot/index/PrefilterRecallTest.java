@@ -0,0 +1,121 @@
+package com.wibot.index;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wibot.index.builder.DocumentBuilder;
+import com.wibot.service.RefineryService;
+
+/**
+ * 在固定的标注样本上统计词法预筛在默认阈值（refinery.prefilter.min.score）下的召回。
+ * 段落写入真实的 SimpleLocalLucenceIndex，按 RefineryService 预筛的规则判断保留：未打分的段落保留，分数不低于阈值的保留
+ */
+public class PrefilterRecallTest {
+    private static final Logger logger = LoggerFactory.getLogger(PrefilterRecallTest.class);
+    private static final String QUESTION = "数据库连接池最大连接数怎么配置";
+
+    /**
+     * 标注样本：true 为能回答问题的段落。其中两条相关段落换了说法，与问题没有共同的词
+     */
+    private static final Object[][] FIXTURE = {
+            { true, "数据库连接池的最大连接数通过 spring.datasource.hikari.maximum-pool-size 配置，默认为10。" },
+            { true, "生产环境建议把连接池最大连接数配置为CPU核数的两倍左右，再根据数据库的负载调整。" },
+            { true, "配置数据库连接时，除了最大连接数，还要设置连接超时时间 connection-timeout。" },
+            { true, "连接池耗尽时请求会等待空闲连接，可适当调大最大连接数配置。" },
+            { true, "H2 数据库在 AUTO_SERVER 模式下，连接池的最大连接数不宜超过20。" },
+            { true, "修改 maximum-pool-size 参数后需要重启服务，连接池配置才会生效。" },
+            { true, "数据库连接数上限由 max_connections 决定，连接池最大连接数不能超过它。" },
+            { true, "怎么查看当前连接池的配置：访问 /actuator/metrics/hikaricp.connections.max。" },
+            { true, "HikariCP 的 pool size 决定了同时能向 DB 发起多少个会话。" },
+            { true, "并发会话上限默认是十个，可以在 application.properties 里调整。" },
+            { false, "午餐菜单包括米饭、青菜和红烧肉，每周五提供水果。" },
+            { false, "会议室预订请提前一天在 OA 系统中提交申请。" },
+            { false, "年度体检安排在十月，员工可自行选择体检机构。" },
+            { false, "前端页面使用 Vue 3 开发，构建工具为 Vite。" },
+            { false, "报销单据需在每月25日前提交到财务部门。" },
+            { false, "公司班车早上七点半从地铁站出发。" },
+            { false, "日志文件保留30天，超过的会被自动清理。" },
+            { false, "新员工入职第一周需要完成安全培训。" },
+            { false, "打印机位于三楼茶水间旁边，使用工卡刷卡打印。" },
+            { false, "项目周报每周五下午五点前发送给项目经理。" },
+            { false, "图片上传大小限制为10MB，支持 JPG 和 PNG 格式。" },
+            { false, "季度团建活动将在郊外的农家乐举行。" },
+            { false, "代码提交前需要通过单元测试和代码检查。" },
+            { false, "办公网络的 Wi-Fi 密码每季度更换一次。" },
+            { false, "用户头像支持裁剪，裁剪后保存为正方形。" }, };
+
+    private Path indexDir;
+    private SimpleLocalLucenceIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        indexDir = Files.createTempDirectory("prefilter-recall");
+        index = new SimpleLocalLucenceIndex(indexDir.toString());
+        index.init();
+        for (int i = 0; i < FIXTURE.length; i++) {
+            index.insertOrUpdateByParagraphId(new DocumentBuilder(String.valueOf(paragraphId(i)))
+                    .withFilePath("/data/docs/ops.md")
+                    .withContent((String) FIXTURE[i][1]));
+        }
+        index.commitPendingOperations();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        index.close();
+        try (var paths = Files.walk(indexDir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    void testRecallAtDefaultMinScore() throws Exception {
+        double minScore = RefineryService.DEFAULT_PREFILTER_MIN_SCORE;
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < FIXTURE.length; i++) {
+            ids.add(paragraphId(i));
+        }
+        Map<Long, Float> scores = index.scoreParagraphs(QUESTION, ids);
+        assertEquals(FIXTURE.length, scores.size(), "已索引的段落都应有分数");
+
+        int relevant = 0;
+        int keptRelevant = 0;
+        int kept = 0;
+        for (int i = 0; i < FIXTURE.length; i++) {
+            Float score = scores.get(paragraphId(i));
+            boolean keep = score == null || score >= minScore;
+            if (keep) {
+                kept++;
+            }
+            if ((Boolean) FIXTURE[i][0]) {
+                relevant++;
+                if (keep) {
+                    keptRelevant++;
+                }
+            }
+        }
+        double recall = (double) keptRelevant / relevant;
+        double keepRate = (double) kept / FIXTURE.length;
+        logger.info("预筛阈值 {}: 召回 {}/{} ({})，保留段落 {}/{} ({})", minScore, keptRelevant, relevant,
+                String.format("%.2f", recall), kept, FIXTURE.length, String.format("%.2f", keepRate));
+
+        // 与问题有共同词的8条相关段落应全部保留；换了说法的2条允许漏掉
+        assertTrue(recall >= 0.8, "默认阈值下召回不应低于0.8，实际 " + recall);
+        assertTrue(keepRate < 1.0, "默认阈值应能过滤掉无关段落");
+    }
+
+    private static long paragraphId(int i) {
+        return 100L + i;
+    }
+}
@@ -0,0 +1,92 @@
+package com.wibot.persistence;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 目录匹配只包含目录本身及其下的文件：同前缀的兄弟目录、目录名中的 '_'、'%' 都不能误匹配
+ */
+public class DirectoryPathPatternTest {
+
+    private static final String[] PATHS = {
+            "/data/docs", "/data/docs/a.txt", "/data/docs/sub/b.txt", "/data/docs2/c.txt", "/data/docs_old/d.txt",
+            "/data/my_docs/e.txt", "/data/myXdocs/f.txt", "/data/100%/g.txt", "/data/1000/h.txt",
+            "D:\\data\\docs\\i.txt", "D:\\data\\docs2\\j.txt" };
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        connection = DriverManager.getConnection("jdbc:h2:mem:directory-pattern", "sa", "");
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE document_data (file_path VARCHAR(255))");
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO document_data VALUES (?)")) {
+            for (String path : PATHS) {
+                ps.setString(1, path);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    void testSiblingWithSamePrefixExcluded() throws Exception {
+        assertEquals(List.of("/data/docs", "/data/docs/a.txt", "/data/docs/sub/b.txt"), match("/data/docs"),
+                "docs 不应匹配 docs2、docs_old 下的文件");
+        assertEquals(match("/data/docs"), match("/data/docs/"), "末尾分隔符不影响结果");
+    }
+
+    @Test
+    void testWildcardsInDirectoryMatchedLiterally() throws Exception {
+        assertEquals(List.of("/data/my_docs/e.txt"), match("/data/my_docs"), "'_' 应按原字符匹配");
+        assertEquals(List.of("/data/100%/g.txt"), match("/data/100%"), "'%' 应按原字符匹配");
+    }
+
+    @Test
+    void testBackslashSeparator() throws Exception {
+        assertEquals(List.of("D:\\data\\docs\\i.txt"), match("D:\\data\\docs"), "'\\' 也应视为分隔符");
+    }
+
+    @Test
+    void testEmptyDirectoryMatchesAll() throws Exception {
+        assertEquals(PATHS.length, match("").size(), "空目录应匹配所有路径");
+    }
+
+    /**
+     * 与仓库中按目录查询的条件一致
+     */
+    private List<String> match(String directoryPath) throws Exception {
+        char escape = DirectoryPathPattern.ESCAPE;
+        String sql = "SELECT file_path FROM document_data WHERE file_path = ? OR file_path LIKE ? ESCAPE '" + escape
+                + "' OR file_path LIKE ? ESCAPE '" + escape + "' ORDER BY file_path";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.setString(1, DirectoryPathPattern.directory(directoryPath));
+            ps.setString(2, DirectoryPathPattern.children(directoryPath, '/'));
+            ps.setString(3, DirectoryPathPattern.children(directoryPath, '\\'));
+            List<String> paths = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    paths.add(rs.getString(1));
+                }
+            }
+            return paths;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.wibot.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.wibot.persistence.entity.DocumentDataPO;
+
+/**
+ * 修改时间带纳秒的文件，入库后只剩微秒，重新扫描时仍应判定为未变化
+ */
+public class FileFingerprintServiceTest {
+
+    // 亚微秒部分非零的修改时间
+    private static final Instant MTIME = Instant.parse("2024-03-01T08:15:30.123456789Z");
+
+    private FileFingerprintService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new FileFingerprintService();
+    }
+
+    @Test
+    void testSubMicrosecondMtimeUnchanged() {
+        // 数据库中保存的是截断到微秒的值
+        DocumentDataPO recorded = document(toLocal(MTIME).truncatedTo(ChronoUnit.MICROS), 1024L);
+        DocumentDataPO current = document(toLocal(MTIME), 1024L);
+
+        assertTrue(service.isUnchanged(recorded, current), "只差亚微秒部分的修改时间应视为一致");
+    }
+
+    @Test
+    void testRoundedUpMtimeUnchanged() {
+        // 入库时进位到下一毫秒的情况
+        Instant mtime = Instant.parse("2024-03-01T08:15:30.123999700Z");
+        DocumentDataPO recorded = document(toLocal(Instant.parse("2024-03-01T08:15:30.124Z")), 1024L);
+        DocumentDataPO current = document(toLocal(mtime), 1024L);
+
+        assertTrue(service.isUnchanged(recorded, current), "进位后的修改时间应视为一致");
+    }
+
+    @Test
+    void testRealFileMtimeUnchanged() throws Exception {
+        Path file = Files.createTempFile("fingerprint", ".txt");
+        try {
+            Files.writeString(file, "content");
+            Files.setLastModifiedTime(file, FileTime.from(MTIME));
+            LocalDateTime mtime = toLocal(Files.getLastModifiedTime(file).toInstant());
+
+            DocumentDataPO recorded = document(mtime.truncatedTo(ChronoUnit.MICROS), Files.size(file));
+            DocumentDataPO current = document(mtime, Files.size(file));
+
+            assertTrue(service.isUnchanged(recorded, current), "文件系统读到的修改时间应与入库值一致");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testChangedMtimeDetected() {
+        DocumentDataPO recorded = document(toLocal(MTIME), 1024L);
+        DocumentDataPO current = document(toLocal(MTIME.plusMillis(2)), 1024L);
+
+        assertFalse(service.isUnchanged(recorded, current), "修改时间变化应重新计算指纹");
+    }
+
+    @Test
+    void testChangedSizeDetected() {
+        DocumentDataPO recorded = document(toLocal(MTIME), 1024L);
+        DocumentDataPO current = document(toLocal(MTIME), 2048L);
+
+        assertFalse(service.isUnchanged(recorded, current), "文件大小变化应重新计算指纹");
+    }
+
+    @Test
+    void testDeletedRecordNotReused() {
+        DocumentDataPO recorded = document(toLocal(MTIME), 1024L);
+        recorded.setProcessedState(DocumentDataPO.PROCESSED_STATE_DELETED);
+
+        assertFalse(service.isUnchanged(recorded, document(toLocal(MTIME), 1024L)), "已删除的记录不适用");
+    }
+
+    @Test
+    void testFileEditedAfterRecordDetected() throws Exception {
+        Path file = Files.createTempFile("fingerprint", ".txt");
+        try {
+            Files.writeString(file, "content");
+            Files.setLastModifiedTime(file, FileTime.from(MTIME));
+            DocumentDataPO recorded = document(toLocal(Files.getLastModifiedTime(file).toInstant()), Files.size(file));
+            recorded.setFilePath(file.toString());
+            assertTrue(service.matchesFileAttributes(recorded), "未修改的文件应与记录一致");
+
+            // 记录指纹之后、解析之前文件被修改
+            Files.writeString(file, "content changed");
+            Files.setLastModifiedTime(file, FileTime.from(MTIME.plusSeconds(5)));
+            assertFalse(service.matchesFileAttributes(recorded), "修改后的文件不应再使用记录中的指纹");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void testMissingFileDoesNotMatch() {
+        DocumentDataPO recorded = document(toLocal(MTIME), 1024L);
+        recorded.setFilePath("/no/such/file.txt");
+
+        assertFalse(service.matchesFileAttributes(recorded), "读不到的文件不应使用缓存");
+    }
+
+    private static DocumentDataPO document(LocalDateTime mtime, Long size) {
+        DocumentDataPO document = new DocumentDataPO();
+        document.setMd5("murmur3:0123456789abcdef0123456789abcdef");
+        document.setUpdateDateTime(mtime);
+        document.setFileSize(size);
+        return document;
+    }
+
+    private static LocalDateTime toLocal(Instant instant) {
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+}
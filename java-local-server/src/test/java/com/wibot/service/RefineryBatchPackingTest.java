@@ -0,0 +1,271 @@
+package com.wibot.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.core.io.ByteArrayResource;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wibot.persistence.entity.MarkdownParagraphPO;
+import com.wibot.persistence.entity.RefineryTaskDO;
+import com.wibot.service.dto.BatchProcessResult;
+
+/**
+ * 多个段落按字符预算打包成一次请求时，抽取出的事实仍应归回各自的段落，召回与逐段请求一致。
+ * 经由 extractFactsFromParagraph 打包，调度器在当前线程直接执行批次；用按规则回答的模拟大模型代替真实调用：
+ * 参考内容中提到发布日期的段落返回一条事实，id 取提示词中给出的 id
+ */
+public class RefineryBatchPackingTest {
+    private static final String QUESTION = "各版本的发布日期是什么时候？";
+    private static final long TASK_ID = 7L;
+    private static final int PARAGRAPH_COUNT = 24;
+    private static final int PACKED_MAX_CHARS = 1000;
+
+    /**
+     * 模拟大模型。提示词模板只有 {references}，提示词内容就是本批次的参考内容，记录每次请求收到的参考内容
+     */
+    private static class MockLLMChat extends SingletonLLMChat {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final List<List<Map<String, Object>>> requests = new ArrayList<>();
+        private boolean addUnknownId = false;
+
+        @Override
+        public String sendThrottledRequest(Prompt prompt, String cacheSite, String cacheKeySource) {
+            try {
+                List<Map<String, Object>> references = objectMapper.readValue(prompt.getContents(),
+                        new TypeReference<List<Map<String, Object>>>() {
+                        });
+                requests.add(references);
+                List<Map<String, Object>> answer = new ArrayList<>();
+                for (Map<String, Object> reference : references) {
+                    String content = (String) reference.get("content");
+                    if (content.contains("发布日期")) {
+                        answer.add(Map.of("fact", content, "id", reference.get("id").toString()));
+                    }
+                }
+                if (addUnknownId) {
+                    answer.add(Map.of("fact", "无法对应的事实", "id", "999"));
+                }
+                return "```json\n" + objectMapper.writeValueAsString(Map.of("answer", answer)) + "\n```";
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void evictCachedResponse(String cacheSite, String cacheKeySource) {
+        }
+    }
+
+    /**
+     * 在提交的线程中直接执行批次，记录每个批次的字符数
+     */
+    private static class InlineScheduler extends RefineryScheduler {
+        private final List<Long> costs = new ArrayList<>();
+
+        @Override
+        public <T> Future<T> submit(Long taskId, long cost, Callable<T> batch) {
+            costs.add(cost);
+            FutureTask<T> future = new FutureTask<>(batch);
+            future.run();
+            return future;
+        }
+    }
+
+    /**
+     * 每批字符预算可调，其余配置取默认值，不访问数据库
+     */
+    private static class BatchConfigService extends SystemConfigService {
+        private int maxBatchChars;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T getConfig(String key, Class<T> clazz, T defaultValue) {
+            if (RefineryService.CONFIG_REFINERY_BATCH_MAX_CHARS.equals(key)) {
+                return (T) Integer.valueOf(maxBatchChars);
+            }
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 记录写入的事实，不访问数据库
+     */
+    private static class RecordingFactWriter extends RefineryFactWriter {
+        private final Map<Long, String> facts = new HashMap<>();
+        private final List<Long> replaced = new ArrayList<>();
+
+        @Override
+        public synchronized void replaceFacts(Long taskId, Collection<Long> paragraphIds, Map<Long, String> facts,
+                Map<Long, String> contentHashes) {
+            replaced.addAll(paragraphIds);
+            for (Long paragraphId : paragraphIds) {
+                if (facts.get(paragraphId) != null) {
+                    this.facts.put(paragraphId, facts.get(paragraphId));
+                } else {
+                    this.facts.remove(paragraphId);
+                }
+            }
+        }
+    }
+
+    private RefineryService service;
+    private MockLLMChat llmChat;
+    private InlineScheduler scheduler;
+    private BatchConfigService configService;
+    private RecordingFactWriter factWriter;
+    private RefineryTaskDO task;
+
+    @BeforeEach
+    void setUp() {
+        llmChat = new MockLLMChat();
+        scheduler = new InlineScheduler();
+        configService = new BatchConfigService();
+        factWriter = new RecordingFactWriter();
+        service = new RefineryService(llmChat, factWriter, scheduler, configService,
+                new ObjectMapper().findAndRegisterModules(),
+                new ByteArrayResource("{references}".getBytes(StandardCharsets.UTF_8)));
+        task = new RefineryTaskDO();
+        task.setId(TASK_ID);
+    }
+
+    @Test
+    void testPackedRecallMatchesUnpacked() throws Exception {
+        // 预算小于任何一个段落时每个段落自成一批
+        Map<Long, String> unpacked = extract(paragraphs(), 1);
+        int unpackedRequests = llmChat.requests.size();
+        llmChat.requests.clear();
+        scheduler.costs.clear();
+        factWriter.facts.clear();
+        Map<Long, String> packed = extract(paragraphs(), PACKED_MAX_CHARS);
+
+        assertEquals(1.0, recall(unpacked), "逐段请求应召回全部相关段落");
+        assertEquals(recall(unpacked), recall(packed), "打包后召回不应下降");
+        assertEquals(unpacked, packed, "打包后每条事实应归回同一段落");
+        assertEquals(PARAGRAPH_COUNT, unpackedRequests);
+        assertTrue(llmChat.requests.size() < PARAGRAPH_COUNT / 2, "打包后请求数应减少，实际 " + llmChat.requests.size());
+        assertEquals(PARAGRAPH_COUNT, llmChat.requests.stream().mapToInt(List::size).sum(), "每个段落只发送一次");
+        for (long cost : scheduler.costs) {
+            assertTrue(cost <= PACKED_MAX_CHARS, "多段落批次不应超出字符预算，实际 " + cost);
+        }
+        assertPartsRenumbered();
+    }
+
+    @Test
+    void testOversizedParagraphFormsOwnBatch() throws Exception {
+        List<MarkdownParagraphPO> paragraphs = paragraphs();
+        MarkdownParagraphPO oversized = paragraph(5000L, 100, "版本 9.9 的发布日期是 2025-01-01。" + "更新说明".repeat(400));
+        paragraphs.add(10, oversized);
+
+        Map<Long, String> packed = extract(paragraphs, PACKED_MAX_CHARS);
+
+        List<Map<String, Object>> alone = null;
+        for (List<Map<String, Object>> references : llmChat.requests) {
+            if (references.stream().anyMatch(r -> oversized.getContent().equals(r.get("content")))) {
+                alone = references;
+            }
+        }
+        assertNotNull(alone, "超出预算的段落也应发送");
+        assertEquals(1, alone.size(), "超出预算的段落应自成一批");
+        assertEquals(1, scheduler.costs.stream().filter(cost -> cost > PACKED_MAX_CHARS).count(),
+                "只有单个段落的批次可以超出预算");
+        assertEquals(oversized.getContent(), packed.get(oversized.getId()), "超出预算的段落事实应归回该段落");
+        assertEquals(1.0, recall(packed), "前后段落的召回不受影响");
+        assertPartsRenumbered();
+    }
+
+    @Test
+    void testUnknownIdDiscarded() throws Exception {
+        llmChat.addUnknownId = true;
+        Map<Long, String> packed = extract(paragraphs(), PACKED_MAX_CHARS);
+
+        assertEquals(1.0, recall(packed));
+        assertFalse(packed.containsValue("无法对应的事实"), "无法对应到段落的事实应丢弃");
+        assertEquals(PARAGRAPH_COUNT, factWriter.replaced.size(), "批次中的每个段落都应写入或清除事实");
+    }
+
+    /**
+     * 经由 extractFactsFromParagraph 按字符预算打包后抽取，批次已在当前线程执行完
+     */
+    private Map<Long, String> extract(List<MarkdownParagraphPO> paragraphs, int maxBatchChars) throws Exception {
+        configService.maxBatchChars = maxBatchChars;
+        List<Future<BatchProcessResult>> futures = service.extractFactsFromParagraph(paragraphs, QUESTION, task);
+        for (Future<BatchProcessResult> future : futures) {
+            future.get();
+        }
+        assertEquals(llmChat.requests.size(), futures.size(), "每个批次一次请求");
+        return new HashMap<>(factWriter.facts);
+    }
+
+    /**
+     * 每个批次的参考内容都从第1篇开始编号，换批时不沿用上一批的序号
+     */
+    private void assertPartsRenumbered() {
+        for (List<Map<String, Object>> references : llmChat.requests) {
+            for (int i = 0; i < references.size(); i++) {
+                assertEquals("第" + (i + 1) + "篇参考内容", references.get(i).get("part"));
+            }
+        }
+    }
+
+    /**
+     * 相关段落中事实归到正确段落的比例
+     */
+    private static double recall(Map<Long, String> facts) {
+        int relevant = 0;
+        int found = 0;
+        for (int i = 0; i < PARAGRAPH_COUNT; i++) {
+            if (!isRelevant(i)) {
+                continue;
+            }
+            relevant++;
+            String fact = facts.get(paragraphId(i));
+            if (fact != null && fact.contains(content(i))) {
+                found++;
+            }
+        }
+        return (double) found / relevant;
+    }
+
+    private static List<MarkdownParagraphPO> paragraphs() {
+        List<MarkdownParagraphPO> paragraphs = new ArrayList<>();
+        for (int i = 0; i < PARAGRAPH_COUNT; i++) {
+            paragraphs.add(paragraph(paragraphId(i), i, content(i)));
+        }
+        return paragraphs;
+    }
+
+    private static MarkdownParagraphPO paragraph(long id, int order, String content) {
+        MarkdownParagraphPO paragraph = new MarkdownParagraphPO(content, LocalDateTime.of(2024, 6, 1, 0, 0));
+        paragraph.setId(id);
+        paragraph.setParagraphOrder(order);
+        return paragraph;
+    }
+
+    private static long paragraphId(int i) {
+        return 1000L + i * 3;
+    }
+
+    private static boolean isRelevant(int i) {
+        return i % 3 != 1;
+    }
+
+    private static String content(int i) {
+        return isRelevant(i) ? "版本 " + i + ".0 的发布日期是 2024-" + (i % 12 + 1) + "-15。"
+                : "第 " + i + " 节介绍安装步骤，与发布时间无关。";
+    }
+}
@@ -0,0 +1,224 @@
+package com.wibot.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 在内存 H2 上对比事实写入的两种方式：原来的 saveFact 每条事实按 (任务, 段落) 查询后追加或插入、逐条提交，
+ * 与 RefineryFactWriter 在一个事务里批量 DELETE + MERGE ... KEY。批量写入至少要快 MIN_SPEEDUP 倍
+ */
+public class RefineryFactWriterBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(RefineryFactWriterBenchmarkTest.class);
+
+    private static final long TASK_ID = 1L;
+    private static final int PARAGRAPH_COUNT = 5000;
+    private static final String FACT_PADDING = "事实内容".repeat(50);
+    private static final double MIN_SPEEDUP = 1.5;
+
+    private Connection perFact;
+    private Connection batched;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        perFact = DriverManager.getConnection("jdbc:h2:mem:facts-per-fact", "sa", "");
+        batched = DriverManager.getConnection("jdbc:h2:mem:facts-batched", "sa", "");
+        createTable(perFact);
+        createTable(batched);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        perFact.close();
+        batched.close();
+    }
+
+    @Test
+    void testMergeBatchFasterThanPerFactWrites() throws Exception {
+        warmUp();
+
+        // 第一轮全部新增；第二轮偶数段落重新抽取出新事实，每5个段落没有事实
+        long perFactInsert = timed(() -> writePerFact(perFact, 0));
+        long batchedInsert = timed(() -> writeBatched(batched, 0));
+        Map<Long, String> firstRound = readFacts(perFact);
+        assertEquals(firstRound, readFacts(batched), "新增时两种写法的结果应一致");
+
+        long perFactUpdate = timed(() -> writePerFact(perFact, 1));
+        long batchedUpdate = timed(() -> writeBatched(batched, 1));
+
+        // 批量写入以本轮结果替换，没有事实的段落删除
+        Map<Long, String> replaced = readFacts(batched);
+        assertEquals(PARAGRAPH_COUNT - PARAGRAPH_COUNT / 5, replaced.size());
+        assertEquals(replaced.size(), countRows(batched), "MERGE 不应产生重复行");
+        for (Map.Entry<Long, String> entry : replaced.entrySet()) {
+            assertEquals(fact(entry.getKey(), 1), entry.getValue());
+        }
+        // 原来的写法在旧事实后追加，没有事实的段落保持不变
+        Map<Long, String> appended = readFacts(perFact);
+        assertEquals(PARAGRAPH_COUNT, appended.size());
+        for (Map.Entry<Long, String> entry : appended.entrySet()) {
+            String fact = fact(entry.getKey(), 1);
+            String expected = firstRound.get(entry.getKey()) + (fact != null ? "\n" + fact : "");
+            assertEquals(expected, entry.getValue());
+        }
+
+        long perFactTotal = perFactInsert + perFactUpdate;
+        long batchedTotal = batchedInsert + batchedUpdate;
+        logger.info("写入 {} 条事实: 逐条 {} ms / 批量 {} ms；更新: 逐条 {} ms / 批量 {} ms", PARAGRAPH_COUNT,
+                perFactInsert, batchedInsert, perFactUpdate, batchedUpdate);
+        assertTrue(batchedTotal * MIN_SPEEDUP <= perFactTotal,
+                "批量写入应至少快 " + MIN_SPEEDUP + " 倍，逐条 " + perFactTotal + " ms，批量 " + batchedTotal + " ms");
+    }
+
+    /**
+     * 两种写法各跑一遍再清空，首次运行的类加载和JIT不计入耗时
+     */
+    private void warmUp() throws Exception {
+        writePerFact(perFact, 0);
+        writeBatched(batched, 0);
+        for (Connection connection : new Connection[] { perFact, batched }) {
+            try (Statement st = connection.createStatement()) {
+                st.execute("TRUNCATE TABLE refinery_fact");
+            }
+        }
+    }
+
+    /**
+     * 原来的 saveFact：每条事实查询一次，存在则追加到旧事实之后，否则插入，每次保存单独提交
+     */
+    private void writePerFact(Connection connection, int round) throws Exception {
+        connection.setAutoCommit(true);
+        try (PreparedStatement find = connection.prepareStatement(
+                "SELECT id, fact FROM refinery_fact WHERE refinery_task_id = ? AND paragraph_id = ?");
+                PreparedStatement update = connection.prepareStatement(
+                        "UPDATE refinery_fact SET fact = ? WHERE id = ?");
+                PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO refinery_fact (refinery_task_id, paragraph_id, fact, created_time) "
+                                + "VALUES (?, ?, ?, ?)")) {
+            for (long paragraphId = 1; paragraphId <= PARAGRAPH_COUNT; paragraphId++) {
+                String fact = fact(paragraphId, round);
+                if (fact == null) {
+                    continue;
+                }
+                find.setLong(1, TASK_ID);
+                find.setLong(2, paragraphId);
+                Long id = null;
+                String existing = null;
+                try (ResultSet rs = find.executeQuery()) {
+                    if (rs.next()) {
+                        id = rs.getLong(1);
+                        existing = rs.getString(2);
+                    }
+                }
+                if (id != null) {
+                    update.setString(1, existing + "\n" + fact);
+                    update.setLong(2, id);
+                    update.executeUpdate();
+                } else {
+                    insert.setLong(1, TASK_ID);
+                    insert.setLong(2, paragraphId);
+                    insert.setString(3, fact);
+                    insert.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+                    insert.executeUpdate();
+                }
+            }
+        }
+    }
+
+    /**
+     * 与 RefineryFactWriter.flush 相同：一个事务里先批量删除再批量 MERGE
+     */
+    private void writeBatched(Connection connection, int round) throws Exception {
+        connection.setAutoCommit(false);
+        try (PreparedStatement delete = connection.prepareStatement(RefineryFactWriter.DELETE_SQL);
+                PreparedStatement merge = connection.prepareStatement(RefineryFactWriter.MERGE_SQL)) {
+            for (long paragraphId = 1; paragraphId <= PARAGRAPH_COUNT; paragraphId++) {
+                String fact = fact(paragraphId, round);
+                if (fact == null) {
+                    delete.setLong(1, TASK_ID);
+                    delete.setLong(2, paragraphId);
+                    delete.addBatch();
+                } else {
+                    merge.setLong(1, TASK_ID);
+                    merge.setLong(2, paragraphId);
+                    merge.setString(3, fact);
+                    merge.setString(4, "hash" + round);
+                    merge.setNull(5, Types.DOUBLE);
+                    merge.setTimestamp(6, Timestamp.valueOf(LocalDateTime.now()));
+                    merge.addBatch();
+                }
+            }
+            delete.executeBatch();
+            merge.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * 第 round 轮段落的事实，null 表示该段落没有事实
+     */
+    private static String fact(long paragraphId, int round) {
+        if (round > 0 && paragraphId % 5 == 0) {
+            return null;
+        }
+        int version = round > 0 && paragraphId % 2 == 0 ? round : 0;
+        return "段落 " + paragraphId + " 第 " + version + " 版 " + FACT_PADDING;
+    }
+
+    private static void createTable(Connection connection) throws Exception {
+        try (Statement st = connection.createStatement()) {
+            // 与 RefineryFactDO 生成的表结构一致
+            st.execute("CREATE TABLE refinery_fact (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                    + "refinery_task_id BIGINT NOT NULL, paragraph_id BIGINT NOT NULL, fact VARCHAR(10000) NOT NULL, "
+                    + "created_time TIMESTAMP NOT NULL, content_hash VARCHAR(64), skipped_min_score DOUBLE)");
+            st.execute("CREATE INDEX idx_refinery_task ON refinery_fact (refinery_task_id)");
+            st.execute("CREATE INDEX idx_paragraph ON refinery_fact (paragraph_id)");
+        }
+    }
+
+    private static Map<Long, String> readFacts(Connection connection) throws Exception {
+        Map<Long, String> facts = new TreeMap<>();
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT paragraph_id, fact FROM refinery_fact")) {
+            while (rs.next()) {
+                facts.put(rs.getLong(1), rs.getString(2));
+            }
+        }
+        return facts;
+    }
+
+    private static long countRows(Connection connection) throws Exception {
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM refinery_fact")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private static long timed(Work work) throws Exception {
+        long start = System.nanoTime();
+        work.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
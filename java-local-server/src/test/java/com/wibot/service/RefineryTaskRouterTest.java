@@ -0,0 +1,99 @@
+package com.wibot.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 任务目录只覆盖自身及其子目录下的文件，/ 和 \ 视为同一分隔符，删除任务后不留下空节点
+ */
+public class RefineryTaskRouterTest {
+
+    private RefineryTaskRouter router;
+
+    @BeforeEach
+    void setUp() {
+        // 不调用 init，不访问数据库
+        router = new RefineryTaskRouter();
+    }
+
+    @Test
+    void testSiblingWithSamePrefixNotCovered() {
+        router.add(1L, "/data/docs");
+        router.add(2L, "/data/docs2");
+
+        assertEquals(List.of(1L), router.findTasksCovering("/data/docs/a.txt"), "docs 下的文件只属于 docs 的任务");
+        assertEquals(List.of(2L), router.findTasksCovering("/data/docs2/a.txt"), "docs2 下的文件不属于 docs 的任务");
+        assertEquals(List.of(1L), router.findTasksCovering("/data/docs/sub/deep/b.txt"), "子目录下的文件也应覆盖");
+        assertTrue(router.findTasksCovering("/data/other.txt").isEmpty());
+    }
+
+    @Test
+    void testBackslashAndSlashEquivalent() {
+        router.add(1L, "D:\\data\\docs");
+        router.add(2L, "D:/data/docs/reports/");
+
+        assertEquals(List.of(1L, 2L), router.findTasksCovering("D:/data/docs/reports/q1.xlsx"));
+        assertEquals(List.of(1L, 2L), router.findTasksCovering("D:\\data\\docs\\reports\\q1.xlsx"));
+        assertEquals(List.of(1L), router.findTasksCovering("D:\\data\\docs\\readme.md"));
+    }
+
+    @Test
+    void testRootTaskCoversEverything() {
+        router.add(1L, "");
+        router.add(2L, "/data/docs");
+
+        assertEquals(List.of(1L), router.findTasksCovering("/tmp/x.txt"), "根任务覆盖所有文件");
+        assertEquals(List.of(1L, 2L), router.findTasksCovering("/data/docs/a.txt"));
+    }
+
+    @Test
+    void testRemoveCleansEmptyNodes() throws Exception {
+        router.add(1L, "/data/docs/a/b");
+        router.add(2L, "/data/docs/a/b");
+        router.add(3L, "/data/docs/x");
+        assertEquals(3, router.getTaskCount());
+
+        router.remove(1L, "/data/docs/a/b");
+        assertEquals(List.of(2L), router.findTasksCovering("/data/docs/a/b/c.txt"), "同目录的其他任务应保留");
+        router.remove(2L, "/data/docs/a/b");
+        assertTrue(router.findTasksCovering("/data/docs/a/b/c.txt").isEmpty());
+        assertFalse(childrenOf(node("data", "docs")).containsKey("a"), "删除后空节点应被清理");
+        assertTrue(childrenOf(node("data", "docs")).containsKey("x"), "仍有任务的节点应保留");
+
+        router.remove(3L, "/data/docs/x");
+        assertEquals(0, router.getTaskCount());
+        assertTrue(childrenOf(rootNode()).isEmpty(), "全部删除后只剩根节点");
+
+        // 删除不存在的任务不应出错
+        router.remove(4L, "/no/such/dir");
+        assertEquals(0, router.getTaskCount());
+    }
+
+    private Object rootNode() throws Exception {
+        Field field = RefineryTaskRouter.class.getDeclaredField("root");
+        field.setAccessible(true);
+        return field.get(router);
+    }
+
+    private Object node(String... segments) throws Exception {
+        Object node = rootNode();
+        for (String segment : segments) {
+            node = childrenOf(node).get(segment);
+            assertNotNull(node, segment);
+        }
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> childrenOf(Object node) throws Exception {
+        Field field = node.getClass().getDeclaredField("children");
+        field.setAccessible(true);
+        return (Map<String, Object>) field.get(node);
+    }
+}
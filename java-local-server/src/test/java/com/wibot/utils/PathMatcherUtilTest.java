@@ -86,4 +86,32 @@ public class PathMatcherUtilTest {
         assertFalse(matcher.matches(Path.of("app.login")), "类似后缀名不应匹配");
         assertFalse(matcher.matches(Path.of("log/app.txt")), "非日志目录下的文件不应匹配");
     }
+
+    @Test
+    void testDirectoryExcluded() {
+        // 目录规则命中的目录可以整体跳过
+        assertTrue(matcher.isDirectoryExcluded(Path.of(".idea")), "根目录下的.idea应该跳过");
+        assertTrue(matcher.isDirectoryExcluded(Path.of("module/target")), "子目录下的target应该跳过");
+        assertTrue(matcher.isDirectoryExcluded(Path.of("app.log.old")), "匹配目录规则的目录应该跳过");
+
+        // 文件规则和不完整的名称不影响目录
+        assertFalse(matcher.isDirectoryExcluded(Path.of("videos.avi")), "文件规则不应跳过目录");
+        assertFalse(matcher.isDirectoryExcluded(Path.of("mytarget")), "不应跳过含target的目录名");
+        assertFalse(matcher.isDirectoryExcluded(Path.of("module")), "普通目录不应跳过");
+    }
+
+    @Test
+    void testDirectoryContentPatterns() {
+        // 以 /** 结尾的规则只匹配目录下的内容，与原glob语义一致
+        PathMatcherUtil contentMatcher = new PathMatcherUtil(Arrays.asList("**/node_modules/**", "docs/*/draft"));
+
+        assertTrue(contentMatcher.matches(Path.of("node_modules/lodash/index.js")), "node_modules下的文件应该匹配");
+        assertTrue(contentMatcher.matches(Path.of("web/node_modules/a.js")), "子目录下node_modules中的文件应该匹配");
+        assertFalse(contentMatcher.matches(Path.of("node_modules")), "node_modules本身不匹配");
+        assertTrue(contentMatcher.isDirectoryExcluded(Path.of("web/node_modules/lodash")), "node_modules下的目录应该跳过");
+
+        assertTrue(contentMatcher.matches(Path.of("docs/v1/draft/a.md")), "多段规则应该匹配");
+        assertTrue(contentMatcher.isDirectoryExcluded(Path.of("site/docs/v1/draft")), "多段规则命中的目录应该跳过");
+        assertFalse(contentMatcher.matches(Path.of("docs/draft/a.md")), "段数不符不应匹配");
+    }
 }